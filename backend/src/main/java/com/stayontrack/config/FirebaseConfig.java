@@ -1,30 +1,47 @@
 package com.stayontrack.config;
 
 import java.io.InputStream;
+import java.util.List;
 
 import org.springframework.context.annotation.Configuration;
 
 import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.firestore.FirestoreOptions;
+import com.google.cloud.firestore.v1.FirestoreSettings;
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.FirebaseOptions;
+import com.stayontrack.service.FirestoreCostLedger;
 
 import jakarta.annotation.PostConstruct;
 
 @Configuration
 public class FirebaseConfig {
 
+    private final FirestoreCostLedger costLedger;
+
+    public FirebaseConfig(FirestoreCostLedger costLedger) {
+        this.costLedger = costLedger;
+    }
+
     @PostConstruct
     public void initialize() {
         try {
             InputStream serviceAccount =
                     getClass().getClassLoader().getResourceAsStream("firebase-key.json");
 
-            FirebaseOptions options = FirebaseOptions.builder()
-                    .setCredentials(GoogleCredentials.fromStream(serviceAccount))
-                    .build();
+            FirebaseOptions.Builder options = FirebaseOptions.builder()
+                    .setCredentials(GoogleCredentials.fromStream(serviceAccount));
+            if (costLedger.isEnabled()) {
+                // Count every Firestore RPC (see FirestoreCostLedger)
+                options.setFirestoreOptions(FirestoreOptions.newBuilder()
+                        .setChannelProvider(FirestoreSettings.defaultGrpcTransportProviderBuilder()
+                                .setInterceptorProvider(() -> List.of(costLedger.interceptor()))
+                                .build())
+                        .build());
+            }
 
             if (FirebaseApp.getApps().isEmpty()) {
-                FirebaseApp.initializeApp(options);
+                FirebaseApp.initializeApp(options.build());
             }
 
             System.out.println("🔥 Firebase initialized successfully!");
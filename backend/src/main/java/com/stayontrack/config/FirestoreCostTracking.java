@@ -0,0 +1,85 @@
+package com.stayontrack.config;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import com.stayontrack.service.FirestoreCostLedger;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Charges the Firestore traffic of each API request to its endpoint ("GET /api/planner/today")
+ * through {@link FirestoreCostLedger}, and, when stayontrack.firestore.cost-ledger.headers is on,
+ * reports the request's totals in X-Firestore-Reads / -Writes / -Deletes / -Round-Trips headers.
+ */
+@ControllerAdvice
+public class FirestoreCostTracking implements WebMvcConfigurer, AsyncHandlerInterceptor, ResponseBodyAdvice<Object> {
+
+    private static final String USAGE_ATTRIBUTE = FirestoreCostTracking.class.getName() + ".usage";
+    private static final String UNMAPPED = "UNMAPPED";
+
+    private final FirestoreCostLedger ledger;
+
+    public FirestoreCostTracking(FirestoreCostLedger ledger) {
+        this.ledger = ledger;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        if (ledger.isEnabled()) registry.addInterceptor(this).addPathPatterns("/api/**");
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // Async dispatches come through again and continue the original request's usage.
+        if (request.getAttribute(USAGE_ATTRIBUTE) instanceof FirestoreCostLedger.Usage usage) {
+            FirestoreCostLedger.bind(usage);
+            return true;
+        }
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        // Unmatched requests share one bucket: raw URIs (and arbitrary methods) would make the endpoint tag unbounded.
+        String endpoint = pattern != null ? request.getMethod() + " " + pattern : UNMAPPED;
+        request.setAttribute(USAGE_ATTRIBUTE, ledger.begin(endpoint));
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        FirestoreCostLedger.bind(null);  // this thread goes back to the pool; the request goes on elsewhere
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        if (request.getAttribute(USAGE_ATTRIBUTE) instanceof FirestoreCostLedger.Usage usage) {
+            ledger.finish(usage);
+        }
+    }
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return ledger.headersEnabled();
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType contentType,
+            Class<? extends HttpMessageConverter<?>> converterType, ServerHttpRequest request, ServerHttpResponse response) {
+        FirestoreCostLedger.Usage usage = FirestoreCostLedger.current();
+        if (usage != null) {
+            response.getHeaders().set("X-Firestore-Reads", Long.toString(usage.reads()));
+            response.getHeaders().set("X-Firestore-Writes", Long.toString(usage.writes()));
+            response.getHeaders().set("X-Firestore-Deletes", Long.toString(usage.deletes()));
+            response.getHeaders().set("X-Firestore-Round-Trips", Long.toString(usage.roundTrips()));
+        }
+        return body;
+    }
+}
@@ -0,0 +1,12 @@
+package com.stayontrack.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Enables @Scheduled background jobs (listener idle sweep, write flushes, retention).
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -6,11 +6,12 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import com.stayontrack.model.Assignment;
+import com.stayontrack.model.dto.Page;
 import com.stayontrack.service.FirestoreService;
 
 @RestController
 @RequestMapping("/api/assignments")
-@CrossOrigin("*")
+@CrossOrigin(value = "*", exposedHeaders = Page.NEXT_PAGE_TOKEN_HEADER)
 public class AssignmentController {
 
     private final FirestoreService firestoreService;
@@ -34,10 +35,16 @@ public class AssignmentController {
 
     @GetMapping
     public ResponseEntity<List<Assignment>> getAssignments(
-            @RequestParam(defaultValue = "default-user") String userId) {
+            @RequestParam(defaultValue = "default-user") String userId,
+            @RequestParam(required = false) Integer pageSize,
+            @RequestParam(required = false) String pageToken) {
         try {
-            List<Assignment> list = firestoreService.getAssignmentsByUserId(userId);
-            return ResponseEntity.ok(list);
+            Page<Assignment> page = firestoreService.getAssignmentsByUserId(userId, pageSize != null ? pageSize : Page.DEFAULT_PAGE_SIZE, pageToken);
+            ResponseEntity.BodyBuilder ok = ResponseEntity.ok();
+            if (page.getNextPageToken() != null) ok.header(Page.NEXT_PAGE_TOKEN_HEADER, page.getNextPageToken());
+            return ok.body(page.getItems());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.internalServerError().build();
@@ -7,11 +7,12 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import com.stayontrack.model.Deadline;
+import com.stayontrack.model.dto.Page;
 import com.stayontrack.service.FirestoreService;
 
 @RestController
 @RequestMapping("/api/deadlines")
-@CrossOrigin("*")
+@CrossOrigin(value = "*", exposedHeaders = Page.NEXT_PAGE_TOKEN_HEADER)
 public class DeadlineController {
 
     private final FirestoreService firestoreService;
@@ -34,10 +35,17 @@ public class DeadlineController {
     }
 
     @GetMapping
-    public ResponseEntity<List<Deadline>> getDeadlines(@RequestParam(defaultValue = "default-user") String userId) {
+    public ResponseEntity<List<Deadline>> getDeadlines(
+            @RequestParam(defaultValue = "default-user") String userId,
+            @RequestParam(required = false) Integer pageSize,
+            @RequestParam(required = false) String pageToken) {
         try {
-            List<Deadline> deadlines = firestoreService.getDeadlinesByUserId(userId);
-            return ResponseEntity.ok(deadlines);
+            Page<Deadline> page = firestoreService.getDeadlinesByUserId(userId, pageSize != null ? pageSize : Page.DEFAULT_PAGE_SIZE, pageToken);
+            ResponseEntity.BodyBuilder ok = ResponseEntity.ok();
+            if (page.getNextPageToken() != null) ok.header(Page.NEXT_PAGE_TOKEN_HEADER, page.getNextPageToken());
+            return ok.body(page.getItems());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.ok(Collections.emptyList());
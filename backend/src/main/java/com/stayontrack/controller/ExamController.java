@@ -1,18 +1,22 @@
 package com.stayontrack.controller;
 
+import java.time.LocalDate;
 import java.util.List;
 
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import com.stayontrack.model.Exam;
+import com.stayontrack.model.dto.Page;
 import com.stayontrack.service.FirestoreService;
 
 @RestController
 @RequestMapping("/api/exams")
-@CrossOrigin("*")
+@CrossOrigin(value = "*", exposedHeaders = Page.NEXT_PAGE_TOKEN_HEADER)
 public class ExamController {
 
+    private static final int MAX_UPCOMING_DAYS = 366;
+
     private final FirestoreService firestoreService;
 
     public ExamController(FirestoreService firestoreService) {
@@ -34,10 +38,33 @@ public class ExamController {
 
     @GetMapping
     public ResponseEntity<List<Exam>> getExams(
-            @RequestParam(defaultValue = "default-user") String userId) {
+            @RequestParam(defaultValue = "default-user") String userId,
+            @RequestParam(required = false) Integer pageSize,
+            @RequestParam(required = false) String pageToken) {
+        try {
+            Page<Exam> page = firestoreService.getExamsByUserId(userId, pageSize != null ? pageSize : Page.DEFAULT_PAGE_SIZE, pageToken);
+            ResponseEntity.BodyBuilder ok = ResponseEntity.ok();
+            if (page.getNextPageToken() != null) ok.header(Page.NEXT_PAGE_TOKEN_HEADER, page.getNextPageToken());
+            return ok.body(page.getItems());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /** Exams in the next {@code days} days (today included), soonest first. */
+    @GetMapping("/upcoming")
+    public ResponseEntity<List<Exam>> getUpcomingExams(
+            @RequestParam(defaultValue = "default-user") String userId,
+            @RequestParam(defaultValue = "14") int days) {
+        if (days < 1 || days > MAX_UPCOMING_DAYS) {
+            return ResponseEntity.badRequest().build();
+        }
         try {
-            List<Exam> list = firestoreService.getExamsByUserId(userId);
-            return ResponseEntity.ok(list);
+            LocalDate today = LocalDate.now();
+            return ResponseEntity.ok(firestoreService.getExamsBetween(userId, today, today.plusDays(days - 1)));
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.internalServerError().build();
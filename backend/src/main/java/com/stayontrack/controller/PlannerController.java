@@ -1,14 +1,19 @@
 package com.stayontrack.controller;
 
 import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import com.stayontrack.model.PlannerTask;
 import com.stayontrack.model.PlannerWeek;
+import com.stayontrack.model.dto.AgendaItem;
 import com.stayontrack.model.dto.WeeklySummary;
 import com.stayontrack.service.FirestoreService;
 import com.stayontrack.service.PlannerEngineService;
@@ -21,6 +26,9 @@ import com.stayontrack.service.PlannerEngineService;
 @CrossOrigin("*")
 public class PlannerController {
 
+    /** Longest span /range serves in one call: a 6-week month grid plus slack. */
+    private static final int MAX_RANGE_DAYS = 62;
+
     private final PlannerEngineService plannerEngine;
     private final FirestoreService firestoreService;
 
@@ -54,6 +62,24 @@ public class PlannerController {
         }
     }
 
+    /**
+     * Get a day's planner sessions and manual tasks as one ordered list (defaults to today).
+     */
+    @GetMapping("/agenda")
+    public ResponseEntity<List<AgendaItem>> getAgenda(
+            @RequestParam(defaultValue = "default-user") String userId,
+            @RequestParam(required = false) String date) {
+        try {
+            LocalDate day = date != null && !date.isBlank() ? LocalDate.parse(date) : LocalDate.now();
+            return ResponseEntity.ok(firestoreService.getAgenda(userId, day));
+        } catch (DateTimeParseException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
     /**
      * Get weekly summary (tasks completed, overdue, completion rate).
      */
@@ -142,6 +168,52 @@ public class PlannerController {
         }
     }
 
+    /**
+     * Get tasks from {@code from} to {@code to} (ISO dates, inclusive) grouped by day,
+     * e.g. a whole month grid in one request. Ranges are capped at MAX_RANGE_DAYS.
+     */
+    @GetMapping("/range")
+    public ResponseEntity<Map<String, List<PlannerTask>>> getTasksForRange(
+            @RequestParam(defaultValue = "default-user") String userId,
+            @RequestParam String from,
+            @RequestParam String to) {
+        try {
+            LocalDate fromDate = LocalDate.parse(from);
+            LocalDate toDate = LocalDate.parse(to);
+            if (toDate.isBefore(fromDate) || fromDate.plusDays(MAX_RANGE_DAYS).isBefore(toDate)) {
+                return ResponseEntity.badRequest().build();
+            }
+            return ResponseEntity.ok(plannerEngine.getTasksByDay(userId, fromDate, toDate));
+        } catch (DateTimeParseException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Move the user's planner weeks into the embedded session layout now rather than on first read.
+     * Only available with stayontrack.planner.embedded-sessions enabled.
+     */
+    @PostMapping("/migrate-sessions")
+    public ResponseEntity<Map<String, Integer>> migrateSessions(
+            @RequestParam(defaultValue = "default-user") String userId) {
+        try {
+            int migrated = firestoreService.migratePlannerSessions(userId);
+            return ResponseEntity.ok(Map.of("migratedWeeks", migrated));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IllegalStateException) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).build();
+            }
+            e.printStackTrace();
+            return ResponseEntity.internalServerError().build();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
     /**
      * Get planner task count for a month (for Monthly view workload summary).
      */
@@ -0,0 +1,37 @@
+package com.stayontrack.controller;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import com.stayontrack.model.dto.SyncResponse;
+import com.stayontrack.service.FirestoreService;
+
+/**
+ * Delta sync for the mobile client: everything that changed since the version it last saw.
+ */
+@RestController
+@RequestMapping("/api/sync")
+@CrossOrigin(origins = "*")
+public class SyncController {
+
+    private final FirestoreService firestoreService;
+
+    public SyncController(FirestoreService firestoreService) {
+        this.firestoreService = firestoreService;
+    }
+
+    @GetMapping
+    public ResponseEntity<SyncResponse> getChanges(
+            @RequestParam(defaultValue = "default-user") String userId,
+            @RequestParam(defaultValue = "0") long since) {
+        if (since < 0) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            return ResponseEntity.ok(firestoreService.getChangesSince(userId, since));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+}
@@ -7,11 +7,12 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import com.stayontrack.model.Task;
+import com.stayontrack.model.dto.Page;
 import com.stayontrack.service.FirestoreService;
 
 @RestController
 @RequestMapping("/api/tasks")
-@CrossOrigin("*")
+@CrossOrigin(value = "*", exposedHeaders = Page.NEXT_PAGE_TOKEN_HEADER)
 public class TaskController {
 
     private final FirestoreService firestoreService;
@@ -35,16 +36,20 @@ public class TaskController {
 
     @GetMapping
     public ResponseEntity<List<Task>> getTasks(@RequestParam(defaultValue = "default-user") String userId,
-                                                @RequestParam(required = false) String date) {
+                                                @RequestParam(required = false) String date,
+                                                @RequestParam(required = false) Integer pageSize,
+                                                @RequestParam(required = false) String pageToken) {
         try {
-            List<Task> tasks;
             if (date != null && !date.isBlank()) {
                 LocalDate localDate = LocalDate.parse(date);
-                tasks = firestoreService.getTasksForDate(userId, localDate);
-            } else {
-                tasks = firestoreService.getTasksByUserId(userId);
+                return ResponseEntity.ok(firestoreService.getTasksForDate(userId, localDate));
             }
-            return ResponseEntity.ok(tasks);
+            Page<Task> page = firestoreService.getTasksByUserId(userId, pageSize != null ? pageSize : Page.DEFAULT_PAGE_SIZE, pageToken);
+            ResponseEntity.BodyBuilder ok = ResponseEntity.ok();
+            if (page.getNextPageToken() != null) ok.header(Page.NEXT_PAGE_TOKEN_HEADER, page.getNextPageToken());
+            return ok.body(page.getItems());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.internalServerError().build();
@@ -0,0 +1,43 @@
+package com.stayontrack.controller;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import com.stayontrack.model.dto.UpcomingItem;
+import com.stayontrack.service.FirestoreService;
+
+@RestController
+@RequestMapping("/api/upcoming")
+@CrossOrigin(origins = "*")
+public class UpcomingController {
+
+    private static final int MAX_DAYS = 366;
+    private static final int MAX_LIMIT = 200;
+
+    private final FirestoreService firestoreService;
+
+    public UpcomingController(FirestoreService firestoreService) {
+        this.firestoreService = firestoreService;
+    }
+
+    /** Deadlines, exams and assignments due in the next {@code days} days (today included), soonest first. */
+    @GetMapping
+    public ResponseEntity<List<UpcomingItem>> getUpcoming(
+            @RequestParam(defaultValue = "default-user") String userId,
+            @RequestParam(defaultValue = "14") int days,
+            @RequestParam(defaultValue = "50") int limit) {
+        if (days < 1 || days > MAX_DAYS || limit < 1 || limit > MAX_LIMIT) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            LocalDate today = LocalDate.now();
+            return ResponseEntity.ok(firestoreService.getUpcoming(userId, today, today.plusDays(days - 1), limit));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+}
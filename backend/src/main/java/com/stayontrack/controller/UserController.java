@@ -3,21 +3,28 @@ package com.stayontrack.controller;
 import com.google.firebase.auth.FirebaseAuthException;
 import com.stayontrack.model.dto.UpdateRequest;
 import com.stayontrack.model.dto.UpdateResponse;
+import com.stayontrack.service.AccountDataService;
 import com.stayontrack.service.UserUpdateService;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 @RestController
 @RequestMapping("/api/user")
 public class UserController {
 
     private final UserUpdateService userUpdateService;
+    private final AccountDataService accountDataService;
 
-    public UserController(UserUpdateService userUpdateService) {
+    public UserController(UserUpdateService userUpdateService, AccountDataService accountDataService) {
         this.userUpdateService = userUpdateService;
+        this.accountDataService = accountDataService;
     }
 
     /**
@@ -64,4 +71,58 @@ public class UserController {
                     .body(Map.of("error", "Internal error: " + e.getMessage()));
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * DELETE /api/user/{userId}/data
+     *
+     * Starts deleting everything stored for the user and returns at once.
+     * Accepted (202): the purge job, see GET /api/user/jobs/{jobId}
+     */
+    @DeleteMapping("/{userId}/data")
+    public ResponseEntity<AccountDataService.Job> purgeData(@PathVariable String userId) {
+        if (userId.isBlank()) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(accountDataService.startPurge(userId));
+    }
+
+    /**
+     * GET /api/user/jobs/{jobId}
+     *
+     * Success (200): { "id", "userId", "state": "running|done|failed", "deleted": { collection: count },
+     *                  "totalDeleted", "failed", "startedAt", "finishedAt", "error" }
+     * Error   (404): unknown or expired job
+     */
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<AccountDataService.Job> getJob(@PathVariable String jobId) {
+        AccountDataService.Job job = accountDataService.job(jobId);
+        return job != null ? ResponseEntity.ok(job) : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * GET /api/user/{userId}/export
+     *
+     * Streams everything stored for the user as one JSON document.
+     */
+    @GetMapping("/{userId}/export")
+    public ResponseEntity<StreamingResponseBody> exportData(@PathVariable String userId) {
+        if (userId.isBlank()) {
+            return ResponseEntity.badRequest().build();
+        }
+        StreamingResponseBody body = out -> {
+            try {
+                accountDataService.export(userId, out);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Export interrupted", e);
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+                throw new IOException("Export failed: " + e.getMessage(), e);
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .header("Content-Disposition", "attachment; filename=\"stayontrack-" + userId + ".json\"")
+                .body(body);
+    }
+}
@@ -6,11 +6,12 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import com.stayontrack.model.WeeklyCheckIn;
+import com.stayontrack.model.dto.Page;
 import com.stayontrack.service.FirestoreService;
 
 @RestController
 @RequestMapping("/api/weekly-checkins")
-@CrossOrigin("*")
+@CrossOrigin(value = "*", exposedHeaders = Page.NEXT_PAGE_TOKEN_HEADER)
 public class WeeklyCheckInController {
 
     private final FirestoreService firestoreService;
@@ -33,10 +34,17 @@ public class WeeklyCheckInController {
     }
 
     @GetMapping
-    public ResponseEntity<List<WeeklyCheckIn>> getCheckIns(@RequestParam(defaultValue = "default-user") String userId) {
+    public ResponseEntity<List<WeeklyCheckIn>> getCheckIns(
+            @RequestParam(defaultValue = "default-user") String userId,
+            @RequestParam(required = false) Integer pageSize,
+            @RequestParam(required = false) String pageToken) {
         try {
-            List<WeeklyCheckIn> checkIns = firestoreService.getWeeklyCheckInsByUserId(userId);
-            return ResponseEntity.ok(checkIns);
+            Page<WeeklyCheckIn> page = firestoreService.getWeeklyCheckInsByUserId(userId, pageSize != null ? pageSize : Page.DEFAULT_PAGE_SIZE, pageToken);
+            ResponseEntity.BodyBuilder ok = ResponseEntity.ok();
+            if (page.getNextPageToken() != null) ok.header(Page.NEXT_PAGE_TOKEN_HEADER, page.getNextPageToken());
+            return ok.body(page.getItems());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.internalServerError().build();
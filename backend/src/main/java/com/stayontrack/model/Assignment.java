@@ -1,5 +1,6 @@
 package com.stayontrack.model;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 
 /**
@@ -12,6 +13,7 @@ public class Assignment {
     private String courseName;
     private String assignmentName;
     private String deadline;
+    private LocalDate dueDate;  // typed copy of deadline, for range queries
     private String difficulty;
     private String type;
 
@@ -35,6 +37,9 @@ public class Assignment {
     public String getDeadline() { return deadline; }
     public void setDeadline(String deadline) { this.deadline = deadline; }
 
+    public LocalDate getDueDate() { return dueDate; }
+    public void setDueDate(LocalDate dueDate) { this.dueDate = dueDate; }
+
     public String getDifficulty() { return difficulty; }
     public void setDifficulty(String difficulty) { this.difficulty = difficulty; }
 
@@ -1,5 +1,6 @@
 package com.stayontrack.model;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 
 /**
@@ -12,6 +13,7 @@ public class Exam {
     private String courseName;
     private String examType;
     private String date;
+    private LocalDate examDate;  // typed copy of date, for range queries
     private Double weightPercentage;
 
     public Exam() {}
@@ -34,6 +36,9 @@ public class Exam {
     public String getDate() { return date; }
     public void setDate(String date) { this.date = date; }
 
+    public LocalDate getExamDate() { return examDate; }
+    public void setExamDate(LocalDate examDate) { this.examDate = examDate; }
+
     public Double getWeightPercentage() { return weightPercentage; }
     public void setWeightPercentage(Double weightPercentage) { this.weightPercentage = weightPercentage; }
 }
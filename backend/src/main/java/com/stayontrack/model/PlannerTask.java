@@ -11,6 +11,7 @@ public class PlannerTask {
     private String id;
     private String plannerWeekId;
     private String userId;
+    private String deadlineId;  // deadline this session prepares for, if any
     private String title;
     private String course;
     private String duration;
@@ -59,6 +60,9 @@ public class PlannerTask {
     public String getUserId() { return userId; }
     public void setUserId(String userId) { this.userId = userId; }
 
+    public String getDeadlineId() { return deadlineId; }
+    public void setDeadlineId(String deadlineId) { this.deadlineId = deadlineId; }
+
     public String getTitle() { return title; }
     public void setTitle(String title) { this.title = title; }
 
@@ -1,5 +1,6 @@
 package com.stayontrack.model;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.List;
 
@@ -13,6 +14,8 @@ public class Semester {
     private String semesterName;
     private String startDate;
     private String endDate;
+    private LocalDate startsOn;  // typed copies of startDate / endDate
+    private LocalDate endsOn;
     private String studyMode;
     private List<String> restDays;
 
@@ -36,6 +39,12 @@ public class Semester {
     public String getEndDate() { return endDate; }
     public void setEndDate(String endDate) { this.endDate = endDate; }
 
+    public LocalDate getStartsOn() { return startsOn; }
+    public void setStartsOn(LocalDate startsOn) { this.startsOn = startsOn; }
+
+    public LocalDate getEndsOn() { return endsOn; }
+    public void setEndsOn(LocalDate endsOn) { this.endsOn = endsOn; }
+
     public String getStudyMode() { return studyMode; }
     public void setStudyMode(String studyMode) { this.studyMode = studyMode; }
 
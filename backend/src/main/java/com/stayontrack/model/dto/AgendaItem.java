@@ -0,0 +1,41 @@
+package com.stayontrack.model.dto;
+
+import com.stayontrack.model.PlannerTask;
+import com.stayontrack.model.Task;
+
+/**
+ * One entry of a day's agenda: a planner session or a manual task, whichever {@code type} says.
+ */
+public class AgendaItem {
+    public static final String SESSION = "session";
+    public static final String TASK = "task";
+
+    private String type;
+    private PlannerTask session;
+    private Task task;
+
+    public AgendaItem() {}
+
+    public static AgendaItem of(PlannerTask session) {
+        AgendaItem item = new AgendaItem();
+        item.type = SESSION;
+        item.session = session;
+        return item;
+    }
+
+    public static AgendaItem of(Task task) {
+        AgendaItem item = new AgendaItem();
+        item.type = TASK;
+        item.task = task;
+        return item;
+    }
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public PlannerTask getSession() { return session; }
+    public void setSession(PlannerTask session) { this.session = session; }
+
+    public Task getTask() { return task; }
+    public void setTask(Task task) { this.task = task; }
+}
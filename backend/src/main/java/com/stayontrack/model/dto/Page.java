@@ -0,0 +1,32 @@
+package com.stayontrack.model.dto;
+
+import java.util.List;
+
+/**
+ * One page of a user collection. nextPageToken is an opaque cursor for the following page,
+ * or null when this is the last one.
+ *
+ * List endpoints always page: pageSize defaults to DEFAULT_PAGE_SIZE and is clamped to
+ * FirestoreService.MAX_PAGE_SIZE, so no request returns an unbounded list. A page's items are
+ * the body and the token is in the X-Next-Page-Token header (so clients that expect a JSON
+ * array keep working); clients wanting more pass it back as the pageToken query parameter.
+ */
+public class Page<T> {
+
+    public static final String NEXT_PAGE_TOKEN_HEADER = "X-Next-Page-Token";
+
+    /** Page size when no pageSize is given. */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    private final List<T> items;
+    private final String nextPageToken;
+
+    public Page(List<T> items, String nextPageToken) {
+        this.items = items;
+        this.nextPageToken = nextPageToken;
+    }
+
+    public List<T> getItems() { return items; }
+
+    public String getNextPageToken() { return nextPageToken; }
+}
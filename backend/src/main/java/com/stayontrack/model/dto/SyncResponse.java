@@ -0,0 +1,42 @@
+package com.stayontrack.model.dto;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Changes to a user's documents since a client's last sync.
+ * Apply deleted before changes (a document can be deleted and recreated under the same id),
+ * then pass version as since on the next call.
+ */
+public class SyncResponse {
+    private final long version;
+    private final Map<String, List<?>> changes;
+    private final List<Tombstone> deleted;
+
+    public SyncResponse(long version, Map<String, List<?>> changes, List<Tombstone> deleted) {
+        this.version = version;
+        this.changes = changes;
+        this.deleted = deleted;
+    }
+
+    /** Highest version covered by this response. */
+    public long getVersion() { return version; }
+
+    /** Created or updated documents keyed by collection name (e.g. "deadlines", "plannerTasks"). */
+    public Map<String, List<?>> getChanges() { return changes; }
+
+    public List<Tombstone> getDeleted() { return deleted; }
+
+    public static class Tombstone {
+        private final String collection;
+        private final String id;
+
+        public Tombstone(String collection, String id) {
+            this.collection = collection;
+            this.id = id;
+        }
+
+        public String getCollection() { return collection; }
+        public String getId() { return id; }
+    }
+}
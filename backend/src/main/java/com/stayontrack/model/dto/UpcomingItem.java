@@ -0,0 +1,64 @@
+package com.stayontrack.model.dto;
+
+import java.time.LocalDate;
+
+import com.stayontrack.model.Assignment;
+import com.stayontrack.model.Deadline;
+import com.stayontrack.model.Exam;
+
+/**
+ * One entry of the upcoming feed: a deadline, exam or assignment, whichever {@code type} says,
+ * with the date it is due.
+ */
+public class UpcomingItem {
+    public static final String DEADLINE = "deadline";
+    public static final String EXAM = "exam";
+    public static final String ASSIGNMENT = "assignment";
+
+    private String type;
+    private LocalDate dueDate;
+    private Deadline deadline;
+    private Exam exam;
+    private Assignment assignment;
+
+    public UpcomingItem() {}
+
+    public static UpcomingItem of(Deadline deadline) {
+        UpcomingItem item = new UpcomingItem();
+        item.type = DEADLINE;
+        item.dueDate = deadline.getDueDate();
+        item.deadline = deadline;
+        return item;
+    }
+
+    public static UpcomingItem of(Exam exam) {
+        UpcomingItem item = new UpcomingItem();
+        item.type = EXAM;
+        item.dueDate = exam.getExamDate();
+        item.exam = exam;
+        return item;
+    }
+
+    public static UpcomingItem of(Assignment assignment) {
+        UpcomingItem item = new UpcomingItem();
+        item.type = ASSIGNMENT;
+        item.dueDate = assignment.getDueDate();
+        item.assignment = assignment;
+        return item;
+    }
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public LocalDate getDueDate() { return dueDate; }
+    public void setDueDate(LocalDate dueDate) { this.dueDate = dueDate; }
+
+    public Deadline getDeadline() { return deadline; }
+    public void setDeadline(Deadline deadline) { this.deadline = deadline; }
+
+    public Exam getExam() { return exam; }
+    public void setExam(Exam exam) { this.exam = exam; }
+
+    public Assignment getAssignment() { return assignment; }
+    public void setAssignment(Assignment assignment) { this.assignment = assignment; }
+}
@@ -2,21 +2,17 @@ package com.stayontrack.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.*;
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 public class AIService {
 
-    @Value("${spring.ai.google.api-key:${GOOGLE_AI_API_KEY:}}")
-    private String apiKey;
-
-    private final RestTemplate restTemplate;
+    private final GeminiClient gemini;
+    private final GeminiClient.Call geminiCall;
     private final ObjectMapper objectMapper = new ObjectMapper();
     private String lastGeminiFailureReason = "Unknown Gemini failure";
     private final AtomicInteger fallbackDistributionCounter = new AtomicInteger(0);
@@ -25,14 +21,11 @@ public class AIService {
     private static final int TITLE_MAX_CHARS = 40;
     private static final int DESCRIPTION_MAX_CHARS = 100;
 
-    private static final String GEMINI_URL =
-    "https://generativelanguage.googleapis.com/v1beta/models/gemini-flash-latest:generateContent?key=";
-
-    public AIService() {
-        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
-        requestFactory.setConnectTimeout(10000);
-        requestFactory.setReadTimeout(90000);
-        this.restTemplate = new RestTemplate(requestFactory);
+    public AIService(GeminiClient gemini,
+                     @Value("${stayontrack.ai.gemini.tasks.model:}") String model,
+                     @Value("${stayontrack.ai.gemini.tasks.timeout:90s}") Duration timeout) {
+        this.gemini = gemini;
+        this.geminiCall = new GeminiClient.Call("tasks", model.isBlank() ? null : model, timeout, null, null);
     }
 
     public List<Map<String, Object>> extractTasks(String brief,
@@ -1046,7 +1039,7 @@ public class AIService {
 
     private List<Map<String, Object>> callGeminiForJson(String prompt) {
 
-        if (apiKey == null || apiKey.isBlank()) {
+        if (!gemini.isAvailable()) {
             lastGeminiFailureReason = "API key missing (GOOGLE_AI_API_KEY not configured)";
             System.err.println("❌ Gemini API key is missing! Check GOOGLE_AI_API_KEY in application.properties");
             return Collections.emptyList();
@@ -1055,42 +1048,13 @@ public class AIService {
         try {
             System.out.println("📤 Sending prompt to Gemini (length: " + prompt.length() + " chars)");
             System.out.println("Prompt preview: " + prompt.substring(0, Math.min(300, prompt.length())) + "...");
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-
-            Map<String, Object> part = Map.of("text", prompt);
-            Map<String, Object> content = Map.of("parts", List.of(part));
-            Map<String, Object> requestBody = Map.of("contents", List.of(content));
-
-            HttpEntity<Map<String, Object>> request = new HttpEntity<>(requestBody, headers);
-
-            System.out.println("📡 POST " + GEMINI_URL.replace(apiKey, "***") + "***");
-
-            ResponseEntity<Map> response = restTemplate.postForEntity(
-                GEMINI_URL + apiKey,
-                request,
-                Map.class
-            );
-
-            System.out.println("📡 Gemini HTTP status: " + response.getStatusCode());
-
-            if (response.getBody() == null) {
-                lastGeminiFailureReason = "Gemini returned empty body";
-                System.err.println("❌ Gemini returned null body");
-                return Collections.emptyList();
-            }
-
-            if (response.getBody().containsKey("error")) {
-                Map<String, Object> error = (Map<String, Object>) response.getBody().get("error");
-                lastGeminiFailureReason = String.valueOf(error.getOrDefault("message", "Gemini API error"));
-                System.err.println("❌ Gemini API error: " + error);
-                System.err.println("   Error details: " + error.get("message"));
-                return Collections.emptyList();
-            }
 
-            return parseGeminiResponse(response.getBody());
+            return parseGeminiText(gemini.generate(prompt, geminiCall));
 
+        } catch (GeminiClient.GeminiException e) {
+            lastGeminiFailureReason = e.getMessage();
+            System.err.println("❌ Gemini call failed (HTTP " + e.getStatus() + "): " + e.getMessage());
+            return Collections.emptyList();
         } catch (Exception e) {
             lastGeminiFailureReason = e.getClass().getSimpleName() + ": " + e.getMessage();
             System.err.println("❌ Gemini call failed: " + e.getClass().getName() + " - " + e.getMessage());
@@ -1099,20 +1063,7 @@ public class AIService {
         }
     }
 
-    private List<Map<String, Object>> parseGeminiResponse(Map<String, Object> body) throws Exception {
-        List<Map<String, Object>> candidates = (List<Map<String, Object>>) body.get("candidates");
-
-        if (candidates == null || candidates.isEmpty()) {
-            lastGeminiFailureReason = "Gemini returned no candidates";
-            System.err.println("❌ Gemini returned no candidates. Full response: " + body);
-            return Collections.emptyList();
-        }
-
-        Map<String, Object> firstCandidate = candidates.get(0);
-        Map<String, Object> contentMap = (Map<String, Object>) firstCandidate.get("content");
-        List<Map<String, Object>> parts = (List<Map<String, Object>>) contentMap.get("parts");
-        String text = (String) parts.get(0).get("text");
-
+    private List<Map<String, Object>> parseGeminiText(String text) throws Exception {
         System.out.println("📝 Gemini raw response length: " + text.length() + " chars");
         System.out.println("📝 Response preview: " + text.substring(0, Math.min(500, text.length())));
 
@@ -0,0 +1,434 @@
+package com.stayontrack.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.Blob;
+import com.google.cloud.firestore.BulkWriter;
+import com.google.cloud.firestore.BulkWriterOptions;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.GeoPoint;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.WriteResult;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.firebase.cloud.FirestoreClient;
+
+/**
+ * Account-wide export and purge of everything stored for one user: every collection keyed by
+ * userId, the user's agenda documents (keyed by id prefix), the groups they created with the
+ * groups' members, tasks and distribution, and finally their change marker.
+ *
+ * A purge runs in the background and reports progress per collection through {@link #job}.
+ * Collections are paged in parallel, one virtual thread each, and every page goes straight into a
+ * single BulkWriter; a semaphore bounds the deletes in flight, so memory stays flat however many
+ * documents a user has (a pager about to wait on it flushes the writer's partial batch first). The writer starts at initial-ops-per-second rather than the client's
+ * conservative default and failed deletes are retried up to write-attempts times. A document
+ * whose delete still fails is counted and left; running the purge again picks it up.
+ *
+ * The marker goes last: its deletion is what other nodes evict on (see
+ * {@link ChangeMarkerListener}). Writes made for the user while a purge runs may survive it.
+ */
+@Component
+public class AccountDataService {
+
+    public static final String RUNNING = "running";
+    public static final String DONE = "done";
+    public static final String FAILED = "failed";
+
+    private static final List<String> USER_COLLECTIONS = List.of(
+            "tasks", "deadlines", "weeklyCheckIns", "plannerWeeks", "plannerTasks", "semesters",
+            "exams", "assignments", "focusProfiles", "plannerWeekSummaries", ChangeVersions.TOMBSTONES_COLLECTION);
+    private static final String GROUPS_COLLECTION = "groups";
+    /** Writes BulkWriter holds back until a batch is full; max-in-flight must leave room for one. */
+    private static final int BULK_WRITER_BATCH_SIZE = 20;
+
+    /** Subcollections owned by a group, by top-level collection; all keyed by the group's id. */
+    private static final Map<String, String> GROUP_PARTS = Map.of(
+            GROUPS_COLLECTION, "members",
+            "groupTasks", "tasks",
+            "groupDistributions", "assignments");
+
+    private final CompletionJournal completionJournal;
+    private final MaterializedUserState materializedState;
+    private final UserDataCache userDataCache;
+    private final PlanSnapshotStore planSnapshots;
+    private final ObjectMapper objectMapper;
+    private final int pageSize;
+    private final int maxInFlight;
+    private final int writeAttempts;
+    private final BulkWriterOptions writerOptions;
+    private final Cache<String, Job> jobs;
+    private final Map<String, Job> running = new ConcurrentHashMap<>();
+
+    /** Progress of one purge, as returned by GET /api/user/jobs/{jobId}. */
+    public static final class Job {
+        private final String id = UUID.randomUUID().toString();
+        private final String userId;
+        private final Instant startedAt = Instant.now();
+        private final Map<String, AtomicLong> deleted = new ConcurrentHashMap<>();
+        private final AtomicLong failed = new AtomicLong();
+        private volatile String state = RUNNING;
+        private volatile Instant finishedAt;
+        private volatile String error;
+
+        Job(String userId) {
+            this.userId = userId;
+        }
+
+        public String getId() { return id; }
+        public String getUserId() { return userId; }
+        public String getState() { return state; }
+        public Instant getStartedAt() { return startedAt; }
+        public Instant getFinishedAt() { return finishedAt; }
+        public String getError() { return error; }
+        public long getFailed() { return failed.get(); }
+
+        /** Documents deleted so far, per collection. */
+        public Map<String, Long> getDeleted() {
+            Map<String, Long> counts = new LinkedHashMap<>();
+            deleted.forEach((collection, count) -> counts.put(collection, count.get()));
+            return counts;
+        }
+
+        public long getTotalDeleted() {
+            long total = 0;
+            for (AtomicLong count : deleted.values()) total += count.get();
+            return total;
+        }
+    }
+
+    public AccountDataService(CompletionJournal completionJournal, MaterializedUserState materializedState,
+            UserDataCache userDataCache, PlanSnapshotStore planSnapshots, ObjectMapper objectMapper,
+            @Value("${stayontrack.account.page-size:500}") int pageSize,
+            @Value("${stayontrack.account.max-in-flight:1000}") int maxInFlight,
+            @Value("${stayontrack.account.write-attempts:5}") int writeAttempts,
+            @Value("${stayontrack.account.initial-ops-per-second:2000}") int initialOpsPerSecond,
+            @Value("${stayontrack.account.max-ops-per-second:10000}") int maxOpsPerSecond,
+            @Value("${stayontrack.account.job-retention:1h}") Duration jobRetention) {
+        this.completionJournal = completionJournal;
+        this.materializedState = materializedState;
+        this.userDataCache = userDataCache;
+        this.planSnapshots = planSnapshots;
+        this.objectMapper = objectMapper;
+        this.pageSize = Math.max(1, pageSize);
+        this.maxInFlight = Math.max(BULK_WRITER_BATCH_SIZE, maxInFlight);
+        this.writeAttempts = Math.max(1, writeAttempts);
+        int maxOps = Math.max(1, maxOpsPerSecond);
+        this.writerOptions = BulkWriterOptions.builder()
+                .setInitialOpsPerSecond(Math.min(Math.max(1, initialOpsPerSecond), maxOps))
+                .setMaxOpsPerSecond(maxOps)
+                .build();
+        this.jobs = Caffeine.newBuilder().expireAfterAccess(jobRetention).build();
+    }
+
+    // ============================================================================
+    // PURGE
+    // ============================================================================
+
+    /**
+     * Start deleting everything stored for {@code userId} and return the job tracking it. A purge
+     * already running for the user is returned instead of starting a second one.
+     */
+    public Job startPurge(String userId) {
+        Job job = new Job(userId);
+        Job existing = running.putIfAbsent(userId, job);
+        if (existing != null) return existing;
+        jobs.put(job.id, job);
+        Thread.ofVirtual().name("account-purge-" + job.id).start(() -> {
+            try {
+                purge(job);
+                job.state = DONE;
+                System.out.println("🗑️ Purged account data for " + userId + ": " + job.getTotalDeleted()
+                        + " document(s), " + job.getFailed() + " failed");
+            } catch (Exception e) {
+                job.error = e.getMessage();
+                job.state = FAILED;
+                System.err.println("⚠️ Account purge for " + userId + " stopped: " + e.getMessage());
+            } finally {
+                job.finishedAt = Instant.now();
+                running.remove(userId, job);
+                evictCaches(userId);
+            }
+        });
+        return job;
+    }
+
+    /** The purge with this id, or null once it has been forgotten (see job-retention). */
+    public Job job(String jobId) {
+        return jobs.getIfPresent(jobId);
+    }
+
+    private void purge(Job job) throws ExecutionException, InterruptedException {
+        completionJournal.flushAsync().get();  // pending toggles would otherwise land after the purge
+        Firestore db = FirestoreClient.getFirestore();
+        String userId = job.userId;
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        BulkWriter writer = db.bulkWriter(writerOptions);
+        writer.addWriteErrorListener(error -> error.getFailedAttempts() < writeAttempts);
+        try (ExecutorService pagers = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> sources = new ArrayList<>();
+            for (String collection : USER_COLLECTIONS) {
+                Query query = db.collection(collection).whereEqualTo("userId", userId);
+                sources.add(pagers.submit(() -> {
+                    deleteAll(job, collection, query, doc -> true, writer, inFlight);
+                    return null;
+                }));
+            }
+            sources.add(pagers.submit(() -> {
+                deleteAll(job, AgendaBuckets.COLLECTION, agendas(db, userId), doc -> isAgenda(doc, userId), writer, inFlight);
+                return null;
+            }));
+            sources.add(pagers.submit(() -> {
+                deleteGroups(job, db, userId, writer);
+                return null;
+            }));
+            for (Future<?> source : sources) source.get();
+        } finally {
+            writer.close();  // flushes whatever is still queued
+        }
+        db.collection(ChangeVersions.COUNTERS_COLLECTION).document(userId).delete().get();
+    }
+
+    /** Page through {@code query} and hand every matching document to the writer. */
+    private void deleteAll(Job job, String collection, Query query, Predicate<DocumentSnapshot> owned,
+            BulkWriter writer, Semaphore inFlight) throws ExecutionException, InterruptedException {
+        AtomicLong deleted = job.deleted.computeIfAbsent(collection, c -> new AtomicLong());
+        Query ids = query.select(FieldPath.documentId()).orderBy(FieldPath.documentId()).limit(pageSize);
+        DocumentSnapshot last = null;
+        while (true) {
+            List<QueryDocumentSnapshot> page = (last != null ? ids.startAfter(last) : ids).get().get().getDocuments();
+            if (page.isEmpty()) return;
+            last = page.get(page.size() - 1);
+            for (QueryDocumentSnapshot doc : page) {
+                if (!owned.test(doc)) continue;
+                if (!inFlight.tryAcquire()) {
+                    // The writer only sends full batches until flushed; don't wait on deletes it is holding back.
+                    synchronized (writer) {
+                        writer.flush();
+                    }
+                    inFlight.acquire();
+                }
+                ApiFuture<WriteResult> delete;
+                synchronized (writer) {
+                    delete = writer.delete(doc.getReference());
+                }
+                ApiFutures.addCallback(delete, new ApiFutureCallback<WriteResult>() {
+                    @Override
+                    public void onFailure(Throwable t) {
+                        job.failed.incrementAndGet();
+                        inFlight.release();
+                    }
+
+                    @Override
+                    public void onSuccess(WriteResult result) {
+                        deleted.incrementAndGet();
+                        inFlight.release();
+                    }
+                }, MoreExecutors.directExecutor());
+            }
+            if (page.size() < pageSize) return;
+        }
+    }
+
+    /**
+     * Recursively delete each group the user created, with its members, tasks and distribution;
+     * counted once per group.
+     */
+    private void deleteGroups(Job job, Firestore db, String userId, BulkWriter writer)
+            throws ExecutionException, InterruptedException {
+        AtomicLong deleted = job.deleted.computeIfAbsent(GROUPS_COLLECTION, c -> new AtomicLong());
+        List<QueryDocumentSnapshot> groups = db.collection(GROUPS_COLLECTION).whereEqualTo("userId", userId)
+                .select(FieldPath.documentId()).get().get().getDocuments();
+        List<List<ApiFuture<Void>>> deletes = new ArrayList<>(groups.size());
+        synchronized (writer) {
+            for (QueryDocumentSnapshot group : groups) {
+                List<ApiFuture<Void>> parts = new ArrayList<>(GROUP_PARTS.size());
+                for (String collection : GROUP_PARTS.keySet()) {
+                    parts.add(db.recursiveDelete(db.collection(collection).document(group.getId()), writer));
+                }
+                deletes.add(parts);
+            }
+        }
+        for (List<ApiFuture<Void>> parts : deletes) {
+            try {
+                for (ApiFuture<Void> part : parts) part.get();
+                deleted.incrementAndGet();
+            } catch (ExecutionException e) {
+                job.failed.incrementAndGet();
+            }
+        }
+    }
+
+    private void evictCaches(String userId) {
+        for (String collection : USER_COLLECTIONS) materializedState.noteWrites(collection, userId);
+        userDataCache.invalidateUser(userId);
+        planSnapshots.invalidateUser(userId);
+    }
+
+    // ============================================================================
+    // EXPORT
+    // ============================================================================
+
+    /**
+     * Write everything stored for {@code userId} to {@code out} as one JSON object: a list of
+     * documents per collection (each with its "id"), and the user's groups with their members,
+     * tasks and distribution nested. Documents are streamed page by page, with the next page of
+     * a collection fetched while the current one is written.
+     */
+    public void export(String userId, OutputStream out) throws IOException, ExecutionException, InterruptedException {
+        Firestore db = FirestoreClient.getFirestore();
+        Map<String, Query> sources = new LinkedHashMap<>();
+        for (String collection : USER_COLLECTIONS) {
+            if (collection.equals(ChangeVersions.TOMBSTONES_COLLECTION)) continue;  // sync bookkeeping, not user data
+            sources.put(collection, db.collection(collection).whereEqualTo("userId", userId));
+        }
+        sources.put(AgendaBuckets.COLLECTION, agendas(db, userId));
+
+        // First pages of every collection are requested together.
+        Map<String, ApiFuture<List<QueryDocumentSnapshot>>> firstPages = new LinkedHashMap<>();
+        sources.forEach((collection, query) -> firstPages.put(collection, page(query, null)));
+
+        try (JsonGenerator json = objectMapper.getFactory().createGenerator(out)) {
+            json.writeStartObject();
+            json.writeStringField("userId", userId);
+            json.writeStringField("exportedAt", Instant.now().toString());
+            json.writeObjectFieldStart("collections");
+            for (Map.Entry<String, Query> source : sources.entrySet()) {
+                String collection = source.getKey();
+                json.writeArrayFieldStart(collection);
+                ApiFuture<List<QueryDocumentSnapshot>> next = firstPages.get(collection);
+                while (next != null) {
+                    List<QueryDocumentSnapshot> page = next.get();
+                    next = page.size() < pageSize ? null : page(source.getValue(), page.get(page.size() - 1));
+                    for (QueryDocumentSnapshot doc : page) {
+                        if (collection.equals(AgendaBuckets.COLLECTION) && !isAgenda(doc, userId)) continue;
+                        writeDocument(json, doc);
+                    }
+                    json.flush();
+                }
+                json.writeEndArray();
+            }
+            json.writeEndObject();
+            writeGroups(json, db, userId);
+            json.writeEndObject();
+        }
+    }
+
+    private ApiFuture<List<QueryDocumentSnapshot>> page(Query query, DocumentSnapshot after) {
+        Query page = query.orderBy(FieldPath.documentId()).limit(pageSize);
+        if (after != null) page = page.startAfter(after);
+        return ApiFutures.transform(page.get(), snapshot -> snapshot.getDocuments(), MoreExecutors.directExecutor());
+    }
+
+    private void writeGroups(JsonGenerator json, Firestore db, String userId)
+            throws IOException, ExecutionException, InterruptedException {
+        List<QueryDocumentSnapshot> groups = db.collection(GROUPS_COLLECTION).whereEqualTo("userId", userId)
+                .get().get().getDocuments();
+        Map<String, ApiFuture<List<QueryDocumentSnapshot>>> parts = new LinkedHashMap<>();
+        for (QueryDocumentSnapshot group : groups) {
+            GROUP_PARTS.forEach((collection, sub) -> parts.put(group.getId() + "/" + collection,
+                    ApiFutures.transform(db.collection(collection).document(group.getId()).collection(sub).get(),
+                            snapshot -> snapshot.getDocuments(), MoreExecutors.directExecutor())));
+        }
+        json.writeArrayFieldStart(GROUPS_COLLECTION);
+        for (QueryDocumentSnapshot group : groups) {
+            json.writeStartObject();
+            json.writeStringField("id", group.getId());
+            writeFields(json, group.getData());
+            for (Map.Entry<String, String> part : GROUP_PARTS.entrySet()) {
+                json.writeArrayFieldStart(part.getValue());
+                for (QueryDocumentSnapshot doc : parts.get(group.getId() + "/" + part.getKey()).get()) {
+                    writeDocument(json, doc);
+                }
+                json.writeEndArray();
+            }
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+    }
+
+    private static void writeDocument(JsonGenerator json, DocumentSnapshot doc) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("id", doc.getId());
+        Map<String, Object> data = doc.getData();
+        if (data != null) writeFields(json, data);
+        json.writeEndObject();
+    }
+
+    private static void writeFields(JsonGenerator json, Map<String, Object> data) throws IOException {
+        for (Map.Entry<String, Object> field : data.entrySet()) {
+            if (field.getKey().equals("id")) continue;  // the document id is authoritative
+            json.writeFieldName(field.getKey());
+            json.writeObject(exportValue(field.getValue()));
+        }
+    }
+
+    /** Firestore-specific values as plain JSON: timestamps as ISO-8601, references as paths. */
+    private static Object exportValue(Object value) {
+        if (value instanceof Timestamp ts) return ts.toString();
+        if (value instanceof DocumentReference ref) return ref.getPath();
+        if (value instanceof Blob blob) return Base64.getEncoder().encodeToString(blob.toBytes());
+        if (value instanceof GeoPoint point) return Map.of("latitude", point.getLatitude(), "longitude", point.getLongitude());
+        if (value instanceof Map<?, ?> map) {
+            Map<Object, Object> copy = LinkedHashMap.newLinkedHashMap(map.size());
+            map.forEach((k, v) -> copy.put(k, exportValue(v)));
+            return copy;
+        }
+        if (value instanceof List<?> list) return list.stream().map(AccountDataService::exportValue).toList();
+        return value;
+    }
+
+    // ============================================================================
+    // HELPERS
+    // ============================================================================
+
+    /** Agenda documents carry no userId; they are found by their userId_ prefix. */
+    private static Query agendas(Firestore db, String userId) {
+        return db.collection(AgendaBuckets.COLLECTION)
+                .whereGreaterThanOrEqualTo(FieldPath.documentId(), userId + "_")
+                .whereLessThan(FieldPath.documentId(), userId + "`");  // '`' sorts right after '_'
+    }
+
+    /** The prefix alone would also match users whose id starts with {@code userId + "_"}. */
+    private static boolean isAgenda(DocumentSnapshot doc, String userId) {
+        try {
+            LocalDate.parse(doc.getId().substring(userId.length() + 1));
+            return true;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+}
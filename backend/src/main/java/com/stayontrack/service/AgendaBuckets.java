@@ -0,0 +1,199 @@
+package com.stayontrack.service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Transaction;
+import com.stayontrack.model.dto.AgendaItem;
+
+/**
+ * Per-user, per-day agenda documents (agendas/{userId}_{yyyy-MM-dd}) holding that day's planner
+ * sessions and manual tasks as one pre-sorted list, so the Home page is a single point read.
+ *
+ * An agenda document is built from the source collections on its first read and from then on
+ * patched by every transaction that writes a session or task due that day. A write whose day
+ * has no agenda yet deletes the (missing) document instead: that write conflicts with a
+ * concurrent build reading the same document, so a build can never miss a write committed
+ * while it was running.
+ *
+ * Items are the source documents' stored fields plus "type" and "id"; userId and syncVersion
+ * are dropped.
+ */
+final class AgendaBuckets {
+
+    static final String COLLECTION = "agendas";
+    static final String ITEMS = "items";
+
+    /** Sessions with a start time first, in time order; then sessions before tasks, by title. */
+    private static final Comparator<Map<String, Object>> ORDER = Comparator
+            .comparing((Map<String, Object> item) -> (Timestamp) item.get("scheduledStartTime"),
+                    Comparator.nullsLast(Comparator.<Timestamp>naturalOrder()))
+            .thenComparing(item -> AgendaItem.TASK.equals(item.get("type")))
+            .thenComparing(item -> String.valueOf(item.get("title")));
+
+    /**
+     * A write to one session or task: its stored fields before and after, null when it did not
+     * exist or no longer does.
+     */
+    record Change(String type, String id, Map<String, Object> before, Map<String, Object> after) {}
+
+    private AgendaBuckets() {}
+
+    static String id(String userId, LocalDate date) {
+        return FirestoreService.plannerWeekId(userId, date);  // same userId_ISO-date shape
+    }
+
+    static DocumentReference ref(Firestore db, String userId, LocalDate date) {
+        return db.collection(COLLECTION).document(id(userId, date));
+    }
+
+    /** Agenda item type for documents of {@code collection}, or null if it does not feed agendas. */
+    static String typeOf(String collection) {
+        return switch (collection) {
+            case "plannerTasks" -> AgendaItem.SESSION;
+            case "tasks" -> AgendaItem.TASK;
+            default -> null;
+        };
+    }
+
+    /**
+     * Read the agendas {@code changes} touch. Transactions read before they write, so call this
+     * after the transaction's own reads and before {@link ChangeVersions#mark}; then call
+     * {@link Edit#write()} with the other writes.
+     */
+    static Edit read(Transaction tx, Firestore db, List<Change> changes) throws ExecutionException, InterruptedException {
+        Map<String, DocumentReference> refs = new LinkedHashMap<>();
+        for (Change c : changes) {
+            addRef(refs, db, c.before());
+            addRef(refs, db, c.after());
+        }
+        Map<String, DocumentSnapshot> agendas = new HashMap<>();
+        if (!refs.isEmpty()) {
+            for (DocumentSnapshot doc : tx.getAll(refs.values().toArray(new DocumentReference[0])).get()) {
+                agendas.put(doc.getId(), doc);
+            }
+        }
+        return new Edit(tx, changes, agendas);
+    }
+
+    private static void addRef(Map<String, DocumentReference> refs, Firestore db, Map<String, Object> fields) {
+        if (fields == null) return;
+        LocalDate day = day(fields);
+        String userId = fields.get("userId") instanceof String s ? s : null;
+        if (day == null || userId == null) return;
+        refs.computeIfAbsent(id(userId, day), k -> ref(db, userId, day));
+    }
+
+    private static LocalDate day(Map<String, Object> fields) {
+        return fields.get("dueDate") instanceof Timestamp ts ? DocumentCodecs.localDate(ts) : null;
+    }
+
+    static final class Edit {
+        private final Transaction tx;
+        private final List<Change> changes;
+        private final Map<String, DocumentSnapshot> agendas;
+
+        private Edit(Transaction tx, List<Change> changes, Map<String, DocumentSnapshot> agendas) {
+            this.tx = tx;
+            this.changes = changes;
+            this.agendas = agendas;
+        }
+
+        void write() {
+            for (DocumentSnapshot agenda : agendas.values()) {
+                if (!agenda.exists()) {
+                    tx.delete(agenda.getReference());  // not built yet: only fence off a concurrent build
+                    continue;
+                }
+                Map<String, Map<String, Object>> items = new LinkedHashMap<>();
+                for (Map<String, Object> item : items(agenda.getData())) items.put(item.get("type") + "/" + item.get("id"), item);
+                for (Change c : changes) {
+                    String key = c.type() + "/" + c.id();
+                    if (c.before() != null && agenda.getId().equals(agendaIdOf(c.before()))) items.remove(key);
+                    if (c.after() != null && agenda.getId().equals(agendaIdOf(c.after()))) items.put(key, item(c.type(), c.id(), c.after()));
+                }
+                List<Map<String, Object>> sorted = new ArrayList<>(items.values());
+                sorted.sort(ORDER);
+                tx.update(agenda.getReference(), ITEMS, sorted);
+            }
+        }
+    }
+
+    private static String agendaIdOf(Map<String, Object> fields) {
+        LocalDate day = day(fields);
+        return day != null && fields.get("userId") instanceof String userId ? id(userId, day) : null;
+    }
+
+    /** Fields of a newly built agenda for the given source documents (stored fields keyed by id). */
+    static Map<String, Object> build(String userId, LocalDate date,
+            Map<String, Map<String, Object>> sessions, Map<String, Map<String, Object>> tasks) {
+        List<Map<String, Object>> items = new ArrayList<>(sessions.size() + tasks.size());
+        sessions.forEach((id, fields) -> items.add(item(AgendaItem.SESSION, id, fields)));
+        tasks.forEach((id, fields) -> items.add(item(AgendaItem.TASK, id, fields)));
+        items.sort(ORDER);
+        Map<String, Object> data = HashMap.newHashMap(3);
+        data.put("userId", userId);
+        data.put("date", DocumentCodecs.timestamp(date));
+        data.put(ITEMS, items);
+        return data;
+    }
+
+    private static Map<String, Object> item(String type, String id, Map<String, Object> fields) {
+        Map<String, Object> item = new HashMap<>(fields);
+        item.remove("userId");
+        item.remove(ChangeVersions.FIELD);
+        item.values().removeIf(v -> v instanceof FieldValue);
+        item.put("type", type);
+        item.put("id", id);
+        return item;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> items(Map<String, Object> agenda) {
+        Object raw = agenda.get(ITEMS);
+        if (!(raw instanceof List<?> list)) return List.of();
+        List<Map<String, Object>> items = new ArrayList<>(list.size());
+        for (Object o : list) {
+            if (o instanceof Map<?, ?> m) items.add((Map<String, Object>) m);
+        }
+        return items;
+    }
+
+    /** Decoded agenda (the stored fields of an agenda document), in stored order. */
+    static List<AgendaItem> decode(Map<String, Object> agenda) {
+        String userId = (String) agenda.get("userId");
+        List<AgendaItem> result = new ArrayList<>();
+        for (Map<String, Object> item : items(agenda)) {
+            Map<String, Object> fields = new HashMap<>(item);
+            fields.put("userId", userId);
+            String id = (String) item.get("id");
+            if (AgendaItem.SESSION.equals(item.get("type"))) {
+                result.add(AgendaItem.of(DocumentCodecs.PLANNER_TASK.decode(id, fields)));
+            } else if (AgendaItem.TASK.equals(item.get("type"))) {
+                result.add(AgendaItem.of(DocumentCodecs.TASK.decode(id, fields)));
+            }
+        }
+        return result;
+    }
+
+    /** Stored fields of {@code base} after applying {@code updates} (delete sentinels remove the field). */
+    static Map<String, Object> merged(Map<String, Object> base, Map<String, Object> updates) {
+        Map<String, Object> result = new HashMap<>(base);
+        updates.forEach((field, value) -> {
+            if (value instanceof FieldValue) result.remove(field);
+            else result.put(field, value);
+        });
+        return result;
+    }
+}
@@ -0,0 +1,162 @@
+package com.stayontrack.service;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.google.firebase.cloud.FirestoreClient;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Keeps this node's in-process caches (UserDataCache, PlanSnapshotStore) coherent with writes
+ * made by other nodes. Every write sets the writer's change marker (the
+ * syncCounters/{userId} document, see {@link ChangeVersions}); this node keeps a single snapshot
+ * listener on the markers changed since it started listening and evicts a user's entries
+ * whenever their marker changes on another node. Its own writes already evict locally.
+ *
+ * The listener query is re-anchored periodically so its result set stays small: the new listener
+ * starts slightly before the old one's last read time and the old one is removed only once the
+ * new one is live, so no change falls in between. If the listener fails, everything is evicted
+ * (changes may have been missed) and it is re-attached on the next maintenance run.
+ *
+ * Off by default; enable when running more than one instance.
+ */
+@Component
+public class ChangeMarkerListener {
+
+    /** How far before the previous read time a new listener starts, to absorb clock skew. */
+    private static final long OVERLAP_SECONDS = 60;
+
+    private final boolean enabled;
+    private final long reanchorMillis;
+    private final UserDataCache userDataCache;
+    private final PlanSnapshotStore planSnapshots;
+    private Listener current;
+    private Listener replacement;
+
+    private final class Listener {
+        private final long startedAt = System.currentTimeMillis();
+        private final boolean replacing;
+        private volatile ListenerRegistration registration;
+        private volatile Timestamp readTime;
+        private volatile boolean live;
+        private volatile boolean failed;
+
+        Listener(boolean replacing) {
+            this.replacing = replacing;
+        }
+
+        void onSnapshot(QuerySnapshot snapshot) {
+            // A replacement's first snapshot repeats changes its predecessor already delivered.
+            if (live || !replacing) {
+                for (DocumentChange change : snapshot.getDocumentChanges()) {
+                    DocumentSnapshot marker = change.getDocument();
+                    // A deleted marker (account purge) still carries its last writer; always evict.
+                    if (change.getType() != DocumentChange.Type.REMOVED
+                            && ChangeVersions.NODE_ID.equals(marker.getString(ChangeVersions.NODE))) continue;
+                    evict(marker.getId());
+                }
+            }
+            readTime = snapshot.getReadTime();
+            if (!live) {
+                live = true;
+                promote(this);
+            }
+        }
+
+        void close() {
+            if (registration != null) registration.remove();
+        }
+    }
+
+    public ChangeMarkerListener(UserDataCache userDataCache, PlanSnapshotStore planSnapshots,
+            @Value("${stayontrack.cache.change-markers.enabled:false}") boolean enabled,
+            @Value("${stayontrack.cache.change-markers.reanchor-interval:1h}") Duration reanchorInterval) {
+        this.userDataCache = userDataCache;
+        this.planSnapshots = planSnapshots;
+        this.enabled = enabled;
+        this.reanchorMillis = reanchorInterval.toMillis();
+    }
+
+    /** Attach the listener on startup, re-attach it after a failure, and re-anchor it when due. */
+    @Scheduled(fixedDelayString = "${stayontrack.cache.change-markers.maintenance-interval-ms:30000}")
+    public synchronized void maintain() {
+        if (!enabled) return;
+        if (current == null || current.failed) {
+            attach(initialAnchor(), false);
+        } else if (replacement == null && current.live && current.readTime != null
+                && System.currentTimeMillis() - current.startedAt >= reanchorMillis) {
+            attach(Timestamp.ofTimeSecondsAndNanos(current.readTime.getSeconds() - OVERLAP_SECONDS, 0), true);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (current != null) current.close();
+        if (replacement != null) replacement.close();
+        current = null;
+        replacement = null;
+    }
+
+    /**
+     * Where a fresh listener starts: early enough to catch changes made since the oldest
+     * snapshot this node kept across a restart, else just before now.
+     */
+    private Timestamp initialAnchor() {
+        long from = System.currentTimeMillis();
+        long oldestSnapshot = planSnapshots.oldestSnapshotMillis();
+        if (oldestSnapshot > 0) from = Math.min(from, oldestSnapshot);
+        return Timestamp.ofTimeSecondsAndNanos(from / 1000 - OVERLAP_SECONDS, 0);
+    }
+
+    private void attach(Timestamp anchor, boolean replacing) {
+        Listener listener = new Listener(replacing);
+        Query markers = FirestoreClient.getFirestore().collection(ChangeVersions.COUNTERS_COLLECTION)
+                .whereGreaterThan(ChangeVersions.CHANGED_AT, anchor);
+        if (replacing) {
+            replacement = listener;
+        } else {
+            if (current != null) current.close();
+            current = listener;
+        }
+        listener.registration = markers.addSnapshotListener((snapshot, error) -> {
+            if (error != null) {
+                fail(listener, error);
+                return;
+            }
+            if (snapshot != null) listener.onSnapshot(snapshot);
+        });
+        if (listener.failed) listener.close();  // failed before the registration was assigned
+    }
+
+    private synchronized void promote(Listener listener) {
+        if (listener != replacement || listener.failed) return;
+        if (current != null) current.close();
+        current = listener;
+        replacement = null;
+    }
+
+    private synchronized void fail(Listener listener, Throwable error) {
+        listener.failed = true;
+        listener.close();
+        if (listener == replacement) replacement = null;
+        if (listener != current) return;  // a replacement failed; the current listener still covers everything
+        System.err.println("⚠️ Change marker listener failed, evicting all cached user data: " + error.getMessage());
+        userDataCache.invalidateAll();
+        planSnapshots.invalidateAll();
+    }
+
+    private void evict(String userId) {
+        userDataCache.invalidateUser(userId);
+        planSnapshots.invalidateUser(userId);
+    }
+}
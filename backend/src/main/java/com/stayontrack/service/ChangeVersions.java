@@ -0,0 +1,83 @@
+package com.stayontrack.service;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.UpdateBuilder;
+
+/**
+ * Change versions for delta sync. Every write through FirestoreService stamps the syncVersion
+ * field of the documents it writes with the write's commit time (a server timestamp); deletes
+ * leave a tombstone in syncTombstones carrying the same stamp. A client that has seen every
+ * change up to time V finds all later ones with a query for syncVersion &gt; V. Versions go over
+ * the wire as microseconds since the epoch, Firestore's timestamp precision.
+ *
+ * Nothing is read to stamp a write, so writes neither serialize on nor conflict over a shared
+ * per-user document. Each write also blind-sets the user's change marker (syncCounters/{userId})
+ * to its commit time and node: the sync endpoint reads it to answer an up-to-date client with one
+ * read, and {@link ChangeMarkerListener} watches it to evict other nodes' caches.
+ */
+public final class ChangeVersions {
+
+    public static final String FIELD = "syncVersion";
+    public static final String COUNTERS_COLLECTION = "syncCounters";
+    public static final String TOMBSTONES_COLLECTION = "syncTombstones";
+    public static final String CHANGED_AT = "changedAt";
+    public static final String NODE = "node";
+
+    /** Identifies this process in change markers, so a node can skip its own writes. */
+    public static final String NODE_ID = UUID.randomUUID().toString();
+
+    private ChangeVersions() {}
+
+    /**
+     * Set each user's change marker in {@code writes} and return the value to stamp into their
+     * documents' syncVersion, by userId. In a transaction, call this after its reads. Null ids
+     * are skipped.
+     */
+    public static Map<String, FieldValue> mark(UpdateBuilder<?> writes, Firestore db, Collection<String> userIds) {
+        Set<String> ids = new LinkedHashSet<>(userIds);
+        ids.remove(null);
+        Map<String, FieldValue> versions = new HashMap<>();
+        for (String id : ids) {
+            writes.set(db.collection(COUNTERS_COLLECTION).document(id),
+                    Map.of(CHANGED_AT, FieldValue.serverTimestamp(), NODE, NODE_ID));
+            versions.put(id, FieldValue.serverTimestamp());
+        }
+        return versions;
+    }
+
+    /** Single-user form of {@link #mark}; null when {@code userId} is null. */
+    public static FieldValue mark(UpdateBuilder<?> writes, Firestore db, String userId) {
+        if (userId == null) return null;
+        return mark(writes, db, List.of(userId)).get(userId);
+    }
+
+    /** Record that {@code collection/docId} was deleted by the write stamped {@code version}. */
+    public static void tombstone(UpdateBuilder<?> writes, Firestore db, String userId, String collection, String docId,
+            FieldValue version) {
+        Map<String, Object> data = HashMap.newHashMap(4);
+        data.put("userId", userId);
+        data.put("collection", collection);
+        data.put("docId", docId);
+        data.put(FIELD, version);
+        writes.set(db.collection(TOMBSTONES_COLLECTION).document(collection + "_" + docId), data);
+    }
+
+    /** Wire form of a commit or read time. */
+    public static long toVersion(Timestamp time) {
+        return time.getSeconds() * 1_000_000L + time.getNanos() / 1_000;
+    }
+
+    public static Timestamp fromVersion(long version) {
+        return Timestamp.ofTimeMicroseconds(version);
+    }
+}
@@ -0,0 +1,314 @@
+package com.stayontrack.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Transaction;
+import com.google.firebase.cloud.FirestoreClient;
+import com.stayontrack.model.PlannerTask;
+import com.stayontrack.model.dto.AgendaItem;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Write-behind path for planner task completion toggles. A toggle is acknowledged once it is
+ * appended (and fsynced) to a local journal file; a scheduled flush writes the latest state of
+ * every pending task to Firestore in transactions, so repeated taps on one task cost a single write.
+ *
+ * Each flush commits the pending tasks in transactions of up to MAX_CHUNK_SIZE. Tasks that no
+ * longer exist are skipped inside the transaction; a chunk whose transaction fails stays pending
+ * as a whole and is retried by the next flush (there is no one-by-one retry).
+ *
+ * Pending toggles survive restarts and Firestore outages: the journal is replayed on startup and
+ * entries stay pending until their write commits. Reads overlay pending state via
+ * {@link #overlay(List)}. Anything that reads or rewrites completion server-side (counts,
+ * week regeneration) calls {@link #flushAsync()} first.
+ *
+ * The journal is per node, so this is meant for single-instance deployments (off by default).
+ */
+@Component
+public class CompletionJournal {
+
+    private static final String PLANNER_TASKS_COLLECTION = "plannerTasks";
+    private static final String PLANNER_WEEKS_COLLECTION = "plannerWeeks";
+    // Each toggle may also write its day's agenda and its owner's change marker; stay under the
+    // 500-write transaction limit.
+    private static final int MAX_CHUNK_SIZE = 150;
+
+    private final boolean enabled;
+    private final boolean embeddedSessions;
+    private final boolean agendas;
+    private final Path path;
+    private final MaterializedUserState materializedState;
+    private final PlanSnapshotStore planSnapshots;
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+    private final Object fileLock = new Object();
+    private FileChannel channel;
+    private long seq;
+    private CompletableFuture<Void> inFlight = CompletableFuture.completedFuture(null);
+
+    private record Pending(boolean completed, long seq) {}
+
+    public CompletionJournal(MaterializedUserState materializedState, PlanSnapshotStore planSnapshots,
+            @Value("${stayontrack.planner.completion-journal.enabled:false}") boolean enabled,
+            @Value("${stayontrack.planner.completion-journal.path:data/completion-journal.log}") String path,
+            @Value("${stayontrack.planner.embedded-sessions:false}") boolean embeddedSessions,
+            @Value("${stayontrack.planner.agenda.enabled:true}") boolean agendas) {
+        this.materializedState = materializedState;
+        this.planSnapshots = planSnapshots;
+        this.enabled = enabled;
+        this.embeddedSessions = embeddedSessions;
+        this.agendas = agendas;
+        this.path = Path.of(path);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @PostConstruct
+    void replay() throws IOException {
+        if (!enabled) return;
+        synchronized (fileLock) {
+            if (Files.exists(path)) {
+                for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+                    String[] parts = line.split("\t", 3);
+                    if (parts.length < 3) continue;  // torn final line from a crash mid-append
+                    try {
+                        long s = Long.parseLong(parts[0]);
+                        pending.put(parts[2], new Pending("1".equals(parts[1]), s));
+                        seq = Math.max(seq, s);
+                    } catch (NumberFormatException e) {
+                        // skip corrupt line
+                    }
+                }
+                if (!pending.isEmpty()) {
+                    System.out.println("🔁 Replaying " + pending.size() + " pending completion toggle(s) from " + path);
+                }
+            }
+            rewrite();
+        }
+    }
+
+    /** Durably record a toggle; returns once it is on disk. Later toggles of the same task replace it. */
+    public void record(String taskId, boolean completed) {
+        synchronized (fileLock) {
+            long s = ++seq;
+            String line = s + "\t" + (completed ? "1" : "0") + "\t" + taskId + "\n";
+            try {
+                channel.write(ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8)));
+                channel.force(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not append to completion journal " + path, e);
+            }
+            pending.put(taskId, new Pending(completed, s));
+        }
+    }
+
+    /** Tasks with a pending toggle are returned as copies carrying the pending state. */
+    public List<PlannerTask> overlay(List<PlannerTask> tasks) {
+        if (pending.isEmpty()) return tasks;
+        List<PlannerTask> result = new ArrayList<>(tasks.size());
+        for (PlannerTask t : tasks) {
+            Pending p = t.getId() != null ? pending.get(t.getId()) : null;
+            if (p == null || p.completed() == t.isCompleted()) {
+                result.add(t);
+            } else {
+                // Copy: the list may be shared with the materialized view.
+                PlannerTask copy = DocumentCodecs.PLANNER_TASK.decode(t.getId(), DocumentCodecs.PLANNER_TASK.encode(t));
+                copy.setCompleted(p.completed());
+                result.add(copy);
+            }
+        }
+        return result;
+    }
+
+    @Scheduled(fixedDelayString = "${stayontrack.planner.completion-journal.flush-interval-ms:500}")
+    public void flushScheduled() {
+        if (enabled && !pending.isEmpty()) flushAsync();
+    }
+
+    /**
+     * Write everything pending now. Completes (never exceptionally) once the toggles recorded
+     * before this call have been attempted; failed ones stay pending for the next flush.
+     */
+    public synchronized CompletableFuture<Void> flushAsync() {
+        if (!enabled) return CompletableFuture.completedFuture(null);
+        if (!pending.isEmpty()) {
+            inFlight = inFlight.thenCompose(v -> flushPending());
+        }
+        return inFlight;
+    }
+
+    @PreDestroy
+    void close() {
+        if (!enabled) return;
+        try {
+            flushAsync().get(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            System.err.println("⚠️ Completion journal not fully flushed on shutdown; will replay on restart: " + e.getMessage());
+        }
+        synchronized (fileLock) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private CompletableFuture<Void> flushPending() {
+        List<Map.Entry<String, Pending>> entries = new ArrayList<>(pending.entrySet());
+        if (entries.isEmpty()) return CompletableFuture.completedFuture(null);
+        Firestore db = FirestoreClient.getFirestore();
+        List<CompletableFuture<Void>> chunks = new ArrayList<>();
+        for (int from = 0; from < entries.size(); from += MAX_CHUNK_SIZE) {
+            List<Map.Entry<String, Pending>> chunk = entries.subList(from, Math.min(from + MAX_CHUNK_SIZE, entries.size()));
+            chunks.add(FirestoreFutures.toCompletable(db.runTransaction(FirestoreCostLedger.propagate(tx -> writeChunk(tx, db, chunk))))
+                    .thenAccept(this::applied)
+                    .exceptionally(error -> {
+                        System.err.println("⚠️ " + chunk.size() + " completion toggle(s) not flushed, will retry: " + error.getMessage());
+                        return null;
+                    }));
+        }
+        return FirestoreFutures.allOf(chunks).handle((v, e) -> {
+            synchronized (fileLock) {
+                try {
+                    rewrite();
+                } catch (IOException io) {
+                    System.err.println("⚠️ Completion journal compaction failed: " + io.getMessage());
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Apply one chunk, stamping the change version and each owner's marker and patching the affected
+     * agendas. Embedded sessions are updated by field path in their week document, others in the
+     * session collection. Tasks that no longer exist (e.g. removed by a regeneration) are
+     * skipped. Returns entry -> owner and the update time of the session document the toggle
+     * replaced (null for an embedded session, which lives in its week document); null for skipped
+     * tasks.
+     */
+    private Map<Map.Entry<String, Pending>, WriteCoalescer.Written> writeChunk(Transaction tx, Firestore db,
+            List<Map.Entry<String, Pending>> chunk) throws ExecutionException, InterruptedException {
+        Map<String, DocumentSnapshot> weeks = new HashMap<>();
+        if (embeddedSessions) {
+            Set<String> weekIds = new LinkedHashSet<>();
+            for (Map.Entry<String, Pending> e : chunk) {
+                String weekId = EmbeddedSessions.weekIdOf(e.getKey());
+                if (weekId != null) weekIds.add(weekId);
+            }
+            if (!weekIds.isEmpty()) {
+                DocumentReference[] weekRefs = weekIds.stream()
+                        .map(id -> db.collection(PLANNER_WEEKS_COLLECTION).document(id)).toArray(DocumentReference[]::new);
+                for (DocumentSnapshot week : tx.getAll(weekRefs).get()) weeks.put(week.getId(), week);
+            }
+        }
+        Map<Map.Entry<String, Pending>, DocumentSnapshot> embedded = new HashMap<>();
+        List<Map.Entry<String, Pending>> flat = new ArrayList<>();
+        for (Map.Entry<String, Pending> e : chunk) {
+            String weekId = embeddedSessions ? EmbeddedSessions.weekIdOf(e.getKey()) : null;
+            DocumentSnapshot week = weekId != null ? weeks.get(weekId) : null;
+            if (week != null && EmbeddedSessions.contains(week, e.getKey())) embedded.put(e, week);
+            else flat.add(e);
+        }
+        DocumentReference[] refs = new DocumentReference[flat.size()];
+        for (int i = 0; i < refs.length; i++) refs[i] = db.collection(PLANNER_TASKS_COLLECTION).document(flat.get(i).getKey());
+        List<DocumentSnapshot> docs = refs.length > 0 ? tx.getAll(refs).get() : List.of();
+
+        Map<Map.Entry<String, Pending>, WriteCoalescer.Written> owners = new HashMap<>();
+        List<AgendaBuckets.Change> agendaChanges = new ArrayList<>();
+        embedded.forEach((e, week) -> {
+            owners.put(e, new WriteCoalescer.Written(week.getString("userId"), null));
+            if (agendas) agendaChanges.add(completionChange(e, EmbeddedSessions.entries(week).get(e.getKey())));
+        });
+        for (int i = 0; i < refs.length; i++) {
+            DocumentSnapshot doc = docs.get(i);
+            owners.put(flat.get(i), doc.exists() ? new WriteCoalescer.Written(doc.getString("userId"), doc.getUpdateTime()) : null);
+            if (agendas && doc.exists()) agendaChanges.add(completionChange(flat.get(i), doc.getData()));
+        }
+        AgendaBuckets.Edit agenda = AgendaBuckets.read(tx, db, agendaChanges);
+        List<String> userIds = new ArrayList<>();
+        owners.values().forEach(owner -> userIds.add(owner != null ? owner.userId() : null));
+        Map<String, FieldValue> versions = ChangeVersions.mark(tx, db, userIds);
+        for (Map.Entry<Map.Entry<String, Pending>, DocumentSnapshot> e : embedded.entrySet()) {
+            Map.Entry<String, Pending> entry = e.getKey();
+            EmbeddedSessions.update(tx, e.getValue().getReference(), entry.getKey(),
+                    Map.of("completed", entry.getValue().completed()), versions.get(owners.get(entry).userId()));
+        }
+        for (int i = 0; i < refs.length; i++) {
+            if (!docs.get(i).exists()) continue;
+            Map<String, Object> update = HashMap.newHashMap(2);
+            update.put("completed", flat.get(i).getValue().completed());
+            FieldValue version = versions.get(owners.get(flat.get(i)).userId());
+            if (version != null) update.put(ChangeVersions.FIELD, version);
+            tx.update(refs[i], update);
+        }
+        agenda.write();
+        return owners;
+    }
+
+    private static AgendaBuckets.Change completionChange(Map.Entry<String, Pending> entry, Map<String, Object> before) {
+        return new AgendaBuckets.Change(AgendaItem.SESSION, entry.getKey(), before,
+                AgendaBuckets.merged(before, Map.of("completed", entry.getValue().completed())));
+    }
+
+    private void applied(Map<Map.Entry<String, Pending>, WriteCoalescer.Written> owners) {
+        owners.forEach((entry, owner) -> {
+            // Only clear if no newer toggle arrived while the write was in flight.
+            pending.remove(entry.getKey(), entry.getValue());
+            if (owner == null) return;
+            if (owner.before() != null) {
+                materializedState.noteWrite(PLANNER_TASKS_COLLECTION, owner.userId(), entry.getKey(), owner.before(), false);
+            }
+            planSnapshots.invalidateUser(owner.userId());
+        });
+    }
+
+    /** Replace the journal with just the still-pending entries. Caller holds fileLock. */
+    private void rewrite() throws IOException {
+        Path dir = path.toAbsolutePath().getParent();
+        if (dir != null) Files.createDirectories(dir);
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Pending> e : pending.entrySet()) {
+            sb.append(e.getValue().seq()).append('\t').append(e.getValue().completed() ? '1' : '0')
+                    .append('\t').append(e.getKey()).append('\n');
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.write(ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8)));
+            out.force(true);
+        }
+        if (channel != null) channel.close();
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+}
@@ -0,0 +1,24 @@
+package com.stayontrack.service;
+
+import java.util.Map;
+
+import com.google.cloud.firestore.DocumentSnapshot;
+
+/**
+ * Converts one model type to and from its Firestore field map. Implementations are
+ * hand-written (no reflection) and registered in {@link DocumentCodecs}.
+ */
+public interface DocumentCodec<T> {
+
+    /** Field map for a create/set; null fields are left out rather than stored as null. */
+    Map<String, Object> encode(T value);
+
+    /** Build the model from a document id and its raw field values. */
+    T decode(String id, Map<String, Object> fields);
+
+    /** Null for a missing document, like the old mapToX helpers. */
+    default T decode(DocumentSnapshot doc) {
+        if (doc == null || !doc.exists()) return null;
+        return decode(doc.getId(), doc.getData());
+    }
+}
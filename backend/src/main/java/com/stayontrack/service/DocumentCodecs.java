@@ -0,0 +1,441 @@
+package com.stayontrack.service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.FieldValue;
+import com.stayontrack.model.Assignment;
+import com.stayontrack.model.Deadline;
+import com.stayontrack.model.Exam;
+import com.stayontrack.model.FocusProfile;
+import com.stayontrack.model.PlannerTask;
+import com.stayontrack.model.PlannerWeek;
+import com.stayontrack.model.Semester;
+import com.stayontrack.model.Task;
+import com.stayontrack.model.WeeklyCheckIn;
+
+/**
+ * Registry of the {@link DocumentCodec}s for every stored model, plus the date/time
+ * conversions they share.
+ *
+ * Dates are stored as Timestamps at local midnight. The zone is resolved once at startup;
+ * when it has a fixed offset (UTC on every deployed server) LocalDate and LocalDateTime
+ * convert straight to and from epoch seconds without going through Instant/ZonedDateTime.
+ */
+public final class DocumentCodecs {
+
+    private static final int SECONDS_PER_DAY = 86_400;
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+    private static final ZoneOffset FIXED_OFFSET =
+            ZONE.getRules().isFixedOffset() ? ZONE.getRules().getOffset(Instant.EPOCH) : null;
+
+    private DocumentCodecs() {}
+
+    // ==================== TIME ====================
+
+    public static Timestamp timestamp(LocalDate date) {
+        long seconds = FIXED_OFFSET != null
+                ? date.toEpochDay() * SECONDS_PER_DAY - FIXED_OFFSET.getTotalSeconds()
+                : date.atStartOfDay(ZONE).toEpochSecond();
+        return Timestamp.ofTimeSecondsAndNanos(seconds, 0);
+    }
+
+    public static Timestamp timestamp(LocalDateTime dateTime) {
+        long seconds = FIXED_OFFSET != null
+                ? dateTime.toEpochSecond(FIXED_OFFSET)
+                : dateTime.atZone(ZONE).toEpochSecond();
+        return Timestamp.ofTimeSecondsAndNanos(seconds, dateTime.getNano());
+    }
+
+    public static LocalDate localDate(Timestamp ts) {
+        if (FIXED_OFFSET != null) {
+            return LocalDate.ofEpochDay(Math.floorDiv(ts.getSeconds() + FIXED_OFFSET.getTotalSeconds(), SECONDS_PER_DAY));
+        }
+        return LocalDate.ofInstant(Instant.ofEpochSecond(ts.getSeconds(), ts.getNanos()), ZONE);
+    }
+
+    public static LocalDateTime localDateTime(Timestamp ts) {
+        if (FIXED_OFFSET != null) {
+            return LocalDateTime.ofEpochSecond(ts.getSeconds(), ts.getNanos(), FIXED_OFFSET);
+        }
+        return LocalDateTime.ofInstant(Instant.ofEpochSecond(ts.getSeconds(), ts.getNanos()), ZONE);
+    }
+
+    /**
+     * Leading ISO date of a free-form date string ("2025-03-10", "2025-03-10T09:00", ...), or
+     * null if there is none.
+     */
+    public static LocalDate parseDate(String s) {
+        if (s == null || s.length() < 10 || s.indexOf('-') < 0) return null;
+        try {
+            return LocalDate.parse(s.substring(0, 10), DateTimeFormatter.ISO_LOCAL_DATE);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    // ==================== TYPED DATES ====================
+    // Exam, assignment and semester dates are entered as free strings. Each is stored with a
+    // typed Timestamp copy next to it, which range queries use and decoding prefers;
+    // TypedDateMigration backfills documents written before the copies existed.
+
+    public static final String EXAM_DATE = "examDate";
+    public static final String ASSIGNMENT_DUE_DATE = "dueDate";
+    public static final String SEMESTER_STARTS_ON = "startsOn";
+    public static final String SEMESTER_ENDS_ON = "endsOn";
+
+    /** Typed copy of {@code value} for an update: its Timestamp, or a delete if it has no date. */
+    public static Object typedDateUpdate(String value) {
+        LocalDate date = parseDate(value);
+        return date != null ? timestamp(date) : FieldValue.delete();
+    }
+
+    private static LocalDate typedOrParsed(Map<String, Object> fields, String typedField, String stringField) {
+        LocalDate typed = date(fields, typedField);
+        return typed != null ? typed : parseDate(str(fields, stringField));
+    }
+
+    // ==================== FIELD ACCESS ====================
+
+    private static void put(Map<String, Object> map, String field, Object value) {
+        if (value != null) map.put(field, value);
+    }
+
+    private static void putDate(Map<String, Object> map, String field, LocalDate value) {
+        if (value != null) map.put(field, timestamp(value));
+    }
+
+    private static void putDateTime(Map<String, Object> map, String field, LocalDateTime value) {
+        if (value != null) map.put(field, timestamp(value));
+    }
+
+    private static String str(Map<String, Object> fields, String field) {
+        return (String) fields.get(field);
+    }
+
+    private static Boolean bool(Map<String, Object> fields, String field) {
+        return (Boolean) fields.get(field);
+    }
+
+    private static int intOrZero(Map<String, Object> fields, String field) {
+        Object v = fields.get(field);
+        return v instanceof Number n ? n.intValue() : 0;
+    }
+
+    private static Double dbl(Map<String, Object> fields, String field) {
+        Object v = fields.get(field);
+        return v instanceof Number n ? n.doubleValue() : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> strings(Map<String, Object> fields, String field) {
+        return (List<String>) fields.get(field);
+    }
+
+    private static LocalDate date(Map<String, Object> fields, String field) {
+        Object v = fields.get(field);
+        return v instanceof Timestamp ts ? localDate(ts) : null;
+    }
+
+    private static LocalDateTime dateTime(Map<String, Object> fields, String field) {
+        Object v = fields.get(field);
+        return v instanceof Timestamp ts ? localDateTime(ts) : null;
+    }
+
+    // ==================== CODECS ====================
+
+    public static final DocumentCodec<Task> TASK = new DocumentCodec<>() {
+        @Override
+        public Map<String, Object> encode(Task task) {
+            Map<String, Object> map = HashMap.newHashMap(7);
+            put(map, "title", task.getTitle());
+            put(map, "course", task.getCourse());
+            put(map, "duration", task.getDuration());
+            map.put("completed", task.isCompleted());
+            put(map, "userId", task.getUserId());
+            putDate(map, "dueDate", task.getDueDate());
+            putDateTime(map, "createdAt", task.getCreatedAt());
+            return map;
+        }
+
+        @Override
+        public Task decode(String id, Map<String, Object> f) {
+            Task task = new Task();
+            task.setId(id);
+            task.setTitle(str(f, "title"));
+            task.setCourse(str(f, "course"));
+            task.setDuration(str(f, "duration"));
+            task.setCompleted(Boolean.TRUE.equals(f.get("completed")));
+            task.setUserId(str(f, "userId"));
+            task.setDueDate(date(f, "dueDate"));
+            task.setCreatedAt(dateTime(f, "createdAt"));
+            return task;
+        }
+    };
+
+    public static final DocumentCodec<Deadline> DEADLINE = new DocumentCodec<>() {
+        @Override
+        public Map<String, Object> encode(Deadline d) {
+            Map<String, Object> map = HashMap.newHashMap(8);
+            put(map, "title", d.getTitle());
+            put(map, "course", d.getCourse());
+            put(map, "type", d.getType());
+            put(map, "userId", d.getUserId());
+            put(map, "difficulty", d.getDifficulty());
+            put(map, "isIndividual", d.getIsIndividual());
+            putDate(map, "dueDate", d.getDueDate());
+            putDateTime(map, "createdAt", d.getCreatedAt());
+            return map;
+        }
+
+        @Override
+        public Deadline decode(String id, Map<String, Object> f) {
+            Deadline d = new Deadline();
+            d.setId(id);
+            d.setTitle(str(f, "title"));
+            d.setCourse(str(f, "course"));
+            d.setType(str(f, "type"));
+            d.setUserId(str(f, "userId"));
+            d.setDifficulty(str(f, "difficulty"));
+            Boolean ind = bool(f, "isIndividual");
+            d.setIsIndividual(ind != null ? ind : Boolean.TRUE);
+            d.setDueDate(date(f, "dueDate"));
+            d.setCreatedAt(dateTime(f, "createdAt"));
+            return d;
+        }
+    };
+
+    public static final DocumentCodec<WeeklyCheckIn> WEEKLY_CHECK_IN = new DocumentCodec<>() {
+        @Override
+        public Map<String, Object> encode(WeeklyCheckIn w) {
+            Map<String, Object> map = HashMap.newHashMap(4);
+            put(map, "userId", w.getUserId());
+            put(map, "feedback", w.getFeedback());
+            map.put("availableStudyHoursNextWeek", w.getAvailableStudyHoursNextWeek());
+            putDateTime(map, "createdAt", w.getCreatedAt());
+            return map;
+        }
+
+        @Override
+        public WeeklyCheckIn decode(String id, Map<String, Object> f) {
+            WeeklyCheckIn w = new WeeklyCheckIn();
+            w.setId(id);
+            w.setUserId(str(f, "userId"));
+            w.setFeedback(str(f, "feedback"));
+            w.setAvailableStudyHoursNextWeek(intOrZero(f, "availableStudyHoursNextWeek"));
+            w.setCreatedAt(dateTime(f, "createdAt"));
+            return w;
+        }
+    };
+
+    public static final DocumentCodec<PlannerWeek> PLANNER_WEEK = new DocumentCodec<>() {
+        @Override
+        public Map<String, Object> encode(PlannerWeek w) {
+            Map<String, Object> map = HashMap.newHashMap(5);
+            put(map, "userId", w.getUserId());
+            map.put("availableHours", w.getAvailableHours());
+            putDate(map, "weekStartDate", w.getWeekStartDate());
+            putDate(map, "weekEndDate", w.getWeekEndDate());
+            putDateTime(map, "createdAt", w.getCreatedAt());
+            return map;
+        }
+
+        @Override
+        public PlannerWeek decode(String id, Map<String, Object> f) {
+            PlannerWeek w = new PlannerWeek();
+            w.setId(id);
+            w.setUserId(str(f, "userId"));
+            w.setAvailableHours(intOrZero(f, "availableHours"));
+            w.setWeekStartDate(date(f, "weekStartDate"));
+            w.setWeekEndDate(date(f, "weekEndDate"));
+            w.setCreatedAt(dateTime(f, "createdAt"));
+            return w;
+        }
+    };
+
+    public static final DocumentCodec<PlannerTask> PLANNER_TASK = new DocumentCodec<>() {
+        @Override
+        public Map<String, Object> encode(PlannerTask t) {
+            Map<String, Object> map = HashMap.newHashMap(13);
+            put(map, "plannerWeekId", t.getPlannerWeekId());
+            put(map, "userId", t.getUserId());
+            put(map, "deadlineId", t.getDeadlineId());
+            put(map, "title", t.getTitle());
+            put(map, "course", t.getCourse());
+            put(map, "duration", t.getDuration());
+            map.put("completed", t.isCompleted());
+            put(map, "difficulty", t.getDifficulty());
+            put(map, "isIndividual", t.getIsIndividual());
+            put(map, "status", t.getStatus());
+            putDate(map, "dueDate", t.getDueDate());
+            putDateTime(map, "scheduledStartTime", t.getScheduledStartTime());
+            putDateTime(map, "createdAt", t.getCreatedAt());
+            return map;
+        }
+
+        @Override
+        public PlannerTask decode(String id, Map<String, Object> f) {
+            PlannerTask t = new PlannerTask();
+            t.setId(id);
+            t.setPlannerWeekId(str(f, "plannerWeekId"));
+            t.setUserId(str(f, "userId"));
+            t.setDeadlineId(str(f, "deadlineId"));
+            t.setTitle(str(f, "title"));
+            t.setCourse(str(f, "course"));
+            t.setDuration(str(f, "duration"));
+            t.setCompleted(Boolean.TRUE.equals(f.get("completed")));
+            t.setDifficulty(str(f, "difficulty"));
+            t.setIsIndividual(bool(f, "isIndividual"));  // null for exams (no Individual/Group); only set when stored
+            t.setStatus(str(f, "status"));
+            t.setDueDate(date(f, "dueDate"));
+            t.setScheduledStartTime(dateTime(f, "scheduledStartTime"));
+            t.setCreatedAt(dateTime(f, "createdAt"));
+            return t;
+        }
+    };
+
+    public static final DocumentCodec<Semester> SEMESTER = new DocumentCodec<>() {
+        @Override
+        public Map<String, Object> encode(Semester s) {
+            Map<String, Object> map = HashMap.newHashMap(9);
+            put(map, "userId", s.getUserId());
+            put(map, "semesterName", s.getSemesterName());
+            put(map, "startDate", s.getStartDate());
+            put(map, "endDate", s.getEndDate());
+            putDate(map, SEMESTER_STARTS_ON, parseDate(s.getStartDate()));
+            putDate(map, SEMESTER_ENDS_ON, parseDate(s.getEndDate()));
+            put(map, "studyMode", s.getStudyMode());
+            put(map, "restDays", s.getRestDays());
+            putDateTime(map, "createdAt", s.getCreatedAt());
+            return map;
+        }
+
+        @Override
+        public Semester decode(String id, Map<String, Object> f) {
+            Semester s = new Semester();
+            s.setId(id);
+            s.setUserId(str(f, "userId"));
+            s.setSemesterName(str(f, "semesterName"));
+            s.setStartDate(str(f, "startDate"));
+            s.setEndDate(str(f, "endDate"));
+            s.setStartsOn(typedOrParsed(f, SEMESTER_STARTS_ON, "startDate"));
+            s.setEndsOn(typedOrParsed(f, SEMESTER_ENDS_ON, "endDate"));
+            s.setStudyMode(str(f, "studyMode"));
+            s.setRestDays(strings(f, "restDays"));
+            s.setCreatedAt(dateTime(f, "createdAt"));
+            return s;
+        }
+    };
+
+    public static final DocumentCodec<Exam> EXAM = new DocumentCodec<>() {
+        @Override
+        public Map<String, Object> encode(Exam e) {
+            Map<String, Object> map = HashMap.newHashMap(7);
+            put(map, "userId", e.getUserId());
+            put(map, "courseName", e.getCourseName());
+            put(map, "examType", e.getExamType());
+            put(map, "date", e.getDate());
+            putDate(map, EXAM_DATE, parseDate(e.getDate()));
+            put(map, "weightPercentage", e.getWeightPercentage());
+            putDateTime(map, "createdAt", e.getCreatedAt());
+            return map;
+        }
+
+        @Override
+        public Exam decode(String id, Map<String, Object> f) {
+            Exam e = new Exam();
+            e.setId(id);
+            e.setUserId(str(f, "userId"));
+            e.setCourseName(str(f, "courseName"));
+            e.setExamType(str(f, "examType"));
+            e.setDate(str(f, "date"));
+            e.setExamDate(typedOrParsed(f, EXAM_DATE, "date"));
+            e.setWeightPercentage(dbl(f, "weightPercentage"));
+            e.setCreatedAt(dateTime(f, "createdAt"));
+            return e;
+        }
+    };
+
+    public static final DocumentCodec<Assignment> ASSIGNMENT = new DocumentCodec<>() {
+        @Override
+        public Map<String, Object> encode(Assignment a) {
+            Map<String, Object> map = HashMap.newHashMap(8);
+            put(map, "userId", a.getUserId());
+            put(map, "courseName", a.getCourseName());
+            put(map, "assignmentName", a.getAssignmentName());
+            put(map, "deadline", a.getDeadline());
+            putDate(map, ASSIGNMENT_DUE_DATE, parseDate(a.getDeadline()));
+            put(map, "difficulty", a.getDifficulty());
+            put(map, "type", a.getType());
+            putDateTime(map, "createdAt", a.getCreatedAt());
+            return map;
+        }
+
+        @Override
+        public Assignment decode(String id, Map<String, Object> f) {
+            Assignment a = new Assignment();
+            a.setId(id);
+            a.setUserId(str(f, "userId"));
+            a.setCourseName(str(f, "courseName"));
+            a.setAssignmentName(str(f, "assignmentName"));
+            a.setDeadline(str(f, "deadline"));
+            a.setDueDate(typedOrParsed(f, ASSIGNMENT_DUE_DATE, "deadline"));
+            a.setDifficulty(str(f, "difficulty"));
+            a.setType(str(f, "type"));
+            a.setCreatedAt(dateTime(f, "createdAt"));
+            return a;
+        }
+    };
+
+    public static final DocumentCodec<FocusProfile> FOCUS_PROFILE = new DocumentCodec<>() {
+        @Override
+        public Map<String, Object> encode(FocusProfile p) {
+            Map<String, Object> map = HashMap.newHashMap(5);
+            put(map, "userId", p.getUserId());
+            put(map, "peakFocusTimes", p.getPeakFocusTimes());
+            put(map, "lowEnergyTimes", p.getLowEnergyTimes());
+            put(map, "typicalStudyDuration", p.getTypicalStudyDuration());
+            putDateTime(map, "createdAt", p.getCreatedAt());
+            return map;
+        }
+
+        @Override
+        public FocusProfile decode(String id, Map<String, Object> f) {
+            FocusProfile p = new FocusProfile();
+            p.setId(id);
+            p.setUserId(str(f, "userId"));
+            p.setPeakFocusTimes(strings(f, "peakFocusTimes"));
+            p.setLowEnergyTimes(strings(f, "lowEnergyTimes"));
+            p.setTypicalStudyDuration(str(f, "typicalStudyDuration"));
+            p.setCreatedAt(dateTime(f, "createdAt"));
+            return p;
+        }
+    };
+
+    private static final Map<Class<?>, DocumentCodec<?>> REGISTRY = Map.of(
+            Task.class, TASK,
+            Deadline.class, DEADLINE,
+            WeeklyCheckIn.class, WEEKLY_CHECK_IN,
+            PlannerWeek.class, PLANNER_WEEK,
+            PlannerTask.class, PLANNER_TASK,
+            Semester.class, SEMESTER,
+            Exam.class, EXAM,
+            Assignment.class, ASSIGNMENT,
+            FocusProfile.class, FOCUS_PROFILE);
+
+    @SuppressWarnings("unchecked")
+    public static <T> DocumentCodec<T> forType(Class<T> type) {
+        DocumentCodec<T> codec = (DocumentCodec<T>) REGISTRY.get(type);
+        if (codec == null) throw new IllegalArgumentException("No codec registered for " + type.getName());
+        return codec;
+    }
+}
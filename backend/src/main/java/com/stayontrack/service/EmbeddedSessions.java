@@ -0,0 +1,173 @@
+package com.stayontrack.service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Transaction;
+import com.stayontrack.model.PlannerTask;
+
+/**
+ * Embedded layout for planner sessions (stayontrack.planner.embedded-sessions): a week document
+ * carries its sessions in a "sessions" map keyed by session id, so a week is one document read
+ * and a completion toggle is a field-path update of sessions.&lt;id&gt;.completed. Firestore
+ * cannot address array elements by path, hence a map rather than an array; readers order the
+ * sessions by day and start time. Entries omit plannerWeekId and userId, which the week
+ * document already holds.
+ *
+ * Session ids are weekId + "_" + hash (see {@link PlannerWeekReconciler}), so the week holding a
+ * session is known from its id alone. The week also lists the deadlines its sessions belong to in
+ * "deadlineIds", so a deadline's sessions are found with one array-contains query.
+ */
+final class EmbeddedSessions {
+
+    static final String FIELD = "sessions";
+    static final String DEADLINE_IDS = "deadlineIds";
+
+    private static final Pattern SESSION_ID = Pattern.compile("(.+_\\d{4}-\\d{2}-\\d{2})_[0-9a-f]+(-\\d+)?");
+
+    /** Reading order: by day, then start time. */
+    static final Comparator<PlannerTask> ORDER = Comparator
+            .comparing(PlannerTask::getDueDate, Comparator.nullsLast(Comparator.<LocalDate>naturalOrder()))
+            .thenComparing(PlannerTask::getScheduledStartTime, Comparator.nullsLast(Comparator.<LocalDateTime>naturalOrder()));
+
+    private EmbeddedSessions() {}
+
+    /** Id of the week document holding {@code sessionId}, or null for ids from before deterministic session ids. */
+    static String weekIdOf(String sessionId) {
+        Matcher m = SESSION_ID.matcher(sessionId);
+        return m.matches() ? m.group(1) : null;
+    }
+
+    static boolean isEmbedded(DocumentSnapshot week) {
+        return week.exists() && week.contains(FIELD);
+    }
+
+    /** Stored fields of every session in the week, id -> fields, with plannerWeekId and userId filled in. */
+    @SuppressWarnings("unchecked")
+    static Map<String, Map<String, Object>> entries(DocumentSnapshot week) {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        Object raw = week.get(FIELD);
+        if (!(raw instanceof Map<?, ?> sessions)) return result;
+        String userId = week.getString("userId");
+        for (Map.Entry<?, ?> e : sessions.entrySet()) {
+            if (!(e.getValue() instanceof Map<?, ?> stored)) continue;
+            Map<String, Object> fields = new LinkedHashMap<>((Map<String, Object>) stored);
+            fields.put("plannerWeekId", week.getId());
+            if (userId != null) fields.put("userId", userId);
+            result.put((String) e.getKey(), fields);
+        }
+        return result;
+    }
+
+    static List<PlannerTask> decode(DocumentSnapshot week) {
+        List<PlannerTask> tasks = new ArrayList<>();
+        entries(week).forEach((id, fields) -> tasks.add(DocumentCodecs.PLANNER_TASK.decode(id, fields)));
+        tasks.sort(ORDER);
+        return tasks;
+    }
+
+    /** The value of the sessions field for {@code tasks}, which must already carry their ids. */
+    static Map<String, Object> encode(List<PlannerTask> tasks) {
+        Map<String, Object> sessions = LinkedHashMap.newLinkedHashMap(tasks.size());
+        for (PlannerTask t : tasks) {
+            Map<String, Object> fields = DocumentCodecs.PLANNER_TASK.encode(t);
+            fields.remove("plannerWeekId");
+            fields.remove("userId");
+            sessions.put(t.getId(), fields);
+        }
+        return sessions;
+    }
+
+    /** Week fields for {@code tasks}: the sessions map and the deadlines they belong to. */
+    static Map<String, Object> fields(List<PlannerTask> tasks) {
+        Set<String> deadlineIds = new TreeSet<>();
+        for (PlannerTask t : tasks) {
+            if (t.getDeadlineId() != null) deadlineIds.add(t.getDeadlineId());
+        }
+        Map<String, Object> fields = HashMap.newHashMap(2);
+        fields.put(FIELD, encode(tasks));
+        fields.put(DEADLINE_IDS, new ArrayList<>(deadlineIds));
+        return fields;
+    }
+
+    /** Deadline ids of the given session entries (id -> stored fields), sorted. */
+    static List<String> deadlineIds(Map<String, Map<String, Object>> sessions) {
+        Set<String> ids = new TreeSet<>();
+        for (Map<String, Object> fields : sessions.values()) {
+            if (fields.get("deadlineId") instanceof String id) ids.add(id);
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * Give sessions whose ids do not name {@code weekId} (auto-generated ids from before
+     * deterministic ids) a deterministic one, so toggles can find their week.
+     */
+    static Map<String, Map<String, Object>> rekey(String weekId, Map<String, Map<String, Object>> sessions) {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        Set<String> taken = new HashSet<>(sessions.keySet());
+        for (Map.Entry<String, Map<String, Object>> e : sessions.entrySet()) {
+            String id = e.getKey();
+            if (!weekId.equals(weekIdOf(id))) {
+                id = PlannerWeekReconciler.newSessionId(weekId, e.getValue(), taken);
+                taken.add(id);
+            }
+            result.put(id, e.getValue());
+        }
+        return result;
+    }
+
+    /** Field-path update of one session's fields, stamping the week with {@code version} if given. */
+    static void update(Transaction tx, DocumentReference weekRef, String sessionId, Map<String, Object> fields, FieldValue version) {
+        update(tx, weekRef, Map.of(sessionId, fields), Map.of(), version);
+    }
+
+    /**
+     * One field-path update of several sessions (id -> fields, or null to remove the session) and
+     * of top-level week fields, stamping the week with {@code version} if given.
+     */
+    static void update(Transaction tx, DocumentReference weekRef, Map<String, Map<String, Object>> sessions,
+            Map<String, Object> weekFields, FieldValue version) {
+        List<Object> rest = new ArrayList<>();
+        sessions.forEach((sessionId, fields) -> {
+            if (fields == null) {
+                rest.add(FieldPath.of(FIELD, sessionId));
+                rest.add(FieldValue.delete());
+                return;
+            }
+            for (Map.Entry<String, Object> e : fields.entrySet()) {
+                rest.add(FieldPath.of(FIELD, sessionId, e.getKey()));
+                rest.add(e.getValue());
+            }
+        });
+        weekFields.forEach((field, value) -> {
+            rest.add(FieldPath.of(field));
+            rest.add(value);
+        });
+        if (rest.isEmpty()) return;
+        if (version != null) {
+            rest.add(FieldPath.of(ChangeVersions.FIELD));
+            rest.add(version);
+        }
+        tx.update(weekRef, (FieldPath) rest.get(0), rest.get(1), rest.subList(2, rest.size()).toArray());
+    }
+
+    static boolean contains(DocumentSnapshot week, String sessionId) {
+        return week.exists() && week.contains(FieldPath.of(FIELD, sessionId));
+    }
+}
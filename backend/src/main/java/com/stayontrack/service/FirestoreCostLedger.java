@@ -0,0 +1,337 @@
+package com.stayontrack.service;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.google.cloud.firestore.Transaction;
+import com.google.firestore.v1.BatchGetDocumentsRequest;
+import com.google.firestore.v1.BatchGetDocumentsResponse;
+import com.google.firestore.v1.BatchWriteRequest;
+import com.google.firestore.v1.BeginTransactionRequest;
+import com.google.firestore.v1.BeginTransactionResponse;
+import com.google.firestore.v1.CommitRequest;
+import com.google.firestore.v1.ListDocumentsResponse;
+import com.google.firestore.v1.ListenResponse;
+import com.google.firestore.v1.RollbackRequest;
+import com.google.firestore.v1.RunAggregationQueryRequest;
+import com.google.firestore.v1.RunAggregationQueryResponse;
+import com.google.firestore.v1.RunQueryRequest;
+import com.google.firestore.v1.RunQueryResponse;
+import com.google.firestore.v1.Write;
+import com.google.protobuf.ByteString;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Counts what each HTTP request costs in Firestore: documents read, written and deleted, and
+ * RPC round trips. Counting happens in a gRPC interceptor on the Firestore channel (installed by
+ * FirebaseConfig), so it sees every path: queries, point reads, transactions, batches, BulkWriter
+ * and listeners alike, with documents counted the way they are billed (a query that matches
+ * nothing still costs one read).
+ *
+ * An RPC is charged to the {@link Usage} bound to the thread that starts it. The request's usage
+ * is bound for the duration of the handler (see FirestoreCostTracking) and carried across
+ * Firestore callbacks by FirestoreFutures and into transaction functions by {@link #propagate}.
+ * The client begins and commits transactions from its own threads, so those two round trips are
+ * charged to the request that read or queried in the transaction, or to the background if none
+ * did. Anything else (scheduled jobs, write-behind flushes, snapshot
+ * listeners) is charged to the "background" endpoint.
+ *
+ * Published as stayontrack.firestore.documents{op,endpoint} and
+ * stayontrack.firestore.round.trips{endpoint} counters, plus per-request
+ * stayontrack.firestore.request.documents{op,endpoint} summaries to spot read amplification.
+ */
+@Component
+public class FirestoreCostLedger {
+
+    public static final String READ = "read";
+    public static final String WRITE = "write";
+    public static final String DELETE = "delete";
+    public static final String BACKGROUND = "background";
+
+    private static final ThreadLocal<Usage> CURRENT = new ThreadLocal<>();
+
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final boolean headers;
+    private final Usage background;
+    /** Open transactions by id, so their commit is charged to the request that used them. */
+    private final Cache<ByteString, Usage> transactions = Caffeine.newBuilder()
+            .expireAfterWrite(Duration.ofMinutes(5))  // longer than Firestore lets a transaction live
+            .build();
+    /**
+     * Transactions begun off a request thread whose BeginTransaction round trip is not charged yet:
+     * it goes to the first request that uses the transaction, else to the background.
+     */
+    private final Cache<ByteString, Boolean> unclaimedBegins;
+
+    /** What one request (or the background) has cost so far. */
+    public final class Usage {
+        private final AtomicLong reads = new AtomicLong();
+        private final AtomicLong writes = new AtomicLong();
+        private final AtomicLong deletes = new AtomicLong();
+        private final AtomicLong roundTrips = new AtomicLong();
+        private volatile String endpoint;
+
+        Usage(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        public long reads() { return reads.get(); }
+        public long writes() { return writes.get(); }
+        public long deletes() { return deletes.get(); }
+        public long roundTrips() { return roundTrips.get(); }
+        public String endpoint() { return endpoint; }
+
+        /** Name the endpoint once the handler is known, e.g. "GET /api/planner/today". */
+        public void setEndpoint(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        void add(String op, long count) {
+            if (count <= 0) return;
+            (READ.equals(op) ? reads : WRITE.equals(op) ? writes : deletes).addAndGet(count);
+            meterRegistry.counter("stayontrack.firestore.documents", "op", op, "endpoint", endpoint).increment(count);
+        }
+
+        void roundTrip() {
+            roundTrips.incrementAndGet();
+            meterRegistry.counter("stayontrack.firestore.round.trips", "endpoint", endpoint).increment();
+        }
+    }
+
+    public FirestoreCostLedger(MeterRegistry meterRegistry,
+            @Value("${stayontrack.firestore.cost-ledger.enabled:true}") boolean enabled,
+            @Value("${stayontrack.firestore.cost-ledger.headers:false}") boolean headers) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.headers = headers;
+        this.background = new Usage(BACKGROUND);
+        this.unclaimedBegins = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofMinutes(5))
+                .removalListener((ByteString id, Boolean begin, RemovalCause cause) -> {
+                    if (cause.wasEvicted()) background.roundTrip();
+                })
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Whether responses carry X-Firestore-* cost headers. */
+    public boolean headersEnabled() {
+        return enabled && headers;
+    }
+
+    /** Start charging RPCs made on this thread to a new request usage; pair with {@link #finish}. */
+    public Usage begin(String endpoint) {
+        Usage usage = new Usage(endpoint);
+        CURRENT.set(usage);
+        return usage;
+    }
+
+    /** Unbind the request's usage and record its per-request totals. */
+    public void finish(Usage usage) {
+        if (CURRENT.get() == usage) CURRENT.remove();
+        record(usage, READ, usage.reads());
+        record(usage, WRITE, usage.writes());
+        record(usage, DELETE, usage.deletes());
+        DistributionSummary.builder("stayontrack.firestore.request.round.trips")
+                .tag("endpoint", usage.endpoint)
+                .register(meterRegistry)
+                .record(usage.roundTrips());
+    }
+
+    private void record(Usage usage, String op, long count) {
+        DistributionSummary.builder("stayontrack.firestore.request.documents")
+                .tag("op", op)
+                .tag("endpoint", usage.endpoint)
+                .register(meterRegistry)
+                .record(count);
+    }
+
+    /** The usage bound to this thread, null outside a request. */
+    public static Usage current() {
+        return CURRENT.get();
+    }
+
+    /** Bind {@code usage} to this thread until the returned scope is closed. */
+    public static Scope bind(Usage usage) {
+        Usage previous = CURRENT.get();
+        if (previous == usage) return Scope.NONE;
+        if (usage == null) CURRENT.remove(); else CURRENT.set(usage);
+        return () -> {
+            if (previous == null) CURRENT.remove(); else CURRENT.set(previous);
+        };
+    }
+
+    public interface Scope extends AutoCloseable {
+        Scope NONE = () -> {};
+
+        @Override
+        void close();
+    }
+
+    /**
+     * Wrap a transaction function so the reads it makes on the client's transaction thread are
+     * charged to the caller. Attempts retried by the client are charged too, as they are billed.
+     */
+    public static <T> Transaction.Function<T> propagate(Transaction.Function<T> function) {
+        Usage usage = CURRENT.get();
+        if (usage == null) return function;
+        return tx -> {
+            Scope scope = bind(usage);
+            try {
+                return function.updateCallback(tx);
+            } finally {
+                scope.close();
+            }
+        };
+    }
+
+    /** The interceptor FirebaseConfig installs on the Firestore channel. */
+    public ClientInterceptor interceptor() {
+        return new ClientInterceptor() {
+            @Override
+            public <Q, R> ClientCall<Q, R> interceptCall(MethodDescriptor<Q, R> method, CallOptions options, Channel next) {
+                return new CountingCall<>(method.getBareMethodName(), next.newCall(method, options));
+            }
+        };
+    }
+
+    private final class CountingCall<Q, R> extends ForwardingClientCall.SimpleForwardingClientCall<Q, R> {
+        private final String rpc;
+        private Usage usage;
+        private boolean matched;
+        /** A BeginTransaction sent off a request thread, charged once we know who uses it. */
+        private boolean unclaimedBegin;
+
+        CountingCall(String rpc, ClientCall<Q, R> call) {
+            super(call);
+            this.rpc = rpc;
+            // A listen stream outlives the request that opened it.
+            Usage bound = "Listen".equals(rpc) ? null : CURRENT.get();
+            this.usage = bound != null ? bound : background;
+        }
+
+        @Override
+        public void start(Listener<R> listener, Metadata headers) {
+            super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<R>(listener) {
+                @Override
+                public void onMessage(R message) {
+                    received(message);
+                    super.onMessage(message);
+                }
+
+                @Override
+                public void onClose(Status status, Metadata trailers) {
+                    // Queries are billed at least one read even when nothing matches.
+                    if (!matched && status.isOk() && rpc.startsWith("Run")) usage.add(READ, 1);
+                    if (unclaimedBegin && !status.isOk()) usage.roundTrip();
+                    super.onClose(status, trailers);
+                }
+            }, headers);
+        }
+
+        @Override
+        public void sendMessage(Q message) {
+            sent(message);
+            super.sendMessage(message);
+        }
+
+        private void sent(Object message) {
+            if (message instanceof BeginTransactionRequest && usage == background) {
+                unclaimedBegin = true;
+                return;
+            }
+            if (message instanceof CommitRequest commit) {
+                end(commit.getTransaction());
+                countWrites(commit.getWritesList());
+            } else if (message instanceof BatchWriteRequest batch) {
+                countWrites(batch.getWritesList());
+            } else if (message instanceof RollbackRequest rollback) {
+                end(rollback.getTransaction());
+            } else if (message instanceof BatchGetDocumentsRequest get) {
+                use(get.getTransaction());
+            } else if (message instanceof RunQueryRequest query) {
+                use(query.getTransaction());
+            } else if (message instanceof RunAggregationQueryRequest query) {
+                use(query.getTransaction());
+            }
+            if (!"Listen".equals(rpc)) usage.roundTrip();
+        }
+
+        /** A request reads in {@code transaction}: its begin and commit are charged to it. */
+        private void use(ByteString transaction) {
+            if (transaction.isEmpty() || usage == background) return;
+            if (unclaimedBegins.asMap().remove(transaction) != null) usage.roundTrip();
+            transactions.put(transaction, usage);
+        }
+
+        /** The transaction's last round trip: charge it, and its begin if still unclaimed, to its user. */
+        private void end(ByteString transaction) {
+            if (transaction.isEmpty()) return;
+            if (usage == background) {
+                Usage user = transactions.getIfPresent(transaction);
+                if (user != null) usage = user;
+            }
+            transactions.invalidate(transaction);
+            if (unclaimedBegins.asMap().remove(transaction) != null) usage.roundTrip();
+        }
+
+        private void countWrites(Iterable<Write> writes) {
+            long deletes = 0, others = 0;
+            for (Write write : writes) {
+                if (write.getOperationCase() == Write.OperationCase.DELETE) deletes++; else others++;
+            }
+            usage.add(WRITE, others);
+            usage.add(DELETE, deletes);
+        }
+
+        private void received(Object message) {
+            ByteString transaction = ByteString.EMPTY;
+            if (message instanceof RunQueryResponse response) {
+                transaction = response.getTransaction();
+                if (response.hasDocument()) {
+                    matched = true;
+                    usage.add(READ, 1);
+                }
+            } else if (message instanceof BatchGetDocumentsResponse response) {
+                transaction = response.getTransaction();
+                if (response.getResultCase() != BatchGetDocumentsResponse.ResultCase.RESULT_NOT_SET) usage.add(READ, 1);
+            } else if (message instanceof BeginTransactionResponse response) {
+                transaction = response.getTransaction();
+                if (unclaimedBegin) {
+                    unclaimedBegins.put(transaction, Boolean.TRUE);
+                    return;
+                }
+            } else if (message instanceof ListDocumentsResponse response) {
+                usage.add(READ, response.getDocumentsCount());
+            } else if (message instanceof ListenResponse response) {
+                if (response.hasDocumentChange()) usage.add(READ, 1);
+            } else if (message instanceof RunAggregationQueryResponse response && response.hasResult()) {
+                transaction = response.getTransaction();
+                matched = true;
+                usage.add(READ, 1);  // one per 1000 index entries counted; close enough for budgeting
+            }
+            if (!transaction.isEmpty() && usage != background) transactions.put(transaction, usage);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.stayontrack.service;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+
+/**
+ * Adapts Firestore's {@link ApiFuture}s to {@link CompletableFuture}s so callers can
+ * fan out independent reads and compose results without holding a thread per round trip.
+ */
+public final class FirestoreFutures {
+
+    private FirestoreFutures() {}
+
+    /**
+     * Wrap an ApiFuture. Cancelling the returned future cancels the underlying RPC.
+     * Callbacks run on the Firestore client thread that completed the RPC, so
+     * continuations attached with thenApply should stay cheap (decoding, not I/O). They run
+     * with the caller's {@link FirestoreCostLedger} usage bound, so follow-up reads they issue
+     * are charged to the same request.
+     */
+    public static <T> CompletableFuture<T> toCompletable(ApiFuture<T> apiFuture) {
+        CompletableFuture<T> future = new CompletableFuture<>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                apiFuture.cancel(mayInterruptIfRunning);
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        FirestoreCostLedger.Usage usage = FirestoreCostLedger.current();
+        ApiFutures.addCallback(apiFuture, new ApiFutureCallback<T>() {
+            @Override
+            public void onFailure(Throwable t) {
+                FirestoreCostLedger.Scope scope = FirestoreCostLedger.bind(usage);
+                try {
+                    future.completeExceptionally(t);
+                } finally {
+                    scope.close();
+                }
+            }
+
+            @Override
+            public void onSuccess(T result) {
+                FirestoreCostLedger.Scope scope = FirestoreCostLedger.bind(usage);
+                try {
+                    future.complete(result);
+                } finally {
+                    scope.close();
+                }
+            }
+        }, Runnable::run);
+        return future;
+    }
+
+    /**
+     * Completes with every result once all futures succeed, or exceptionally as soon as the first
+     * one fails, without waiting for the rest (which keep running).
+     */
+    public static <T> CompletableFuture<List<T>> allOf(List<CompletableFuture<T>> futures) {
+        CompletableFuture<List<T>> result = new CompletableFuture<>();
+        for (CompletableFuture<T> future : futures) {
+            future.whenComplete((value, e) -> {
+                if (e != null) result.completeExceptionally(e);
+            });
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .thenAccept(v -> result.complete(futures.stream().map(CompletableFuture::join).toList()));
+        return result;
+    }
+}
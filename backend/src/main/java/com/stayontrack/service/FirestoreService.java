@@ -1,23 +1,49 @@
 package com.stayontrack.service;
 
-import java.time.Instant;
+import java.nio.charset.StandardCharsets;
+import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
 import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.AggregateQuerySnapshot;
 import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.FieldValue;
 import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreException;
 import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.Precondition;
 import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.Transaction;
+import com.google.cloud.firestore.WriteBatch;
 import com.google.firebase.cloud.FirestoreClient;
 import com.stayontrack.model.Assignment;
 import com.stayontrack.model.Deadline;
@@ -28,7 +54,23 @@ import com.stayontrack.model.PlannerWeek;
 import com.stayontrack.model.Semester;
 import com.stayontrack.model.Task;
 import com.stayontrack.model.WeeklyCheckIn;
-
+import com.stayontrack.model.dto.AgendaItem;
+import com.stayontrack.model.dto.Page;
+import com.stayontrack.model.dto.SyncResponse;
+import com.stayontrack.model.dto.UpcomingItem;
+import com.stayontrack.model.dto.WeeklySummary;
+
+import io.grpc.Status;
+
+/**
+ * Firestore persistence for all user collections.
+ * Every operation has a non-blocking *Async variant returning a CompletableFuture;
+ * the blocking methods are thin wrappers that wait on it.
+ * Deadlines, semesters and focus profiles are read through {@link UserDataCache}; when
+ * snapshot listeners are enabled, those and the current week's planner tasks are served
+ * from {@link MaterializedUserState} first. Writes to planner sessions and tasks also patch the
+ * per-day agenda documents ({@link AgendaBuckets}) that serve single-day reads.
+ */
 @Service
 public class FirestoreService {
 
@@ -41,6 +83,36 @@ public class FirestoreService {
     private static final String EXAMS_COLLECTION = "exams";
     private static final String ASSIGNMENTS_COLLECTION = "assignments";
     private static final String FOCUS_PROFILES_COLLECTION = "focusProfiles";
+    // Attempts of a read-then-conditional-write, as many as a Firestore transaction makes by default.
+    private static final int CONDITIONAL_WRITE_ATTEMPTS = 5;
+
+    /** Upper bound on any paged read; larger requested page sizes are clamped to it. */
+    public static final int MAX_PAGE_SIZE = 500;
+
+    private final UserDataCache userDataCache;
+    private final MaterializedUserState materializedState;
+    private final CompletionJournal completionJournal;
+    private final PlanSnapshotStore planSnapshots;
+    private final WriteCoalescer writeCoalescer;
+    private final Map<String, CompletableFuture<Integer>> legacyWeekMigrations = new ConcurrentHashMap<>();
+    private final boolean aggregationQueries;
+    private final boolean embeddedSessions;
+    private final boolean agendas;
+
+    public FirestoreService(UserDataCache userDataCache, MaterializedUserState materializedState,
+            CompletionJournal completionJournal, PlanSnapshotStore planSnapshots, WriteCoalescer writeCoalescer,
+            @Value("${stayontrack.firestore.aggregation-queries:true}") boolean aggregationQueries,
+            @Value("${stayontrack.planner.embedded-sessions:false}") boolean embeddedSessions,
+            @Value("${stayontrack.planner.agenda.enabled:true}") boolean agendas) {
+        this.userDataCache = userDataCache;
+        this.materializedState = materializedState;
+        this.completionJournal = completionJournal;
+        this.planSnapshots = planSnapshots;
+        this.writeCoalescer = writeCoalescer;
+        this.aggregationQueries = aggregationQueries;
+        this.embeddedSessions = embeddedSessions;
+        this.agendas = agendas;
+    }
 
     private Firestore getFirestore() {
         return FirestoreClient.getFirestore();
@@ -49,93 +121,153 @@ public class FirestoreService {
     // ==================== TASKS ====================
 
     public Task createTask(Task task) throws ExecutionException, InterruptedException {
-        Firestore db = getFirestore();
-        Map<String, Object> data = taskToMap(task);
-        DocumentReference docRef = db.collection(TASKS_COLLECTION).add(data).get();
-        task.setId(docRef.getId());
-        return task;
+        return createTaskAsync(task).get();
+    }
+
+    public CompletableFuture<Task> createTaskAsync(Task task) {
+        Map<String, Object> data = DocumentCodecs.TASK.encode(task);
+        return add(TASKS_COLLECTION, data).thenApply(docRef -> {
+            task.setId(docRef.getId());
+            return task;
+        });
     }
 
     public List<Task> getTasksByUserId(String userId) throws ExecutionException, InterruptedException {
-        Firestore db = getFirestore();
-        Query query = db.collection(TASKS_COLLECTION)
+        return getTasksByUserIdAsync(userId).get();
+    }
+
+    public CompletableFuture<List<Task>> getTasksByUserIdAsync(String userId) {
+        return queryAsync(tasksQuery(userId), DocumentCodecs.TASK::decode);
+    }
+
+    public Page<Task> getTasksByUserId(String userId, int pageSize, String pageToken) throws ExecutionException, InterruptedException {
+        return getTasksByUserIdAsync(userId, pageSize, pageToken).get();
+    }
+
+    public CompletableFuture<Page<Task>> getTasksByUserIdAsync(String userId, int pageSize, String pageToken) {
+        return pageAsync(tasksQuery(userId), "dueDate", Query.Direction.ASCENDING, pageSize, pageToken,
+                DocumentCodecs.TASK::decode);
+    }
+
+    private Query tasksQuery(String userId) {
+        return getFirestore().collection(TASKS_COLLECTION)
                 .whereEqualTo("userId", userId)
                 .orderBy("dueDate", Query.Direction.ASCENDING);
-        QuerySnapshot snapshot = query.get().get();
-        List<Task> tasks = new ArrayList<>();
-        for (DocumentSnapshot doc : snapshot.getDocuments()) {
-            Task task = mapToTask(doc);
-            if (task != null) tasks.add(task);
-        }
-        return tasks;
     }
 
     public List<Task> getTasksForDate(String userId, LocalDate date) throws ExecutionException, InterruptedException {
-        Firestore db = getFirestore();
-        Instant startOfDay = date.atStartOfDay(ZoneId.systemDefault()).toInstant();
-        Instant endOfDay = date.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant();
-        Query query = db.collection(TASKS_COLLECTION)
+        return getTasksForDateAsync(userId, date).get();
+    }
+
+    public CompletableFuture<List<Task>> getTasksForDateAsync(String userId, LocalDate date) {
+        if (agendas) {
+            return getAgendaAsync(userId, date).thenApply(items -> items.stream()
+                    .filter(item -> item.getTask() != null).map(AgendaItem::getTask).toList());
+        }
+        return queryAsync(tasksForDateQuery(userId, date), DocumentCodecs.TASK::decode);
+    }
+
+    private Query tasksForDateQuery(String userId, LocalDate date) {
+        Timestamp startOfDay = DocumentCodecs.timestamp(date);
+        Timestamp endOfDay = DocumentCodecs.timestamp(date.plusDays(1));
+        return getFirestore().collection(TASKS_COLLECTION)
                 .whereEqualTo("userId", userId)
-                .whereGreaterThanOrEqualTo("dueDate", Timestamp.of(java.sql.Timestamp.from(startOfDay)))
-                .whereLessThan("dueDate", Timestamp.of(java.sql.Timestamp.from(endOfDay)))
+                .whereGreaterThanOrEqualTo("dueDate", startOfDay)
+                .whereLessThan("dueDate", endOfDay)
                 .orderBy("dueDate", Query.Direction.ASCENDING);
-        QuerySnapshot snapshot = query.get().get();
-        List<Task> tasks = new ArrayList<>();
-        for (DocumentSnapshot doc : snapshot.getDocuments()) {
-            Task task = mapToTask(doc);
-            if (task != null) tasks.add(task);
-        }
-        return tasks;
     }
 
     public Task updateTask(String taskId, Task task) throws ExecutionException, InterruptedException {
-        Firestore db = getFirestore();
-        DocumentReference docRef = db.collection(TASKS_COLLECTION).document(taskId);
+        return updateTaskAsync(taskId, task).get();
+    }
+
+    public CompletableFuture<Task> updateTaskAsync(String taskId, Task task) {
         Map<String, Object> updates = new HashMap<>();
         if (task.getTitle() != null) updates.put("title", task.getTitle());
         if (task.getCourse() != null) updates.put("course", task.getCourse());
         if (task.getDuration() != null) updates.put("duration", task.getDuration());
         updates.put("completed", task.isCompleted());
         if (task.getDueDate() != null) {
-            updates.put("dueDate", Timestamp.of(java.sql.Timestamp.from(
-                    task.getDueDate().atStartOfDay(ZoneId.systemDefault()).toInstant())));
+            updates.put("dueDate", DocumentCodecs.timestamp(task.getDueDate()));
         }
-        docRef.update(updates).get();
-        task.setId(taskId);
-        return task;
+        return update(TASKS_COLLECTION, taskId, updates).thenApply(r -> {
+            task.setId(taskId);
+            return task;
+        });
     }
 
     public void deleteTask(String taskId) throws ExecutionException, InterruptedException {
-        getFirestore().collection(TASKS_COLLECTION).document(taskId).delete().get();
+        deleteTaskAsync(taskId).get();
+    }
+
+    public CompletableFuture<Void> deleteTaskAsync(String taskId) {
+        return delete(TASKS_COLLECTION, taskId);
     }
 
     // ==================== DEADLINES ====================
 
     public Deadline createDeadline(Deadline deadline) throws ExecutionException, InterruptedException {
-        Firestore db = getFirestore();
-        Map<String, Object> data = deadlineToMap(deadline);
-        DocumentReference docRef = db.collection(DEADLINES_COLLECTION).add(data).get();
-        deadline.setId(docRef.getId());
-        return deadline;
+        return createDeadlineAsync(deadline).get();
+    }
+
+    public CompletableFuture<Deadline> createDeadlineAsync(Deadline deadline) {
+        Map<String, Object> data = DocumentCodecs.DEADLINE.encode(deadline);
+        return add(DEADLINES_COLLECTION, data).thenApply(docRef -> {
+            deadline.setId(docRef.getId());
+            return deadline;
+        }).whenComplete((r, e) -> userDataCache.deadlines().invalidateUser(deadline.getUserId()));
     }
 
     public List<Deadline> getDeadlinesByUserId(String userId) throws ExecutionException, InterruptedException {
-        Firestore db = getFirestore();
-        Query query = db.collection(DEADLINES_COLLECTION)
+        return getDeadlinesByUserIdAsync(userId).get();
+    }
+
+    public CompletableFuture<List<Deadline>> getDeadlinesByUserIdAsync(String userId) {
+        return planSnapshots.read(userId, PlanSnapshotStore.Kind.DEADLINES, null, Deadline.class,
+                () -> materializedState.read(userId, MaterializedUserState.Kind.DEADLINES, null,
+                        () -> deadlinesQuery(userId), snapshot -> decode(snapshot, DocumentCodecs.DEADLINE::decode),
+                        () -> userDataCache.deadlines().get(userId, this::queryDeadlinesByUserIdAsync)));
+    }
+
+    /**
+     * A bounded page. A first page the cached full list above fits in is served from it, as one
+     * page; otherwise pages come straight from Firestore.
+     */
+    public Page<Deadline> getDeadlinesByUserId(String userId, int pageSize, String pageToken) throws ExecutionException, InterruptedException {
+        return getDeadlinesByUserIdAsync(userId, pageSize, pageToken).get();
+    }
+
+    public CompletableFuture<Page<Deadline>> getDeadlinesByUserIdAsync(String userId, int pageSize, String pageToken) {
+        if (pageToken == null || pageToken.isBlank()) {
+            return getDeadlinesByUserIdAsync(userId).thenCompose(all -> all.size() <= Math.min(pageSize, MAX_PAGE_SIZE)
+                    ? CompletableFuture.completedFuture(new Page<>(all, null))
+                    : pageAsync(deadlinesQuery(userId), "dueDate", Query.Direction.ASCENDING, pageSize, null,
+                            DocumentCodecs.DEADLINE::decode));
+        }
+        return pageAsync(deadlinesQuery(userId), "dueDate", Query.Direction.ASCENDING, pageSize, pageToken,
+                DocumentCodecs.DEADLINE::decode);
+    }
+
+    private CompletableFuture<List<Deadline>> queryDeadlinesByUserIdAsync(String userId) {
+        return queryAsync(deadlinesQuery(userId), DocumentCodecs.DEADLINE::decode);
+    }
+
+    private Query deadlinesQuery(String userId) {
+        return getFirestore().collection(DEADLINES_COLLECTION)
                 .whereEqualTo("userId", userId)
                 .orderBy("dueDate", Query.Direction.ASCENDING);
-        QuerySnapshot snapshot = query.get().get();
-        List<Deadline> deadlines = new ArrayList<>();
-        for (DocumentSnapshot doc : snapshot.getDocuments()) {
-            Deadline d = mapToDeadline(doc);
-            if (d != null) deadlines.add(d);
-        }
-        return deadlines;
     }
 
     public Deadline updateDeadline(String deadlineId, Deadline deadline) throws ExecutionException, InterruptedException {
-        Firestore db = getFirestore();
-        DocumentReference docRef = db.collection(DEADLINES_COLLECTION).document(deadlineId);
+        return updateDeadlineAsync(deadlineId, deadline).get();
+    }
+
+    /**
+     * A change of title or course carries over to the deadline's planner sessions in the same
+     * transaction: sessions titled after the deadline by the planner are retitled (see
+     * PlannerEngineService.retitleTask) and sessions on the old course move to the new one.
+     */
+    public CompletableFuture<Deadline> updateDeadlineAsync(String deadlineId, Deadline deadline) {
         Map<String, Object> updates = new HashMap<>();
         if (deadline.getTitle() != null) updates.put("title", deadline.getTitle());
         if (deadline.getCourse() != null) updates.put("course", deadline.getCourse());
@@ -143,145 +275,814 @@ public class FirestoreService {
         if (deadline.getDifficulty() != null) updates.put("difficulty", deadline.getDifficulty());
         if (deadline.getIsIndividual() != null) updates.put("isIndividual", deadline.getIsIndividual());
         if (deadline.getDueDate() != null) {
-            updates.put("dueDate", Timestamp.of(java.sql.Timestamp.from(
-                    deadline.getDueDate().atStartOfDay(ZoneId.systemDefault()).toInstant())));
+            updates.put("dueDate", DocumentCodecs.timestamp(deadline.getDueDate()));
         }
-        docRef.update(updates).get();
-        deadline.setId(deadlineId);
-        return deadline;
+        Firestore db = getFirestore();
+        DocumentReference ref = db.collection(DEADLINES_COLLECTION).document(deadlineId);
+        return FirestoreFutures.toCompletable(db.runTransaction(FirestoreCostLedger.propagate(tx -> {
+            DocumentSnapshot current = tx.get(ref).get();
+            String userId = current.getString("userId");
+            String oldTitle = current.getString("title");
+            String oldCourse = current.getString("course");
+            boolean renamed = oldTitle != null && !oldTitle.isEmpty() && updates.containsKey("title") && !oldTitle.equals(updates.get("title"));
+            boolean moved = updates.containsKey("course") && !updates.get("course").equals(oldCourse);
+            LinkedSessions linked = current.exists() && (renamed || moved) ? linkedSessions(tx, db, deadlineId) : LinkedSessions.NONE;
+            Map<String, Map<String, Object>> sessionUpdates = new LinkedHashMap<>();
+            linked.sessions().forEach((id, fields) -> {
+                Map<String, Object> change = new HashMap<>();
+                String retitled = renamed && fields.get("title") instanceof String title
+                        ? PlannerEngineService.retitleTask(title, oldTitle, (String) updates.get("title")) : null;
+                if (retitled != null) change.put("title", retitled);
+                if (moved && Objects.equals(fields.get("course"), oldCourse)) change.put("course", updates.get("course"));
+                if (!change.isEmpty()) sessionUpdates.put(id, change);
+            });
+            AgendaBuckets.Edit agenda = AgendaBuckets.read(tx, db, linkedSessionChanges(linked, sessionUpdates));
+            FieldValue version = ChangeVersions.mark(tx, db, userId);
+            tx.update(ref, stamp(new HashMap<>(updates), version));  // NOT_FOUND if the deadline does not exist
+            writeLinkedSessions(tx, db, linked, sessionUpdates, userId, version);
+            agenda.write();
+            return new DeadlineCascade(userId, current.getUpdateTime(), sessionUpdates.size());
+        }))).thenApply(cascade -> {
+            noteDeadlineCascade(deadlineId, cascade, false);
+            deadline.setId(deadlineId);
+            return deadline;
+        }).whenComplete((r, e) -> {
+            userDataCache.deadlines().invalidateDoc(deadlineId);
+            userDataCache.deadlines().invalidateUser(deadline.getUserId());
+        });
     }
 
     public void deleteDeadline(String deadlineId) throws ExecutionException, InterruptedException {
-        getFirestore().collection(DEADLINES_COLLECTION).document(deadlineId).delete().get();
+        deleteDeadlineAsync(deadlineId).get();
+    }
+
+    /**
+     * Deleting a deadline removes its open planner sessions in the same transaction; completed
+     * sessions stay as history, no longer linked. Pending completion toggles land first so the
+     * split is made on current state.
+     */
+    public CompletableFuture<Void> deleteDeadlineAsync(String deadlineId) {
+        Firestore db = getFirestore();
+        DocumentReference ref = db.collection(DEADLINES_COLLECTION).document(deadlineId);
+        return completionJournal.flushAsync().thenCompose(v -> FirestoreFutures.toCompletable(db.runTransaction(FirestoreCostLedger.propagate(tx -> {
+            DocumentSnapshot current = tx.get(ref).get();
+            if (!current.exists()) return null;
+            String userId = current.getString("userId");
+            LinkedSessions linked = linkedSessions(tx, db, deadlineId);
+            Map<String, Map<String, Object>> sessionUpdates = new LinkedHashMap<>();
+            linked.sessions().forEach((id, fields) -> sessionUpdates.put(id, Boolean.TRUE.equals(fields.get("completed"))
+                    ? new HashMap<>(Map.of("deadlineId", FieldValue.delete()))
+                    : null));
+            AgendaBuckets.Edit agenda = AgendaBuckets.read(tx, db, linkedSessionChanges(linked, sessionUpdates));
+            FieldValue version = ChangeVersions.mark(tx, db, userId);
+            tx.delete(ref);
+            if (version != null) ChangeVersions.tombstone(tx, db, userId, DEADLINES_COLLECTION, deadlineId, version);
+            writeLinkedSessions(tx, db, linked, sessionUpdates, userId, version);
+            agenda.write();
+            return new DeadlineCascade(userId, current.getUpdateTime(), sessionUpdates.size());
+        })))).thenAccept(cascade -> {
+            noteDeadlineCascade(deadlineId, cascade, true);
+            if (cascade != null) userDataCache.deadlines().invalidateUser(cascade.userId());
+        }).whenComplete((r, e) -> userDataCache.deadlines().invalidateDoc(deadlineId));
+    }
+
+    /** Owner of a written deadline, the update time of the version it replaced, and how many of its sessions the write changed. */
+    private record DeadlineCascade(String userId, Timestamp before, int sessions) {}
+
+    /**
+     * A deadline's planner sessions (id -> stored fields) in either layout: session documents
+     * by deadlineId, and embedded weeks listing the deadline in deadlineIds.
+     */
+    private record LinkedSessions(Map<String, Map<String, Object>> sessions, Map<String, DocumentSnapshot> weekOf) {
+        static final LinkedSessions NONE = new LinkedSessions(Map.of(), Map.of());
+    }
+
+    private static LinkedSessions linkedSessions(Transaction tx, Firestore db, String deadlineId)
+            throws ExecutionException, InterruptedException {
+        Map<String, Map<String, Object>> sessions = new LinkedHashMap<>();
+        Map<String, DocumentSnapshot> weekOf = new HashMap<>();
+        Query documents = db.collection(PLANNER_TASKS_COLLECTION).whereEqualTo("deadlineId", deadlineId);
+        for (DocumentSnapshot doc : tx.get(documents).get().getDocuments()) sessions.put(doc.getId(), doc.getData());
+        Query weeks = db.collection(PLANNER_WEEKS_COLLECTION).whereArrayContains(EmbeddedSessions.DEADLINE_IDS, deadlineId);
+        for (DocumentSnapshot week : tx.get(weeks).get().getDocuments()) {
+            EmbeddedSessions.entries(week).forEach((id, fields) -> {
+                if (!deadlineId.equals(fields.get("deadlineId"))) return;
+                sessions.put(id, fields);
+                weekOf.put(id, week);
+            });
+        }
+        return new LinkedSessions(sessions, weekOf);
+    }
+
+    /** Apply {@code updates} (session id -> fields, or null to delete) to linked sessions, one write per embedded week. */
+    private static void writeLinkedSessions(Transaction tx, Firestore db, LinkedSessions linked,
+            Map<String, Map<String, Object>> updates, String userId, FieldValue version) {
+        Map<String, Map<String, Map<String, Object>>> byWeek = new LinkedHashMap<>();
+        Map<String, DocumentSnapshot> weeks = new HashMap<>();
+        updates.forEach((id, fields) -> {
+            DocumentSnapshot week = linked.weekOf().get(id);
+            if (week != null) {
+                weeks.put(week.getId(), week);
+                byWeek.computeIfAbsent(week.getId(), w -> new LinkedHashMap<>()).put(id, fields);
+                return;
+            }
+            DocumentReference ref = db.collection(PLANNER_TASKS_COLLECTION).document(id);
+            if (fields == null) tx.delete(ref);
+            else tx.update(ref, stamp(new HashMap<>(fields), version));
+        });
+        byWeek.forEach((weekId, sessions) -> {
+            DocumentSnapshot week = weeks.get(weekId);
+            Map<String, Map<String, Object>> after = EmbeddedSessions.entries(week);
+            sessions.forEach((id, fields) -> {
+                if (fields == null) after.remove(id);
+                else after.put(id, AgendaBuckets.merged(after.get(id), fields));
+            });
+            EmbeddedSessions.update(tx, week.getReference(), sessions,
+                    Map.of(EmbeddedSessions.DEADLINE_IDS, EmbeddedSessions.deadlineIds(after)), version);
+        });
+        if (version == null) return;
+        updates.forEach((id, fields) -> {
+            if (fields == null) ChangeVersions.tombstone(tx, db, userId, PLANNER_TASKS_COLLECTION, id, version);
+        });
+    }
+
+    private List<AgendaBuckets.Change> linkedSessionChanges(LinkedSessions linked, Map<String, Map<String, Object>> updates) {
+        if (!agendas) return List.of();
+        List<AgendaBuckets.Change> changes = new ArrayList<>(updates.size());
+        updates.forEach((id, fields) -> {
+            Map<String, Object> before = linked.sessions().get(id);
+            changes.add(new AgendaBuckets.Change(AgendaItem.SESSION, id, before,
+                    fields != null ? AgendaBuckets.merged(before, fields) : null));
+        });
+        return changes;
+    }
+
+    private void noteDeadlineCascade(String deadlineId, DeadlineCascade cascade, boolean deleted) {
+        if (cascade == null) return;
+        noteWrite(DEADLINES_COLLECTION, deadlineId, new WriteCoalescer.Written(cascade.userId(), cascade.before()), deleted);
+        if (cascade.sessions() > 0) {
+            noteWrites(PLANNER_TASKS_COLLECTION, cascade.userId());
+            noteWrites(PLANNER_WEEKS_COLLECTION, cascade.userId());
+        }
     }
 
     // ==================== WEEKLY CHECK-INS ====================
 
     public WeeklyCheckIn createWeeklyCheckIn(WeeklyCheckIn checkIn) throws ExecutionException, InterruptedException {
-        Firestore db = getFirestore();
-        Map<String, Object> data = weeklyCheckInToMap(checkIn);
-        DocumentReference docRef = db.collection(WEEKLY_CHECK_INS_COLLECTION).add(data).get();
-        checkIn.setId(docRef.getId());
-        return checkIn;
+        return createWeeklyCheckInAsync(checkIn).get();
+    }
+
+    public CompletableFuture<WeeklyCheckIn> createWeeklyCheckInAsync(WeeklyCheckIn checkIn) {
+        Map<String, Object> data = DocumentCodecs.WEEKLY_CHECK_IN.encode(checkIn);
+        return add(WEEKLY_CHECK_INS_COLLECTION, data).thenApply(docRef -> {
+            checkIn.setId(docRef.getId());
+            return checkIn;
+        });
     }
 
     public List<WeeklyCheckIn> getWeeklyCheckInsByUserId(String userId) throws ExecutionException, InterruptedException {
-        Firestore db = getFirestore();
-        Query query = db.collection(WEEKLY_CHECK_INS_COLLECTION)
+        return getWeeklyCheckInsByUserIdAsync(userId).get();
+    }
+
+    public CompletableFuture<List<WeeklyCheckIn>> getWeeklyCheckInsByUserIdAsync(String userId) {
+        return queryAsync(weeklyCheckInsQuery(userId), DocumentCodecs.WEEKLY_CHECK_IN::decode);
+    }
+
+    public Page<WeeklyCheckIn> getWeeklyCheckInsByUserId(String userId, int pageSize, String pageToken) throws ExecutionException, InterruptedException {
+        return getWeeklyCheckInsByUserIdAsync(userId, pageSize, pageToken).get();
+    }
+
+    public CompletableFuture<Page<WeeklyCheckIn>> getWeeklyCheckInsByUserIdAsync(String userId, int pageSize, String pageToken) {
+        return pageAsync(weeklyCheckInsQuery(userId), "createdAt", Query.Direction.DESCENDING, pageSize, pageToken,
+                DocumentCodecs.WEEKLY_CHECK_IN::decode);
+    }
+
+    private Query weeklyCheckInsQuery(String userId) {
+        return getFirestore().collection(WEEKLY_CHECK_INS_COLLECTION)
                 .whereEqualTo("userId", userId)
                 .orderBy("createdAt", Query.Direction.DESCENDING);
-        QuerySnapshot snapshot = query.get().get();
-        List<WeeklyCheckIn> list = new ArrayList<>();
-        for (DocumentSnapshot doc : snapshot.getDocuments()) {
-            WeeklyCheckIn w = mapToWeeklyCheckIn(doc);
-            if (w != null) list.add(w);
-        }
-        return list;
     }
 
     // ==================== PLANNER WEEKS ====================
+    // Week documents are keyed by userId + ISO week start, so lookups are point reads; sessions
+    // are reconciled in place on regeneration (see savePlannerWeekAsync). With
+    // stayontrack.planner.embedded-sessions the sessions live inside the week document
+    // (see EmbeddedSessions) and weeks still in the per-task layout are migrated when first
+    // read or saved.
+
+    public static String plannerWeekId(String userId, LocalDate weekStartDate) {
+        return userId + "_" + weekStartDate.format(DateTimeFormatter.ISO_LOCAL_DATE);
+    }
 
     public PlannerWeek createPlannerWeek(PlannerWeek week) throws ExecutionException, InterruptedException {
+        return createPlannerWeekAsync(week).get();
+    }
+
+    /** Blind upsert of the week document under its deterministic id. */
+    public CompletableFuture<PlannerWeek> createPlannerWeekAsync(PlannerWeek week) {
+        String weekId = plannerWeekId(week.getUserId(), week.getWeekStartDate());
+        Map<String, Object> data = DocumentCodecs.PLANNER_WEEK.encode(week);
+        Firestore db = getFirestore();
+        DocumentReference docRef = db.collection(PLANNER_WEEKS_COLLECTION).document(weekId);
+        WriteBatch batch = db.batch();
+        batch.set(docRef, stamp(data, ChangeVersions.mark(batch, db, week.getUserId())));
+        return FirestoreFutures.toCompletable(batch.commit()).thenApply(result -> {
+            week.setId(weekId);
+            return week;
+        });
+    }
+
+    public void savePlannerWeek(PlannerWeek week, List<PlannerTask> tasks) throws ExecutionException, InterruptedException {
+        savePlannerWeekAsync(week, tasks).get();
+    }
+
+    /**
+     * Reconcile a regenerated week with what is stored, in one transaction. New sessions are
+     * matched to existing ones by {@link PlannerWeekReconciler}: matches keep their id and
+     * completion state and are updated only where they changed, unmatched new sessions are
+     * inserted and sessions that vanished are deleted. The week document is rewritten only if
+     * its fields changed. Running in a transaction keeps concurrent regenerations of the same
+     * week from interleaving.
+     */
+    public CompletableFuture<PlannerWeek> savePlannerWeekAsync(PlannerWeek week, List<PlannerTask> tasks) {
+        String userId = week.getUserId();
+        String weekId = plannerWeekId(userId, week.getWeekStartDate());
+        week.setId(weekId);
         Firestore db = getFirestore();
-        Map<String, Object> data = plannerWeekToMap(week);
-        DocumentReference docRef = db.collection(PLANNER_WEEKS_COLLECTION).add(data).get();
-        week.setId(docRef.getId());
+        DocumentReference weekRef = db.collection(PLANNER_WEEKS_COLLECTION).document(weekId);
+        Query sessions = db.collection(PLANNER_TASKS_COLLECTION).whereEqualTo("plannerWeekId", weekId);
+        // Pending completion toggles must land first so the reconciler carries them over.
+        return completionJournal.flushAsync()
+                .thenCompose(v -> migrateLegacyPlannerWeeksAsync(userId))
+                .thenCompose(v -> FirestoreFutures.toCompletable(db.runTransaction(FirestoreCostLedger.propagate(tx -> {
+                    DocumentSnapshot storedWeek = tx.get(weekRef).get();
+                    if (embeddedSessions) return saveEmbeddedWeek(tx, db, storedWeek, sessions, week, tasks);
+                    Map<String, Map<String, Object>> existing = new LinkedHashMap<>();
+                    for (DocumentSnapshot doc : tx.get(sessions).get().getDocuments()) {
+                        existing.put(doc.getId(), doc.getData());
+                    }
+
+                    Map<String, Object> weekData = DocumentCodecs.PLANNER_WEEK.encode(week);
+                    Map<String, Object> weekChanges = storedWeek.exists()
+                            ? PlannerWeekReconciler.changedFields(storedWeek.getData(), weekData, PlannerWeekReconciler.WEEK_FIELDS)
+                            : weekData;
+                    PlannerWeekReconciler.Plan plan = PlannerWeekReconciler.reconcile(weekId, existing, tasks);
+                    if (weekChanges.isEmpty() && plan.inserts().isEmpty() && plan.updates().isEmpty() && plan.deletes().isEmpty()) {
+                        return week;  // nothing changed: no writes, no new change version
+                    }
+
+                    AgendaBuckets.Edit agenda = AgendaBuckets.read(tx, db, agendaChanges(existing, plan));
+                    FieldValue version = ChangeVersions.mark(tx, db, userId);
+                    if (!storedWeek.exists()) {
+                        tx.set(weekRef, stamp(weekData, version));
+                    } else if (!weekChanges.isEmpty()) {
+                        tx.update(weekRef, stamp(weekChanges, version));
+                    }
+                    plan.inserts().forEach((id, data) -> tx.set(db.collection(PLANNER_TASKS_COLLECTION).document(id), stamp(data, version)));
+                    plan.updates().forEach((id, data) -> tx.update(db.collection(PLANNER_TASKS_COLLECTION).document(id), stamp(data, version)));
+                    for (String id : plan.deletes()) {
+                        tx.delete(db.collection(PLANNER_TASKS_COLLECTION).document(id));
+                        if (version != null) ChangeVersions.tombstone(tx, db, userId, PLANNER_TASKS_COLLECTION, id, version);
+                    }
+                    agenda.write();
+                    System.out.println("🗓️ Week " + weekId + ": " + plan.inserts().size() + " added, "
+                            + plan.updates().size() + " updated, " + plan.deletes().size() + " removed, "
+                            + (tasks.size() - plan.inserts().size() - plan.updates().size()) + " unchanged");
+                    return week;
+                }))))
+                .thenApply(saved -> {
+                    noteWrites(PLANNER_TASKS_COLLECTION, userId);
+                    return saved;
+                });
+    }
+
+    /**
+     * Embedded form of the reconciliation in savePlannerWeekAsync: the week and all its sessions
+     * are one document write. A week still in the per-task layout is migrated on the way: its
+     * session documents are deleted and reconciled as if they were embedded.
+     */
+    private PlannerWeek saveEmbeddedWeek(Transaction tx, Firestore db, DocumentSnapshot storedWeek, Query sessions,
+            PlannerWeek week, List<PlannerTask> tasks) throws ExecutionException, InterruptedException {
+        String userId = week.getUserId();
+        String weekId = week.getId();
+        Map<String, Map<String, Object>> existing;
+        Map<String, Map<String, Object>> legacyFields = new LinkedHashMap<>();
+        if (EmbeddedSessions.isEmbedded(storedWeek)) {
+            existing = EmbeddedSessions.entries(storedWeek);
+        } else {
+            for (DocumentSnapshot doc : tx.get(sessions).get().getDocuments()) legacyFields.put(doc.getId(), doc.getData());
+            existing = EmbeddedSessions.rekey(weekId, legacyFields);
+        }
+        Set<String> legacyIds = legacyFields.keySet();
+
+        Map<String, Object> weekData = DocumentCodecs.PLANNER_WEEK.encode(week);
+        Map<String, Object> weekChanges = storedWeek.exists()
+                ? PlannerWeekReconciler.changedFields(storedWeek.getData(), weekData, PlannerWeekReconciler.WEEK_FIELDS)
+                : weekData;
+        PlannerWeekReconciler.Plan plan = PlannerWeekReconciler.reconcile(weekId, existing, tasks);
+        boolean sessionsChanged = !plan.inserts().isEmpty() || !plan.updates().isEmpty() || !plan.deletes().isEmpty();
+        if (EmbeddedSessions.isEmbedded(storedWeek) && weekChanges.isEmpty() && !sessionsChanged) {
+            return week;
+        }
+
+        // Migrated sessions may change id, so their agenda entries are replaced wholesale.
+        AgendaBuckets.Edit agenda = AgendaBuckets.read(tx, db, legacyIds.isEmpty()
+                ? agendaChanges(existing, plan)
+                : replacedSessions(legacyFields, tasks));
+        FieldValue version = ChangeVersions.mark(tx, db, userId);
+        Map<String, Object> data = new HashMap<>(weekChanges);
+        data.putAll(EmbeddedSessions.fields(tasks));
+        if (!storedWeek.exists()) {
+            tx.set(weekRef(db, weekId), stamp(data, version));
+        } else {
+            tx.update(weekRef(db, weekId), stamp(data, version));
+        }
+        // Tombstones name the plannerTasks collection either way, so sync clients see one model.
+        Set<String> gone = new LinkedHashSet<>(legacyIds);
+        gone.addAll(plan.deletes());
+        for (String id : legacyIds) tx.delete(db.collection(PLANNER_TASKS_COLLECTION).document(id));
+        if (version != null) {
+            for (String id : gone) ChangeVersions.tombstone(tx, db, userId, PLANNER_TASKS_COLLECTION, id, version);
+        }
+        agenda.write();
+        System.out.println("🗓️ Week " + weekId + " (embedded): " + plan.inserts().size() + " added, "
+                + plan.updates().size() + " updated, " + plan.deletes().size() + " removed"
+                + (legacyIds.isEmpty() ? "" : ", migrated " + legacyIds.size() + " session document(s)"));
         return week;
     }
 
-    public PlannerWeek getPlannerWeekByDate(String userId, LocalDate weekStartDate) throws ExecutionException, InterruptedException {
+    private static DocumentReference weekRef(Firestore db, String weekId) {
+        return db.collection(PLANNER_WEEKS_COLLECTION).document(weekId);
+    }
+
+    /**
+     * Sessions of one week in the embedded layout: a single document read. A week still in the
+     * per-task layout is migrated first; a missing week has no sessions.
+     */
+    private CompletableFuture<List<PlannerTask>> embeddedWeekSessionsAsync(String weekId) {
         Firestore db = getFirestore();
-        Instant start = weekStartDate.atStartOfDay(ZoneId.systemDefault()).toInstant();
-        Query query = db.collection(PLANNER_WEEKS_COLLECTION)
-                .whereEqualTo("userId", userId)
-                .whereEqualTo("weekStartDate", Timestamp.of(java.sql.Timestamp.from(start)));
-        QuerySnapshot snapshot = query.get().get();
-        if (snapshot.isEmpty()) return null;
-        return mapToPlannerWeek(snapshot.getDocuments().get(0));
+        return FirestoreFutures.toCompletable(weekRef(db, weekId).get()).thenCompose(doc -> {
+            if (!doc.exists()) return CompletableFuture.completedFuture(List.<PlannerTask>of());
+            if (EmbeddedSessions.isEmbedded(doc)) return CompletableFuture.completedFuture(EmbeddedSessions.decode(doc));
+            return migrateWeekSessionsAsync(weekId);
+        });
     }
 
-    public List<PlannerWeek> getPlannerWeeksByUserId(String userId) throws ExecutionException, InterruptedException {
+    /** Embedded sessions of several weeks in one batched read, migrating any still in the per-task layout. */
+    private CompletableFuture<List<PlannerTask>> embeddedSessionsOfWeeksAsync(List<String> weekIds) {
+        Firestore db = getFirestore();
+        DocumentReference[] refs = weekIds.stream().map(id -> weekRef(db, id)).toArray(DocumentReference[]::new);
+        return FirestoreFutures.toCompletable(db.getAll(refs)).thenCompose(docs -> {
+            List<CompletableFuture<List<PlannerTask>>> weeks = new ArrayList<>(docs.size());
+            for (DocumentSnapshot doc : docs) {
+                if (!doc.exists()) continue;
+                weeks.add(EmbeddedSessions.isEmbedded(doc)
+                        ? CompletableFuture.completedFuture(EmbeddedSessions.decode(doc))
+                        : migrateWeekSessionsAsync(doc.getId()));
+            }
+            return FirestoreFutures.allOf(weeks).thenApply(lists -> {
+                List<PlannerTask> all = new ArrayList<>();
+                for (List<PlannerTask> list : lists) all.addAll(list);
+                return all;
+            });
+        });
+    }
+
+    /** Ids of the weeks overlapping {@code from}..{@code to} (inclusive). */
+    private static List<String> weekIdsCovering(String userId, LocalDate from, LocalDate to) {
+        List<String> ids = new ArrayList<>();
+        for (LocalDate w = from.with(DayOfWeek.MONDAY); !w.isAfter(to); w = w.plusWeeks(1)) {
+            ids.add(plannerWeekId(userId, w));
+        }
+        return ids;
+    }
+
+    public int migratePlannerSessions(String userId) throws ExecutionException, InterruptedException {
+        return migratePlannerSessionsAsync(userId).get();
+    }
+
+    /**
+     * Move all of a user's weeks still in the per-task layout into the embedded layout ahead of
+     * their first read. Returns the number of weeks migrated.
+     *
+     * @throws IllegalStateException (as the future's failure) unless embedded sessions are enabled,
+     *         since readers of the per-task layout would no longer see migrated sessions
+     */
+    public CompletableFuture<Integer> migratePlannerSessionsAsync(String userId) {
+        if (!embeddedSessions) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Embedded planner sessions are not enabled"));
+        }
+        Firestore db = getFirestore();
+        Query weeks = db.collection(PLANNER_WEEKS_COLLECTION).whereEqualTo("userId", userId);
+        return FirestoreFutures.toCompletable(weeks.get()).thenCompose(snapshot -> {
+            List<CompletableFuture<List<PlannerTask>>> migrations = new ArrayList<>();
+            for (DocumentSnapshot doc : snapshot.getDocuments()) {
+                if (!EmbeddedSessions.isEmbedded(doc)) migrations.add(migrateWeekSessionsAsync(doc.getId()));
+            }
+            return FirestoreFutures.allOf(migrations).thenApply(List::size);
+        });
+    }
+
+    /**
+     * Move one week's session documents into its week document, in one transaction so a
+     * concurrent toggle or regeneration is either carried over or retried. Sessions with
+     * auto-generated ids get deterministic ones; the old ids are tombstoned for sync.
+     */
+    private CompletableFuture<List<PlannerTask>> migrateWeekSessionsAsync(String weekId) {
+        Firestore db = getFirestore();
+        DocumentReference ref = weekRef(db, weekId);
+        Query sessions = db.collection(PLANNER_TASKS_COLLECTION).whereEqualTo("plannerWeekId", weekId);
+        return completionJournal.flushAsync().thenCompose(v -> FirestoreFutures.toCompletable(db.runTransaction(FirestoreCostLedger.propagate(tx -> {
+            DocumentSnapshot stored = tx.get(ref).get();
+            if (!stored.exists()) return List.<PlannerTask>of();
+            if (EmbeddedSessions.isEmbedded(stored)) return EmbeddedSessions.decode(stored);
+            Map<String, Map<String, Object>> legacy = new LinkedHashMap<>();
+            for (DocumentSnapshot doc : tx.get(sessions).get().getDocuments()) legacy.put(doc.getId(), doc.getData());
+
+            List<PlannerTask> tasks = new ArrayList<>(legacy.size());
+            EmbeddedSessions.rekey(weekId, legacy).forEach((id, fields) -> tasks.add(DocumentCodecs.PLANNER_TASK.decode(id, fields)));
+            tasks.sort(EmbeddedSessions.ORDER);
+            String userId = stored.getString("userId");
+            AgendaBuckets.Edit agenda = AgendaBuckets.read(tx, db, replacedSessions(legacy, tasks));
+            FieldValue version = ChangeVersions.mark(tx, db, userId);
+            tx.update(ref, stamp(EmbeddedSessions.fields(tasks), version));
+            for (String id : legacy.keySet()) {
+                tx.delete(db.collection(PLANNER_TASKS_COLLECTION).document(id));
+                if (version != null) ChangeVersions.tombstone(tx, db, userId, PLANNER_TASKS_COLLECTION, id, version);
+            }
+            agenda.write();
+            System.out.println("📦 Migrating week " + weekId + " to embedded sessions (" + tasks.size() + ")");
+            return tasks;
+        }))));
+    }
+
+    /**
+     * Weeks written before deterministic ids carry auto-generated ids, which the point reads by
+     * userId_weekStart cannot find. Each one is moved under its deterministic id (see
+     * {@link #migrateLegacyPlannerWeekAsync}). Runs once per user per process; concurrent callers
+     * wait for the same run, and a failed run is retried by the next. Completes with the number
+     * of weeks this run moved.
+     */
+    private CompletableFuture<Integer> migrateLegacyPlannerWeeksAsync(String userId) {
+        CompletableFuture<Integer> migration = new CompletableFuture<>();
+        CompletableFuture<Integer> running = legacyWeekMigrations.putIfAbsent(userId, migration);
+        if (running != null) return running;
+        getPlannerWeeksByUserIdAsync(userId).thenCompose(weeks -> {
+            List<CompletableFuture<Void>> moves = new ArrayList<>();
+            for (PlannerWeek w : weeks) {
+                if (w.getWeekStartDate() == null || w.getId().equals(plannerWeekId(userId, w.getWeekStartDate()))) continue;
+                moves.add(migrateLegacyPlannerWeekAsync(userId, w.getId(), w.getWeekStartDate()));
+            }
+            return FirestoreFutures.allOf(moves).thenApply(done -> moves.size());
+        }).whenComplete((moved, e) -> {
+            if (e == null) {
+                if (moved > 0) noteWrites(PLANNER_TASKS_COLLECTION, userId);
+                migration.complete(moved);
+                legacyWeekMigrations.replace(userId, migration, CompletableFuture.completedFuture(0));  // later misses need not re-read
+            } else {
+                legacyWeekMigrations.remove(userId, migration);
+                migration.completeExceptionally(e);
+            }
+        });
+        return migration;
+    }
+
+    /**
+     * Move one auto-id week under its deterministic id in one transaction. The week keeps its
+     * fields, createdAt included; its sessions get deterministic ids and keep completed and
+     * createdAt. If a week already exists under the new id, the legacy sessions are added to it in
+     * its layout, except ones it already holds (same reconciler key), which only pass on their
+     * completion. The old documents are deleted and leave tombstones.
+     */
+    private CompletableFuture<Void> migrateLegacyPlannerWeekAsync(String userId, String legacyId, LocalDate weekStartDate) {
         Firestore db = getFirestore();
-        Query query = db.collection(PLANNER_WEEKS_COLLECTION)
+        String weekId = plannerWeekId(userId, weekStartDate);
+        DocumentReference legacyRef = weekRef(db, legacyId);
+        DocumentReference targetRef = weekRef(db, weekId);
+        Query legacySessions = db.collection(PLANNER_TASKS_COLLECTION).whereEqualTo("plannerWeekId", legacyId);
+        Query targetSessions = db.collection(PLANNER_TASKS_COLLECTION).whereEqualTo("plannerWeekId", weekId);
+        return FirestoreFutures.toCompletable(db.runTransaction(FirestoreCostLedger.propagate(tx -> {
+            List<DocumentSnapshot> weeks = tx.getAll(legacyRef, targetRef).get();
+            DocumentSnapshot legacy = weeks.get(0);
+            DocumentSnapshot target = weeks.get(1);
+            if (!legacy.exists()) return null;  // moved by another node meanwhile
+
+            Map<String, Map<String, Object>> moved = new LinkedHashMap<>();
+            if (EmbeddedSessions.isEmbedded(legacy)) {
+                moved.putAll(EmbeddedSessions.entries(legacy));
+            } else {
+                for (DocumentSnapshot doc : tx.get(legacySessions).get().getDocuments()) moved.put(doc.getId(), doc.getData());
+            }
+            boolean embeddedTarget = EmbeddedSessions.isEmbedded(target);
+            Map<String, Map<String, Object>> stored = new LinkedHashMap<>();
+            if (embeddedTarget) {
+                stored.putAll(EmbeddedSessions.entries(target));
+            } else if (target.exists()) {
+                for (DocumentSnapshot doc : tx.get(targetSessions).get().getDocuments()) stored.put(doc.getId(), doc.getData());
+            }
+
+            Map<String, String> storedByKey = new HashMap<>();
+            stored.forEach((id, fields) -> storedByKey.putIfAbsent(PlannerWeekReconciler.key(fields), id));
+            Set<String> taken = new HashSet<>(stored.keySet());
+            Map<String, Map<String, Object>> added = new LinkedHashMap<>();
+            Set<String> completedMatches = new LinkedHashSet<>();
+            List<AgendaBuckets.Change> changes = new ArrayList<>();
+            for (Map.Entry<String, Map<String, Object>> e : moved.entrySet()) {
+                Map<String, Object> fields = new HashMap<>(e.getValue());
+                fields.put("plannerWeekId", weekId);
+                fields.put("userId", userId);
+                fields.remove(ChangeVersions.FIELD);
+                if (agendas) changes.add(new AgendaBuckets.Change(AgendaItem.SESSION, e.getKey(), e.getValue(), null));
+                String match = storedByKey.remove(PlannerWeekReconciler.key(fields));
+                if (match != null) {
+                    if (Boolean.TRUE.equals(fields.get("completed")) && !Boolean.TRUE.equals(stored.get(match).get("completed"))) {
+                        completedMatches.add(match);
+                        if (agendas) changes.add(new AgendaBuckets.Change(AgendaItem.SESSION, match, stored.get(match),
+                                AgendaBuckets.merged(stored.get(match), Map.of("completed", true))));
+                    }
+                    continue;
+                }
+                String id = PlannerWeekReconciler.newSessionId(weekId, fields, taken);
+                taken.add(id);
+                added.put(id, fields);
+                if (agendas) changes.add(new AgendaBuckets.Change(AgendaItem.SESSION, id, null, fields));
+            }
+
+            AgendaBuckets.Edit agenda = AgendaBuckets.read(tx, db, changes);
+            FieldValue version = ChangeVersions.mark(tx, db, userId);
+            if (embeddedTarget) {
+                Map<String, Map<String, Object>> sessions = new LinkedHashMap<>();
+                added.forEach((id, fields) -> {
+                    Map<String, Object> entry = new HashMap<>(fields);
+                    entry.remove("plannerWeekId");
+                    entry.remove("userId");
+                    sessions.put(id, entry);
+                });
+                completedMatches.forEach(id -> sessions.put(id, Map.of("completed", true)));
+                Map<String, Map<String, Object>> all = new LinkedHashMap<>(stored);
+                all.putAll(added);
+                EmbeddedSessions.update(tx, targetRef, sessions,
+                        Map.of(EmbeddedSessions.DEADLINE_IDS, EmbeddedSessions.deadlineIds(all)), version);
+            } else {
+                if (!target.exists()) {
+                    Map<String, Object> weekData = new HashMap<>(legacy.getData());
+                    weekData.remove(EmbeddedSessions.FIELD);
+                    weekData.remove(EmbeddedSessions.DEADLINE_IDS);
+                    tx.set(targetRef, stamp(weekData, version));
+                }
+                added.forEach((id, fields) -> tx.set(db.collection(PLANNER_TASKS_COLLECTION).document(id), stamp(fields, version)));
+                for (String id : completedMatches) {
+                    tx.update(db.collection(PLANNER_TASKS_COLLECTION).document(id), stamp(new HashMap<>(Map.of("completed", true)), version));
+                }
+            }
+            tx.delete(legacyRef);
+            if (!EmbeddedSessions.isEmbedded(legacy)) {
+                for (String id : moved.keySet()) tx.delete(db.collection(PLANNER_TASKS_COLLECTION).document(id));
+            }
+            if (version != null) {
+                ChangeVersions.tombstone(tx, db, userId, PLANNER_WEEKS_COLLECTION, legacyId, version);
+                for (String id : moved.keySet()) ChangeVersions.tombstone(tx, db, userId, PLANNER_TASKS_COLLECTION, id, version);
+            }
+            agenda.write();
+            System.out.println("🗓️ Moved legacy week " + legacyId + " to " + weekId + ": " + added.size() + " session(s) rekeyed, "
+                    + (moved.size() - added.size()) + " merged into existing ones");
+            return null;
+        })));
+    }
+
+    /**
+     * The week starting {@code weekStartDate}, by its deterministic id. A miss first moves the
+     * user's legacy auto-id weeks under their deterministic ids (once per process), so weeks
+     * saved before deterministic ids are still found.
+     */
+    public PlannerWeek getPlannerWeekByDate(String userId, LocalDate weekStartDate) throws ExecutionException, InterruptedException {
+        return getPlannerWeekByDateAsync(userId, weekStartDate).get();
+    }
+
+    public CompletableFuture<PlannerWeek> getPlannerWeekByDateAsync(String userId, LocalDate weekStartDate) {
+        DocumentReference docRef = getFirestore().collection(PLANNER_WEEKS_COLLECTION)
+                .document(plannerWeekId(userId, weekStartDate));
+        return FirestoreFutures.toCompletable(docRef.get()).thenCompose(doc -> {
+            if (doc.exists()) return CompletableFuture.completedFuture(DocumentCodecs.PLANNER_WEEK.decode(doc));
+            return migrateLegacyPlannerWeeksAsync(userId).thenCompose(moved -> moved > 0
+                    ? FirestoreFutures.toCompletable(docRef.get()).thenApply(DocumentCodecs.PLANNER_WEEK::decode)
+                    : CompletableFuture.completedFuture(null));
+        });
+    }
+
+    public List<PlannerWeek> getPlannerWeeksByUserId(String userId) throws ExecutionException, InterruptedException {
+        return getPlannerWeeksByUserIdAsync(userId).get();
+    }
+
+    public CompletableFuture<List<PlannerWeek>> getPlannerWeeksByUserIdAsync(String userId) {
+        Query query = getFirestore().collection(PLANNER_WEEKS_COLLECTION)
                 .whereEqualTo("userId", userId)
                 .orderBy("weekStartDate", Query.Direction.ASCENDING);
-        QuerySnapshot snapshot = query.get().get();
-        List<PlannerWeek> list = new ArrayList<>();
-        for (DocumentSnapshot doc : snapshot.getDocuments()) {
-            PlannerWeek w = mapToPlannerWeek(doc);
-            if (w != null) list.add(w);
-        }
-        return list;
+        return queryAsync(query, DocumentCodecs.PLANNER_WEEK::decode);
     }
 
     public void deletePlannerWeek(String weekId) throws ExecutionException, InterruptedException {
-        getFirestore().collection(PLANNER_WEEKS_COLLECTION).document(weekId).delete().get();
+        deletePlannerWeekAsync(weekId).get();
+    }
+
+    public CompletableFuture<Void> deletePlannerWeekAsync(String weekId) {
+        return delete(PLANNER_WEEKS_COLLECTION, weekId);
     }
 
     // ==================== PLANNER TASKS ====================
 
     public PlannerTask createPlannerTask(PlannerTask task) throws ExecutionException, InterruptedException {
-        Firestore db = getFirestore();
-        Map<String, Object> data = plannerTaskToMap(task);
-        DocumentReference docRef = db.collection(PLANNER_TASKS_COLLECTION).add(data).get();
-        task.setId(docRef.getId());
-        return task;
+        return createPlannerTaskAsync(task).get();
+    }
+
+    public CompletableFuture<PlannerTask> createPlannerTaskAsync(PlannerTask task) {
+        Map<String, Object> data = DocumentCodecs.PLANNER_TASK.encode(task);
+        return add(PLANNER_TASKS_COLLECTION, data).thenApply(docRef -> {
+            task.setId(docRef.getId());
+            return task;
+        });
     }
 
     public List<PlannerTask> getPlannerTasksByWeekId(String plannerWeekId) throws ExecutionException, InterruptedException {
-        Firestore db = getFirestore();
-        Query query = db.collection(PLANNER_TASKS_COLLECTION)
+        return getPlannerTasksByWeekIdAsync(plannerWeekId).get();
+    }
+
+    public CompletableFuture<List<PlannerTask>> getPlannerTasksByWeekIdAsync(String plannerWeekId) {
+        Query query = getFirestore().collection(PLANNER_TASKS_COLLECTION)
                 .whereEqualTo("plannerWeekId", plannerWeekId)
                 .orderBy("dueDate", Query.Direction.ASCENDING);
-        QuerySnapshot snapshot = query.get().get();
-        List<PlannerTask> list = new ArrayList<>();
-        for (DocumentSnapshot doc : snapshot.getDocuments()) {
-            PlannerTask t = mapToPlannerTask(doc);
-            if (t != null) list.add(t);
-        }
-        return list;
+        return queryAsync(query, DocumentCodecs.PLANNER_TASK::decode).thenApply(completionJournal::overlay);
     }
 
     public List<PlannerTask> getPlannerTasksForDate(String userId, LocalDate date) throws ExecutionException, InterruptedException {
-        Firestore db = getFirestore();
-        Instant startOfDay = date.atStartOfDay(ZoneId.systemDefault()).toInstant();
-        Instant endOfDay = date.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant();
-        Query query = db.collection(PLANNER_TASKS_COLLECTION)
+        return getPlannerTasksForDateAsync(userId, date).get();
+    }
+
+    /** Today's sessions are also kept as a plan snapshot (see PlanSnapshotStore). */
+    public CompletableFuture<List<PlannerTask>> getPlannerTasksForDateAsync(String userId, LocalDate date) {
+        if (!date.equals(LocalDate.now())) return loadPlannerTasksForDateAsync(userId, date);
+        return planSnapshots.read(userId, PlanSnapshotStore.Kind.TODAY, date, PlannerTask.class,
+                () -> loadPlannerTasksForDateAsync(userId, date)).thenApply(completionJournal::overlay);
+    }
+
+    private CompletableFuture<List<PlannerTask>> loadPlannerTasksForDateAsync(String userId, LocalDate date) {
+        if (agendas) {
+            return getAgendaAsync(userId, date).thenApply(items -> items.stream()
+                    .filter(item -> item.getSession() != null).map(AgendaItem::getSession).toList());
+        }
+        LocalDate weekStart = date.with(DayOfWeek.MONDAY);
+        if (embeddedSessions) {
+            return embeddedWeekSessionsAsync(plannerWeekId(userId, weekStart))
+                    .thenApply(tasks -> tasks.stream().filter(t -> date.equals(t.getDueDate())).toList())
+                    .thenApply(completionJournal::overlay);
+        }
+        if (!isCurrentWeek(weekStart)) {
+            return queryPlannerTasksForDateAsync(userId, date).thenApply(completionJournal::overlay);
+        }
+        return currentWeekTasks(userId, weekStart, () -> queryPlannerTasksForDateAsync(userId, date))
+                .thenApply(tasks -> tasks.stream().filter(t -> date.equals(t.getDueDate())).toList());
+    }
+
+    private CompletableFuture<List<PlannerTask>> queryPlannerTasksForDateAsync(String userId, LocalDate date) {
+        Timestamp startOfDay = DocumentCodecs.timestamp(date);
+        Timestamp endOfDay = DocumentCodecs.timestamp(date.plusDays(1));
+        Query query = getFirestore().collection(PLANNER_TASKS_COLLECTION)
                 .whereEqualTo("userId", userId)
-                .whereGreaterThanOrEqualTo("dueDate", Timestamp.of(java.sql.Timestamp.from(startOfDay)))
-                .whereLessThan("dueDate", Timestamp.of(java.sql.Timestamp.from(endOfDay)))
+                .whereGreaterThanOrEqualTo("dueDate", startOfDay)
+                .whereLessThan("dueDate", endOfDay)
                 .orderBy("dueDate", Query.Direction.ASCENDING);
-        QuerySnapshot snapshot = query.get().get();
-        List<PlannerTask> list = new ArrayList<>();
-        for (DocumentSnapshot doc : snapshot.getDocuments()) {
-            PlannerTask t = mapToPlannerTask(doc);
-            if (t != null) list.add(t);
-        }
-        return list;
+        return queryAsync(query, DocumentCodecs.PLANNER_TASK::decode);
     }
 
     public List<PlannerTask> getPlannerTasksForWeek(String userId, LocalDate weekStartDate) throws ExecutionException, InterruptedException {
-        PlannerWeek week = getPlannerWeekByDate(userId, weekStartDate);
-        if (week == null) return List.of();
-        return getPlannerTasksByWeekId(week.getId());
+        return getPlannerTasksForWeekAsync(userId, weekStartDate).get();
+    }
+
+    /** The current week's sessions are also kept as a plan snapshot (see PlanSnapshotStore). */
+    public CompletableFuture<List<PlannerTask>> getPlannerTasksForWeekAsync(String userId, LocalDate weekStartDate) {
+        if (!weekStartDate.equals(LocalDate.now().with(DayOfWeek.MONDAY))) return loadPlannerTasksForWeekAsync(userId, weekStartDate);
+        return planSnapshots.read(userId, PlanSnapshotStore.Kind.CURRENT_WEEK, weekStartDate, PlannerTask.class,
+                () -> loadPlannerTasksForWeekAsync(userId, weekStartDate)).thenApply(completionJournal::overlay);
+    }
+
+    private CompletableFuture<List<PlannerTask>> loadPlannerTasksForWeekAsync(String userId, LocalDate weekStartDate) {
+        if (embeddedSessions) {
+            return embeddedWeekSessionsAsync(plannerWeekId(userId, weekStartDate)).thenApply(completionJournal::overlay);
+        }
+        Supplier<CompletableFuture<List<PlannerTask>>> byWeekDoc = () -> getPlannerWeekByDateAsync(userId, weekStartDate)
+                .thenCompose(week -> week == null
+                        ? CompletableFuture.completedFuture(List.of())
+                        : getPlannerTasksByWeekIdAsync(week.getId()));
+        if (!isCurrentWeek(weekStartDate)) return byWeekDoc.get();  // overlaid by getPlannerTasksByWeekIdAsync
+        return currentWeekTasks(userId, weekStartDate, byWeekDoc);
+    }
+
+    public List<PlannerTask> getPlannerTasksForRange(String userId, LocalDate from, LocalDate to) throws ExecutionException, InterruptedException {
+        return getPlannerTasksForRangeAsync(userId, from, to).get();
+    }
+
+    /** All of a user's planner tasks due from {@code from} to {@code to} (both inclusive), as one dueDate range query. */
+    public CompletableFuture<List<PlannerTask>> getPlannerTasksForRangeAsync(String userId, LocalDate from, LocalDate to) {
+        CompletableFuture<List<PlannerTask>> tasks = embeddedSessions
+                ? embeddedSessionsInRangeAsync(userId, from, to)
+                : queryAsync(plannerTasksInRangeQuery(userId, from, to.plusDays(1)), DocumentCodecs.PLANNER_TASK::decode);
+        return tasks.thenApply(completionJournal::overlay);
+    }
+
+    /** The covering week documents in one batched read, trimmed to the range. */
+    private CompletableFuture<List<PlannerTask>> embeddedSessionsInRangeAsync(String userId, LocalDate from, LocalDate to) {
+        return embeddedSessionsOfWeeksAsync(weekIdsCovering(userId, from, to)).thenApply(all -> {
+            List<PlannerTask> inRange = new ArrayList<>(all.size());
+            for (PlannerTask t : all) {
+                LocalDate due = t.getDueDate();
+                if (due != null && !due.isBefore(from) && !due.isAfter(to)) inRange.add(t);
+            }
+            inRange.sort(EmbeddedSessions.ORDER);
+            return inRange;
+        });
+    }
+
+    /** The view holds Firestore state; pending completion toggles are overlaid on every read. */
+    private CompletableFuture<List<PlannerTask>> currentWeekTasks(String userId, LocalDate weekStart,
+            Supplier<CompletableFuture<List<PlannerTask>>> fallback) {
+        return materializedState.read(userId, MaterializedUserState.Kind.CURRENT_WEEK_TASKS, weekStart,
+                () -> plannerTasksInRangeQuery(userId, weekStart, weekStart.plusWeeks(1)),
+                snapshot -> decode(snapshot, DocumentCodecs.PLANNER_TASK::decode), fallback)
+                .thenApply(completionJournal::overlay);
+    }
+
+    private Query plannerTasksInRangeQuery(String userId, LocalDate from, LocalDate toExclusive) {
+        Timestamp start = DocumentCodecs.timestamp(from);
+        Timestamp end = DocumentCodecs.timestamp(toExclusive);
+        return getFirestore().collection(PLANNER_TASKS_COLLECTION)
+                .whereEqualTo("userId", userId)
+                .whereGreaterThanOrEqualTo("dueDate", start)
+                .whereLessThan("dueDate", end)
+                .orderBy("dueDate", Query.Direction.ASCENDING);
+    }
+
+    /** The view listens on the session collection, so it is bypassed for embedded sessions (already one read). */
+    private boolean isCurrentWeek(LocalDate weekStart) {
+        return !embeddedSessions && materializedState.isEnabled() && weekStart.equals(LocalDate.now().with(DayOfWeek.MONDAY));
     }
 
     public int getPlannerTaskCountForMonth(String userId, int year, int month) throws ExecutionException, InterruptedException {
+        return getPlannerTaskCountForMonthAsync(userId, year, month).get();
+    }
+
+    public CompletableFuture<Integer> getPlannerTaskCountForMonthAsync(String userId, int year, int month) {
         LocalDate monthStart = LocalDate.of(year, month, 1);
         LocalDate monthEnd = monthStart.plusMonths(1);
-        Instant start = monthStart.atStartOfDay(ZoneId.systemDefault()).toInstant();
-        Instant end = monthEnd.atStartOfDay(ZoneId.systemDefault()).toInstant();
-        Firestore db = getFirestore();
-        Query query = db.collection(PLANNER_TASKS_COLLECTION)
+        if (embeddedSessions) {
+            return embeddedSessionsInRangeAsync(userId, monthStart, monthEnd.minusDays(1)).thenApply(List::size);
+        }
+        Timestamp start = DocumentCodecs.timestamp(monthStart);
+        Timestamp end = DocumentCodecs.timestamp(monthEnd);
+        Query query = getFirestore().collection(PLANNER_TASKS_COLLECTION)
                 .whereEqualTo("userId", userId)
-                .whereGreaterThanOrEqualTo("dueDate", Timestamp.of(java.sql.Timestamp.from(start)))
-                .whereLessThan("dueDate", Timestamp.of(java.sql.Timestamp.from(end)));
-        return (int) query.get().get().size();
+                .whereGreaterThanOrEqualTo("dueDate", start)
+                .whereLessThan("dueDate", end);
+        return countAsync(query).thenApply(Long::intValue);
+    }
+
+    public WeeklySummary getPlannerWeekSummary(String userId, LocalDate weekStartDate, LocalDate today) throws ExecutionException, InterruptedException {
+        return getPlannerWeekSummaryAsync(userId, weekStartDate, today).get();
+    }
+
+    /** Total, completed and overdue session counts for a week, as three concurrent count queries. */
+    public CompletableFuture<WeeklySummary> getPlannerWeekSummaryAsync(String userId, LocalDate weekStartDate, LocalDate today) {
+        Query week = getFirestore().collection(PLANNER_TASKS_COLLECTION)
+                .whereEqualTo("plannerWeekId", plannerWeekId(userId, weekStartDate));
+        Timestamp startOfToday = DocumentCodecs.timestamp(today);
+        if (embeddedSessions) {
+            return completionJournal.flushAsync()
+                    .thenCompose(flushed -> embeddedWeekSessionsAsync(plannerWeekId(userId, weekStartDate)))
+                    .thenApply(tasks -> {
+                        int completed = 0;
+                        int overdue = 0;
+                        for (PlannerTask t : tasks) {
+                            if (t.isCompleted()) completed++;
+                            else if (t.getDueDate() != null && t.getDueDate().isBefore(today)) overdue++;
+                        }
+                        return new WeeklySummary(completed, tasks.size(), overdue);
+                    });
+        }
+        return completionJournal.flushAsync().thenCompose(flushed -> {
+            CompletableFuture<Long> total = countAsync(week);
+            CompletableFuture<Long> completed = countAsync(week.whereEqualTo("completed", true));
+            CompletableFuture<Long> overdue = countAsync(week
+                    .whereEqualTo("completed", false)
+                    .whereLessThan("dueDate", startOfToday));
+            return CompletableFuture.allOf(total, completed, overdue).thenApply(v ->
+                    new WeeklySummary(completed.join().intValue(), total.join().intValue(), overdue.join().intValue()));
+        });
     }
 
     public PlannerTask updatePlannerTask(String taskId, PlannerTask task) throws ExecutionException, InterruptedException {
-        Firestore db = getFirestore();
-        DocumentReference docRef = db.collection(PLANNER_TASKS_COLLECTION).document(taskId);
+        return updatePlannerTaskAsync(taskId, task).get();
+    }
+
+    public CompletableFuture<PlannerTask> updatePlannerTaskAsync(String taskId, PlannerTask task) {
         Map<String, Object> updates = new HashMap<>();
         if (task.getTitle() != null) updates.put("title", task.getTitle());
         if (task.getCourse() != null) updates.put("course", task.getCourse());
@@ -289,41 +1090,157 @@ public class FirestoreService {
         updates.put("completed", task.isCompleted());
         if (task.getStatus() != null) updates.put("status", task.getStatus());
         if (task.getDueDate() != null) {
-            updates.put("dueDate", Timestamp.of(java.sql.Timestamp.from(
-                    task.getDueDate().atStartOfDay(ZoneId.systemDefault()).toInstant())));
+            updates.put("dueDate", DocumentCodecs.timestamp(task.getDueDate()));
         }
-        docRef.update(updates).get();
-        task.setId(taskId);
-        return task;
+        CompletableFuture<Void> write = embeddedSessions
+                ? updateEmbeddedSessionAsync(taskId, updates).thenCompose(applied -> applied
+                        ? CompletableFuture.completedFuture(null)
+                        : update(PLANNER_TASKS_COLLECTION, taskId, updates))
+                : update(PLANNER_TASKS_COLLECTION, taskId, updates);
+        return write.thenApply(r -> {
+            task.setId(taskId);
+            return task;
+        });
+    }
+
+    /**
+     * Field-path update of an embedded session. False if the session is not embedded (its week
+     * is still in the per-task layout, or the id predates deterministic ids).
+     */
+    private CompletableFuture<Boolean> updateEmbeddedSessionAsync(String taskId, Map<String, Object> updates) {
+        String weekId = EmbeddedSessions.weekIdOf(taskId);
+        if (weekId == null) return CompletableFuture.completedFuture(false);
+        Firestore db = getFirestore();
+        DocumentReference ref = weekRef(db, weekId);
+        return FirestoreFutures.toCompletable(db.runTransaction(FirestoreCostLedger.propagate(tx -> {
+            DocumentSnapshot week = tx.get(ref).get();
+            if (!EmbeddedSessions.contains(week, taskId)) return null;
+            String userId = week.getString("userId");
+            Map<String, Object> before = EmbeddedSessions.entries(week).get(taskId);
+            AgendaBuckets.Edit agenda = AgendaBuckets.read(tx, db, agendaChange(PLANNER_TASKS_COLLECTION, taskId, before,
+                    AgendaBuckets.merged(before, updates)));
+            EmbeddedSessions.update(tx, ref, taskId, updates, ChangeVersions.mark(tx, db, userId));
+            agenda.write();
+            return userId;
+        }))).thenApply(userId -> {
+            if (userId == null) return false;
+            noteWrites(PLANNER_WEEKS_COLLECTION, userId);
+            return true;
+        });
     }
 
     public void deletePlannerTasksByWeekId(String plannerWeekId) throws ExecutionException, InterruptedException {
-        List<PlannerTask> tasks = getPlannerTasksByWeekId(plannerWeekId);
+        deletePlannerTasksByWeekIdAsync(plannerWeekId).get();
+    }
+
+    /** Deletes run concurrently once the week's tasks are known. */
+    public CompletableFuture<Void> deletePlannerTasksByWeekIdAsync(String plannerWeekId) {
+        return getPlannerTasksByWeekIdAsync(plannerWeekId).thenCompose(tasks -> {
+            List<CompletableFuture<Void>> deletes = new ArrayList<>(tasks.size());
+            for (PlannerTask t : tasks) {
+                deletes.add(delete(PLANNER_TASKS_COLLECTION, t.getId()));
+            }
+            return CompletableFuture.allOf(deletes.toArray(new CompletableFuture[0]));
+        });
+    }
+
+    // ==================== AGENDAS ====================
+
+    public List<AgendaItem> getAgenda(String userId, LocalDate date) throws ExecutionException, InterruptedException {
+        return getAgendaAsync(userId, date).get();
+    }
+
+    /**
+     * The day's planner sessions and tasks in agenda order: one point read once the day's agenda
+     * exists, otherwise it is built from the source collections first. Pending completion
+     * toggles are overlaid.
+     */
+    public CompletableFuture<List<AgendaItem>> getAgendaAsync(String userId, LocalDate date) {
+        DocumentReference ref = AgendaBuckets.ref(getFirestore(), userId, date);
+        return FirestoreFutures.toCompletable(ref.get())
+                .thenCompose(doc -> doc.exists()
+                        ? CompletableFuture.completedFuture(doc.getData())
+                        : buildAgendaAsync(userId, date))
+                .thenApply(data -> {
+                    List<AgendaItem> items = AgendaBuckets.decode(data);
+                    List<PlannerTask> sessions = items.stream().map(AgendaItem::getSession).filter(t -> t != null).toList();
+                    if (sessions.isEmpty()) return items;
+                    Iterator<PlannerTask> overlaid = completionJournal.overlay(sessions).iterator();
+                    List<AgendaItem> result = new ArrayList<>(items.size());
+                    for (AgendaItem item : items) result.add(item.getSession() != null ? AgendaItem.of(overlaid.next()) : item);
+                    return result;
+                });
+    }
+
+    /**
+     * Build a day's agenda from its sources, in a transaction that also reads the agenda document:
+     * writers touch that document too, so a write racing the build makes it retry.
+     */
+    private CompletableFuture<Map<String, Object>> buildAgendaAsync(String userId, LocalDate date) {
         Firestore db = getFirestore();
-        for (PlannerTask t : tasks) {
-            db.collection(PLANNER_TASKS_COLLECTION).document(t.getId()).delete().get();
-        }
+        DocumentReference ref = AgendaBuckets.ref(db, userId, date);
+        return FirestoreFutures.toCompletable(db.runTransaction(FirestoreCostLedger.propagate(tx -> {
+            DocumentSnapshot stored = tx.get(ref).get();
+            if (stored.exists()) return stored.getData();
+            Map<String, Map<String, Object>> sessions = new LinkedHashMap<>();
+            DocumentSnapshot week = embeddedSessions
+                    ? tx.get(weekRef(db, plannerWeekId(userId, date.with(DayOfWeek.MONDAY)))).get()
+                    : null;
+            if (week != null && EmbeddedSessions.isEmbedded(week)) {
+                EmbeddedSessions.entries(week).forEach((id, fields) -> {
+                    if (fields.get("dueDate") instanceof Timestamp ts && date.equals(DocumentCodecs.localDate(ts))) {
+                        sessions.put(id, fields);
+                    }
+                });
+            } else {
+                for (DocumentSnapshot doc : tx.get(plannerTasksInRangeQuery(userId, date, date.plusDays(1))).get().getDocuments()) {
+                    sessions.put(doc.getId(), doc.getData());
+                }
+            }
+            Map<String, Map<String, Object>> tasks = new LinkedHashMap<>();
+            for (DocumentSnapshot doc : tx.get(tasksForDateQuery(userId, date)).get().getDocuments()) {
+                tasks.put(doc.getId(), doc.getData());
+            }
+            Map<String, Object> data = AgendaBuckets.build(userId, date, sessions, tasks);
+            tx.create(ref, data);
+            return data;
+        })));
     }
 
     // ==================== SEMESTERS ====================
 
     public Semester createSemester(Semester semester) throws ExecutionException, InterruptedException {
-        Firestore db = getFirestore();
-        Map<String, Object> data = semesterToMap(semester);
-        DocumentReference docRef = db.collection(SEMESTERS_COLLECTION).add(data).get();
-        semester.setId(docRef.getId());
-        return semester;
+        return createSemesterAsync(semester).get();
+    }
+
+    public CompletableFuture<Semester> createSemesterAsync(Semester semester) {
+        Map<String, Object> data = DocumentCodecs.SEMESTER.encode(semester);
+        return add(SEMESTERS_COLLECTION, data).thenApply(docRef -> {
+            semester.setId(docRef.getId());
+            return semester;
+        }).whenComplete((r, e) -> userDataCache.semesters().invalidateUser(semester.getUserId()));
     }
 
     public List<Semester> getSemestersByUserId(String userId) throws ExecutionException, InterruptedException {
-        Firestore db = getFirestore();
-        Query query = db.collection(SEMESTERS_COLLECTION).whereEqualTo("userId", userId);
-        QuerySnapshot snapshot = query.get().get();
-        List<Semester> list = new ArrayList<>();
-        for (DocumentSnapshot doc : snapshot.getDocuments()) {
-            Semester s = mapToSemester(doc);
-            if (s != null) list.add(s);
-        }
+        return getSemestersByUserIdAsync(userId).get();
+    }
+
+    public CompletableFuture<List<Semester>> getSemestersByUserIdAsync(String userId) {
+        return materializedState.read(userId, MaterializedUserState.Kind.SEMESTERS, null,
+                () -> semestersQuery(userId), this::decodeSemesters,
+                () -> userDataCache.semesters().get(userId, this::querySemestersByUserIdAsync));
+    }
+
+    private CompletableFuture<List<Semester>> querySemestersByUserIdAsync(String userId) {
+        return FirestoreFutures.toCompletable(semestersQuery(userId).get()).thenApply(this::decodeSemesters);
+    }
+
+    private Query semestersQuery(String userId) {
+        return getFirestore().collection(SEMESTERS_COLLECTION).whereEqualTo("userId", userId);
+    }
+
+    private List<Semester> decodeSemesters(QuerySnapshot snapshot) {
+        List<Semester> list = decode(snapshot, DocumentCodecs.SEMESTER::decode);
         list.sort((a, b) -> {
             if (a.getCreatedAt() == null || b.getCreatedAt() == null) return 0;
             return b.getCreatedAt().compareTo(a.getCreatedAt());
@@ -332,131 +1249,241 @@ public class FirestoreService {
     }
 
     public Semester updateSemester(String semesterId, Semester semester) throws ExecutionException, InterruptedException {
-        Firestore db = getFirestore();
-        DocumentReference docRef = db.collection(SEMESTERS_COLLECTION).document(semesterId);
+        return updateSemesterAsync(semesterId, semester).get();
+    }
+
+    public CompletableFuture<Semester> updateSemesterAsync(String semesterId, Semester semester) {
         Map<String, Object> updates = new HashMap<>();
         if (semester.getSemesterName() != null) updates.put("semesterName", semester.getSemesterName());
-        if (semester.getStartDate() != null) updates.put("startDate", semester.getStartDate());
-        if (semester.getEndDate() != null) updates.put("endDate", semester.getEndDate());
+        if (semester.getStartDate() != null) {
+            updates.put("startDate", semester.getStartDate());
+            updates.put(DocumentCodecs.SEMESTER_STARTS_ON, DocumentCodecs.typedDateUpdate(semester.getStartDate()));
+        }
+        if (semester.getEndDate() != null) {
+            updates.put("endDate", semester.getEndDate());
+            updates.put(DocumentCodecs.SEMESTER_ENDS_ON, DocumentCodecs.typedDateUpdate(semester.getEndDate()));
+        }
         if (semester.getStudyMode() != null) updates.put("studyMode", semester.getStudyMode());
         if (semester.getRestDays() != null) updates.put("restDays", semester.getRestDays());
-        docRef.update(updates).get();
-        semester.setId(semesterId);
-        return semester;
+        return update(SEMESTERS_COLLECTION, semesterId, updates).thenApply(r -> {
+            semester.setId(semesterId);
+            return semester;
+        }).whenComplete((r, e) -> {
+            userDataCache.semesters().invalidateDoc(semesterId);
+            userDataCache.semesters().invalidateUser(semester.getUserId());
+        });
     }
 
     public void deleteSemester(String semesterId) throws ExecutionException, InterruptedException {
-        getFirestore().collection(SEMESTERS_COLLECTION).document(semesterId).delete().get();
+        deleteSemesterAsync(semesterId).get();
+    }
+
+    public CompletableFuture<Void> deleteSemesterAsync(String semesterId) {
+        return delete(SEMESTERS_COLLECTION, semesterId)
+                .whenComplete((r, e) -> userDataCache.semesters().invalidateDoc(semesterId));
     }
 
     // ==================== EXAMS ====================
 
     public Exam createExam(Exam exam) throws ExecutionException, InterruptedException {
-        Firestore db = getFirestore();
-        Map<String, Object> data = examToMap(exam);
-        DocumentReference docRef = db.collection(EXAMS_COLLECTION).add(data).get();
-        exam.setId(docRef.getId());
-        return exam;
+        return createExamAsync(exam).get();
+    }
+
+    public CompletableFuture<Exam> createExamAsync(Exam exam) {
+        Map<String, Object> data = DocumentCodecs.EXAM.encode(exam);
+        return add(EXAMS_COLLECTION, data).thenApply(docRef -> {
+            exam.setId(docRef.getId());
+            return exam;
+        });
     }
 
     public List<Exam> getExamsByUserId(String userId) throws ExecutionException, InterruptedException {
-        Firestore db = getFirestore();
-        Query query = db.collection(EXAMS_COLLECTION)
+        return getExamsByUserIdAsync(userId).get();
+    }
+
+    public CompletableFuture<List<Exam>> getExamsByUserIdAsync(String userId) {
+        return queryAsync(examsQuery(userId), DocumentCodecs.EXAM::decode);
+    }
+
+    public Page<Exam> getExamsByUserId(String userId, int pageSize, String pageToken) throws ExecutionException, InterruptedException {
+        return getExamsByUserIdAsync(userId, pageSize, pageToken).get();
+    }
+
+    public CompletableFuture<Page<Exam>> getExamsByUserIdAsync(String userId, int pageSize, String pageToken) {
+        return pageAsync(examsQuery(userId), "createdAt", Query.Direction.DESCENDING, pageSize, pageToken,
+                DocumentCodecs.EXAM::decode);
+    }
+
+    public List<Exam> getExamsBetween(String userId, LocalDate from, LocalDate to) throws ExecutionException, InterruptedException {
+        return getExamsBetweenAsync(userId, from, to).get();
+    }
+
+    /** Exams dated {@code from} to {@code to} (both inclusive), soonest first, via the typed examDate field. */
+    public CompletableFuture<List<Exam>> getExamsBetweenAsync(String userId, LocalDate from, LocalDate to) {
+        return queryAsync(typedDateRangeQuery(EXAMS_COLLECTION, DocumentCodecs.EXAM_DATE, userId, from, to),
+                DocumentCodecs.EXAM::decode);
+    }
+
+    private Query examsQuery(String userId) {
+        return getFirestore().collection(EXAMS_COLLECTION)
                 .whereEqualTo("userId", userId)
                 .orderBy("createdAt", Query.Direction.DESCENDING);
-        QuerySnapshot snapshot = query.get().get();
-        List<Exam> list = new ArrayList<>();
-        for (DocumentSnapshot doc : snapshot.getDocuments()) {
-            Exam e = mapToExam(doc);
-            if (e != null) list.add(e);
-        }
-        return list;
     }
 
     public Exam updateExam(String examId, Exam exam) throws ExecutionException, InterruptedException {
-        Firestore db = getFirestore();
-        DocumentReference docRef = db.collection(EXAMS_COLLECTION).document(examId);
+        return updateExamAsync(examId, exam).get();
+    }
+
+    public CompletableFuture<Exam> updateExamAsync(String examId, Exam exam) {
         Map<String, Object> updates = new HashMap<>();
         if (exam.getCourseName() != null) updates.put("courseName", exam.getCourseName());
         if (exam.getExamType() != null) updates.put("examType", exam.getExamType());
-        if (exam.getDate() != null) updates.put("date", exam.getDate());
+        if (exam.getDate() != null) {
+            updates.put("date", exam.getDate());
+            updates.put(DocumentCodecs.EXAM_DATE, DocumentCodecs.typedDateUpdate(exam.getDate()));
+        }
         if (exam.getWeightPercentage() != null) updates.put("weightPercentage", exam.getWeightPercentage());
-        docRef.update(updates).get();
-        exam.setId(examId);
-        return exam;
+        return update(EXAMS_COLLECTION, examId, updates).thenApply(r -> {
+            exam.setId(examId);
+            return exam;
+        });
     }
 
     public void deleteExam(String examId) throws ExecutionException, InterruptedException {
-        getFirestore().collection(EXAMS_COLLECTION).document(examId).delete().get();
+        deleteExamAsync(examId).get();
+    }
+
+    public CompletableFuture<Void> deleteExamAsync(String examId) {
+        return delete(EXAMS_COLLECTION, examId);
     }
 
     // ==================== ASSIGNMENTS ====================
 
     public Assignment createAssignment(Assignment assignment) throws ExecutionException, InterruptedException {
-        Firestore db = getFirestore();
-        Map<String, Object> data = assignmentToMap(assignment);
-        DocumentReference docRef = db.collection(ASSIGNMENTS_COLLECTION).add(data).get();
-        assignment.setId(docRef.getId());
-        return assignment;
+        return createAssignmentAsync(assignment).get();
+    }
+
+    public CompletableFuture<Assignment> createAssignmentAsync(Assignment assignment) {
+        Map<String, Object> data = DocumentCodecs.ASSIGNMENT.encode(assignment);
+        return add(ASSIGNMENTS_COLLECTION, data).thenApply(docRef -> {
+            assignment.setId(docRef.getId());
+            return assignment;
+        });
     }
 
     public List<Assignment> getAssignmentsByUserId(String userId) throws ExecutionException, InterruptedException {
-        Firestore db = getFirestore();
-        Query query = db.collection(ASSIGNMENTS_COLLECTION)
+        return getAssignmentsByUserIdAsync(userId).get();
+    }
+
+    public CompletableFuture<List<Assignment>> getAssignmentsByUserIdAsync(String userId) {
+        return queryAsync(assignmentsQuery(userId), DocumentCodecs.ASSIGNMENT::decode);
+    }
+
+    public Page<Assignment> getAssignmentsByUserId(String userId, int pageSize, String pageToken) throws ExecutionException, InterruptedException {
+        return getAssignmentsByUserIdAsync(userId, pageSize, pageToken).get();
+    }
+
+    public CompletableFuture<Page<Assignment>> getAssignmentsByUserIdAsync(String userId, int pageSize, String pageToken) {
+        return pageAsync(assignmentsQuery(userId), "createdAt", Query.Direction.DESCENDING, pageSize, pageToken,
+                DocumentCodecs.ASSIGNMENT::decode);
+    }
+
+    public List<Assignment> getAssignmentsDueBetween(String userId, LocalDate from, LocalDate to) throws ExecutionException, InterruptedException {
+        return getAssignmentsDueBetweenAsync(userId, from, to).get();
+    }
+
+    /** Assignments due {@code from} to {@code to} (both inclusive), soonest first, via the typed dueDate field. */
+    public CompletableFuture<List<Assignment>> getAssignmentsDueBetweenAsync(String userId, LocalDate from, LocalDate to) {
+        return queryAsync(typedDateRangeQuery(ASSIGNMENTS_COLLECTION, DocumentCodecs.ASSIGNMENT_DUE_DATE, userId, from, to),
+                DocumentCodecs.ASSIGNMENT::decode);
+    }
+
+    /**
+     * Documents whose typed date copy falls in {@code from}..{@code to}. Documents not yet
+     * backfilled by TypedDateMigration have no copy and are not matched.
+     */
+    private Query typedDateRangeQuery(String collection, String field, String userId, LocalDate from, LocalDate to) {
+        return getFirestore().collection(collection)
+                .whereEqualTo("userId", userId)
+                .whereGreaterThanOrEqualTo(field, DocumentCodecs.timestamp(from))
+                .whereLessThan(field, DocumentCodecs.timestamp(to.plusDays(1)))
+                .orderBy(field, Query.Direction.ASCENDING);
+    }
+
+    private Query assignmentsQuery(String userId) {
+        return getFirestore().collection(ASSIGNMENTS_COLLECTION)
                 .whereEqualTo("userId", userId)
                 .orderBy("createdAt", Query.Direction.DESCENDING);
-        QuerySnapshot snapshot = query.get().get();
-        List<Assignment> list = new ArrayList<>();
-        for (DocumentSnapshot doc : snapshot.getDocuments()) {
-            Assignment a = mapToAssignment(doc);
-            if (a != null) list.add(a);
-        }
-        return list;
     }
 
     public Assignment updateAssignment(String assignmentId, Assignment assignment) throws ExecutionException, InterruptedException {
-        Firestore db = getFirestore();
-        DocumentReference docRef = db.collection(ASSIGNMENTS_COLLECTION).document(assignmentId);
+        return updateAssignmentAsync(assignmentId, assignment).get();
+    }
+
+    public CompletableFuture<Assignment> updateAssignmentAsync(String assignmentId, Assignment assignment) {
         Map<String, Object> updates = new HashMap<>();
         if (assignment.getCourseName() != null) updates.put("courseName", assignment.getCourseName());
         if (assignment.getAssignmentName() != null) updates.put("assignmentName", assignment.getAssignmentName());
-        if (assignment.getDeadline() != null) updates.put("deadline", assignment.getDeadline());
+        if (assignment.getDeadline() != null) {
+            updates.put("deadline", assignment.getDeadline());
+            updates.put(DocumentCodecs.ASSIGNMENT_DUE_DATE, DocumentCodecs.typedDateUpdate(assignment.getDeadline()));
+        }
         if (assignment.getDifficulty() != null) updates.put("difficulty", assignment.getDifficulty());
         if (assignment.getType() != null) updates.put("type", assignment.getType());
-        docRef.update(updates).get();
-        assignment.setId(assignmentId);
-        return assignment;
+        return update(ASSIGNMENTS_COLLECTION, assignmentId, updates).thenApply(r -> {
+            assignment.setId(assignmentId);
+            return assignment;
+        });
     }
 
     public void deleteAssignment(String assignmentId) throws ExecutionException, InterruptedException {
-        getFirestore().collection(ASSIGNMENTS_COLLECTION).document(assignmentId).delete().get();
+        deleteAssignmentAsync(assignmentId).get();
+    }
+
+    public CompletableFuture<Void> deleteAssignmentAsync(String assignmentId) {
+        return delete(ASSIGNMENTS_COLLECTION, assignmentId);
     }
 
     // ==================== FOCUS PROFILES ====================
 
     public FocusProfile createFocusProfile(FocusProfile profile) throws ExecutionException, InterruptedException {
+        return createFocusProfileAsync(profile).get();
+    }
+
+    public CompletableFuture<FocusProfile> createFocusProfileAsync(FocusProfile profile) {
         if (profile.getUserId() == null || profile.getUserId().isEmpty()) {
             throw new IllegalArgumentException("FocusProfile userId is required for Firestore");
         }
         if (profile.getCreatedAt() == null) {
             profile.setCreatedAt(LocalDateTime.now());
         }
-        Firestore db = getFirestore();
-        Map<String, Object> data = focusProfileToMap(profile);
-        DocumentReference docRef = db.collection(FOCUS_PROFILES_COLLECTION).add(data).get();
-        profile.setId(docRef.getId());
-        return profile;
+        Map<String, Object> data = DocumentCodecs.FOCUS_PROFILE.encode(profile);
+        return add(FOCUS_PROFILES_COLLECTION, data).thenApply(docRef -> {
+            profile.setId(docRef.getId());
+            return profile;
+        }).whenComplete((r, e) -> userDataCache.focusProfiles().invalidateUser(profile.getUserId()));
     }
 
     public List<FocusProfile> getFocusProfilesByUserId(String userId) throws ExecutionException, InterruptedException {
-        Firestore db = getFirestore();
-        Query query = db.collection(FOCUS_PROFILES_COLLECTION).whereEqualTo("userId", userId);
-        QuerySnapshot snapshot = query.get().get();
-        List<FocusProfile> list = new ArrayList<>();
-        for (DocumentSnapshot doc : snapshot.getDocuments()) {
-            FocusProfile f = mapToFocusProfile(doc);
-            if (f != null) list.add(f);
-        }
+        return getFocusProfilesByUserIdAsync(userId).get();
+    }
+
+    public CompletableFuture<List<FocusProfile>> getFocusProfilesByUserIdAsync(String userId) {
+        return materializedState.read(userId, MaterializedUserState.Kind.FOCUS_PROFILES, null,
+                () -> focusProfilesQuery(userId), this::decodeFocusProfiles,
+                () -> userDataCache.focusProfiles().get(userId, this::queryFocusProfilesByUserIdAsync));
+    }
+
+    private CompletableFuture<List<FocusProfile>> queryFocusProfilesByUserIdAsync(String userId) {
+        return FirestoreFutures.toCompletable(focusProfilesQuery(userId).get()).thenApply(this::decodeFocusProfiles);
+    }
+
+    private Query focusProfilesQuery(String userId) {
+        return getFirestore().collection(FOCUS_PROFILES_COLLECTION).whereEqualTo("userId", userId);
+    }
+
+    private List<FocusProfile> decodeFocusProfiles(QuerySnapshot snapshot) {
+        List<FocusProfile> list = decode(snapshot, DocumentCodecs.FOCUS_PROFILE::decode);
         list.sort((a, b) -> {
             if (a.getCreatedAt() == null || b.getCreatedAt() == null) return 0;
             return b.getCreatedAt().compareTo(a.getCreatedAt());
@@ -465,354 +1492,513 @@ public class FirestoreService {
     }
 
     public FocusProfile updateFocusProfile(String profileId, FocusProfile profile) throws ExecutionException, InterruptedException {
-        Firestore db = getFirestore();
-        DocumentReference docRef = db.collection(FOCUS_PROFILES_COLLECTION).document(profileId);
+        return updateFocusProfileAsync(profileId, profile).get();
+    }
+
+    public CompletableFuture<FocusProfile> updateFocusProfileAsync(String profileId, FocusProfile profile) {
         Map<String, Object> updates = new HashMap<>();
         if (profile.getPeakFocusTimes() != null) updates.put("peakFocusTimes", profile.getPeakFocusTimes());
         if (profile.getLowEnergyTimes() != null) updates.put("lowEnergyTimes", profile.getLowEnergyTimes());
         if (profile.getTypicalStudyDuration() != null) updates.put("typicalStudyDuration", profile.getTypicalStudyDuration());
         if (updates.isEmpty()) {
-            return profile;
+            return CompletableFuture.completedFuture(profile);
         }
-        docRef.update(updates).get();
-        profile.setId(profileId);
-        return profile;
+        return update(FOCUS_PROFILES_COLLECTION, profileId, updates).thenApply(r -> {
+            profile.setId(profileId);
+            return profile;
+        }).whenComplete((r, e) -> {
+            userDataCache.focusProfiles().invalidateDoc(profileId);
+            userDataCache.focusProfiles().invalidateUser(profile.getUserId());
+        });
     }
 
     public void deleteFocusProfile(String profileId) throws ExecutionException, InterruptedException {
-        getFirestore().collection(FOCUS_PROFILES_COLLECTION).document(profileId).delete().get();
+        deleteFocusProfileAsync(profileId).get();
     }
 
-    // ==================== HELPERS ====================
+    public CompletableFuture<Void> deleteFocusProfileAsync(String profileId) {
+        return delete(FOCUS_PROFILES_COLLECTION, profileId)
+                .whenComplete((r, e) -> userDataCache.focusProfiles().invalidateDoc(profileId));
+    }
 
-    private Map<String, Object> taskToMap(Task task) {
-        Map<String, Object> map = new HashMap<>();
-        map.put("title", task.getTitle());
-        map.put("course", task.getCourse());
-        map.put("duration", task.getDuration());
-        map.put("completed", task.isCompleted());
-        map.put("userId", task.getUserId());
-        if (task.getDueDate() != null) {
-            map.put("dueDate", Timestamp.of(java.sql.Timestamp.from(
-                    task.getDueDate().atStartOfDay(ZoneId.systemDefault()).toInstant())));
-        }
-        if (task.getCreatedAt() != null) {
-            map.put("createdAt", Timestamp.of(java.sql.Timestamp.from(
-                    task.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant())));
-        }
-        return map;
-    }
-
-    private Task mapToTask(DocumentSnapshot doc) {
-        if (doc == null || !doc.exists()) return null;
-        Task task = new Task();
-        task.setId(doc.getId());
-        task.setTitle(doc.getString("title"));
-        task.setCourse(doc.getString("course"));
-        task.setDuration(doc.getString("duration"));
-        task.setCompleted(Boolean.TRUE.equals(doc.getBoolean("completed")));
-        task.setUserId(doc.getString("userId"));
-        Timestamp ts = doc.getTimestamp("dueDate");
-        if (ts != null) {
-            task.setDueDate(LocalDateTime.ofInstant(ts.toDate().toInstant(), ZoneId.systemDefault()).toLocalDate());
-        }
-        ts = doc.getTimestamp("createdAt");
-        if (ts != null) {
-            task.setCreatedAt(LocalDateTime.ofInstant(ts.toDate().toInstant(), ZoneId.systemDefault()));
-        }
-        return task;
-    }
-
-    private Map<String, Object> deadlineToMap(Deadline d) {
-        Map<String, Object> map = new HashMap<>();
-        map.put("title", d.getTitle());
-        map.put("course", d.getCourse());
-        map.put("type", d.getType());
-        map.put("userId", d.getUserId());
-        if (d.getDifficulty() != null) map.put("difficulty", d.getDifficulty());
-        if (d.getIsIndividual() != null) map.put("isIndividual", d.getIsIndividual());
-        if (d.getDueDate() != null) {
-            map.put("dueDate", Timestamp.of(java.sql.Timestamp.from(
-                    d.getDueDate().atStartOfDay(ZoneId.systemDefault()).toInstant())));
-        }
-        if (d.getCreatedAt() != null) {
-            map.put("createdAt", Timestamp.of(java.sql.Timestamp.from(
-                    d.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant())));
-        }
-        return map;
-    }
-
-    private Deadline mapToDeadline(DocumentSnapshot doc) {
-        if (doc == null || !doc.exists()) return null;
-        Deadline d = new Deadline();
-        d.setId(doc.getId());
-        d.setTitle(doc.getString("title"));
-        d.setCourse(doc.getString("course"));
-        d.setType(doc.getString("type"));
-        d.setUserId(doc.getString("userId"));
-        d.setDifficulty(doc.getString("difficulty"));
-        Boolean ind = doc.getBoolean("isIndividual");
-        d.setIsIndividual(ind != null ? ind : Boolean.TRUE);
-        Timestamp ts = doc.getTimestamp("dueDate");
-        if (ts != null) {
-            d.setDueDate(LocalDateTime.ofInstant(ts.toDate().toInstant(), ZoneId.systemDefault()).toLocalDate());
-        }
-        ts = doc.getTimestamp("createdAt");
-        if (ts != null) {
-            d.setCreatedAt(LocalDateTime.ofInstant(ts.toDate().toInstant(), ZoneId.systemDefault()));
-        }
-        return d;
-    }
-
-    private Map<String, Object> weeklyCheckInToMap(WeeklyCheckIn w) {
-        Map<String, Object> map = new HashMap<>();
-        map.put("userId", w.getUserId());
-        map.put("feedback", w.getFeedback());
-        map.put("availableStudyHoursNextWeek", w.getAvailableStudyHoursNextWeek());
-        if (w.getCreatedAt() != null) {
-            map.put("createdAt", Timestamp.of(java.sql.Timestamp.from(
-                    w.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant())));
-        }
-        return map;
-    }
-
-    private WeeklyCheckIn mapToWeeklyCheckIn(DocumentSnapshot doc) {
-        if (doc == null || !doc.exists()) return null;
-        WeeklyCheckIn w = new WeeklyCheckIn();
-        w.setId(doc.getId());
-        w.setUserId(doc.getString("userId"));
-        w.setFeedback(doc.getString("feedback"));
-        Long hours = doc.getLong("availableStudyHoursNextWeek");
-        w.setAvailableStudyHoursNextWeek(hours != null ? hours.intValue() : 0);
-        Timestamp ts = doc.getTimestamp("createdAt");
-        if (ts != null) {
-            w.setCreatedAt(LocalDateTime.ofInstant(ts.toDate().toInstant(), ZoneId.systemDefault()));
-        }
-        return w;
-    }
-
-    private Map<String, Object> plannerWeekToMap(PlannerWeek w) {
-        Map<String, Object> map = new HashMap<>();
-        map.put("userId", w.getUserId());
-        map.put("availableHours", w.getAvailableHours());
-        if (w.getWeekStartDate() != null) {
-            map.put("weekStartDate", Timestamp.of(java.sql.Timestamp.from(
-                    w.getWeekStartDate().atStartOfDay(ZoneId.systemDefault()).toInstant())));
-        }
-        if (w.getWeekEndDate() != null) {
-            map.put("weekEndDate", Timestamp.of(java.sql.Timestamp.from(
-                    w.getWeekEndDate().atStartOfDay(ZoneId.systemDefault()).toInstant())));
-        }
-        if (w.getCreatedAt() != null) {
-            map.put("createdAt", Timestamp.of(java.sql.Timestamp.from(
-                    w.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant())));
-        }
-        return map;
-    }
-
-    private PlannerWeek mapToPlannerWeek(DocumentSnapshot doc) {
-        if (doc == null || !doc.exists()) return null;
-        PlannerWeek w = new PlannerWeek();
-        w.setId(doc.getId());
-        w.setUserId(doc.getString("userId"));
-        Long hours = doc.getLong("availableHours");
-        w.setAvailableHours(hours != null ? hours.intValue() : 0);
-        Timestamp ts = doc.getTimestamp("weekStartDate");
-        if (ts != null) {
-            w.setWeekStartDate(LocalDateTime.ofInstant(ts.toDate().toInstant(), ZoneId.systemDefault()).toLocalDate());
-        }
-        ts = doc.getTimestamp("weekEndDate");
-        if (ts != null) {
-            w.setWeekEndDate(LocalDateTime.ofInstant(ts.toDate().toInstant(), ZoneId.systemDefault()).toLocalDate());
-        }
-        ts = doc.getTimestamp("createdAt");
-        if (ts != null) {
-            w.setCreatedAt(LocalDateTime.ofInstant(ts.toDate().toInstant(), ZoneId.systemDefault()));
-        }
-        return w;
-    }
-
-    private Map<String, Object> plannerTaskToMap(PlannerTask t) {
-        Map<String, Object> map = new HashMap<>();
-        map.put("plannerWeekId", t.getPlannerWeekId());
-        map.put("userId", t.getUserId());
-        map.put("title", t.getTitle());
-        map.put("course", t.getCourse());
-        map.put("duration", t.getDuration());
-        map.put("completed", t.isCompleted());
-        map.put("difficulty", t.getDifficulty());
-        if (t.getIsIndividual() != null) map.put("isIndividual", t.getIsIndividual());
-        map.put("status", t.getStatus());
-        if (t.getDueDate() != null) {
-            map.put("dueDate", Timestamp.of(java.sql.Timestamp.from(
-                    t.getDueDate().atStartOfDay(ZoneId.systemDefault()).toInstant())));
-        }
-        if (t.getScheduledStartTime() != null) {
-            map.put("scheduledStartTime", Timestamp.of(java.sql.Timestamp.from(
-                    t.getScheduledStartTime().atZone(ZoneId.systemDefault()).toInstant())));
-        }
-        if (t.getCreatedAt() != null) {
-            map.put("createdAt", Timestamp.of(java.sql.Timestamp.from(
-                    t.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant())));
-        }
-        return map;
-    }
-
-    private PlannerTask mapToPlannerTask(DocumentSnapshot doc) {
-        if (doc == null || !doc.exists()) return null;
-        PlannerTask t = new PlannerTask();
-        t.setId(doc.getId());
-        t.setPlannerWeekId(doc.getString("plannerWeekId"));
-        t.setUserId(doc.getString("userId"));
-        t.setTitle(doc.getString("title"));
-        t.setCourse(doc.getString("course"));
-        t.setDuration(doc.getString("duration"));
-        t.setCompleted(Boolean.TRUE.equals(doc.getBoolean("completed")));
-        t.setDifficulty(doc.getString("difficulty"));
-        Boolean ind = doc.getBoolean("isIndividual");
-        t.setIsIndividual(ind);  // null for exams (no Individual/Group); only set when stored
-        t.setStatus(doc.getString("status"));
-        Timestamp ts = doc.getTimestamp("dueDate");
-        if (ts != null) {
-            t.setDueDate(LocalDateTime.ofInstant(ts.toDate().toInstant(), ZoneId.systemDefault()).toLocalDate());
-        }
-        ts = doc.getTimestamp("scheduledStartTime");
-        if (ts != null) {
-            t.setScheduledStartTime(LocalDateTime.ofInstant(ts.toDate().toInstant(), ZoneId.systemDefault()));
-        }
-        ts = doc.getTimestamp("createdAt");
-        if (ts != null) {
-            t.setCreatedAt(LocalDateTime.ofInstant(ts.toDate().toInstant(), ZoneId.systemDefault()));
-        }
-        return t;
-    }
-
-    private Map<String, Object> semesterToMap(Semester s) {
-        Map<String, Object> map = new HashMap<>();
-        map.put("userId", s.getUserId());
-        if (s.getSemesterName() != null) map.put("semesterName", s.getSemesterName());
-        if (s.getStartDate() != null) map.put("startDate", s.getStartDate());
-        if (s.getEndDate() != null) map.put("endDate", s.getEndDate());
-        if (s.getStudyMode() != null) map.put("studyMode", s.getStudyMode());
-        if (s.getRestDays() != null) map.put("restDays", s.getRestDays());
-        if (s.getCreatedAt() != null) {
-            map.put("createdAt", Timestamp.of(java.sql.Timestamp.from(
-                    s.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant())));
-        }
-        return map;
-    }
-
-    private Semester mapToSemester(DocumentSnapshot doc) {
-        if (doc == null || !doc.exists()) return null;
-        Semester s = new Semester();
-        s.setId(doc.getId());
-        s.setUserId(doc.getString("userId"));
-        s.setSemesterName(doc.getString("semesterName"));
-        s.setStartDate(doc.getString("startDate"));
-        s.setEndDate(doc.getString("endDate"));
-        s.setStudyMode(doc.getString("studyMode"));
-        Object restDaysObj = doc.get("restDays");
-        List<String> restDays = restDaysObj != null ? (List<String>) restDaysObj : null;
-        s.setRestDays(restDays);
-        Timestamp ts = doc.getTimestamp("createdAt");
-        if (ts != null) {
-            s.setCreatedAt(LocalDateTime.ofInstant(ts.toDate().toInstant(), ZoneId.systemDefault()));
-        }
-        return s;
-    }
-
-    private Map<String, Object> examToMap(Exam e) {
-        Map<String, Object> map = new HashMap<>();
-        map.put("userId", e.getUserId());
-        if (e.getCourseName() != null) map.put("courseName", e.getCourseName());
-        if (e.getExamType() != null) map.put("examType", e.getExamType());
-        if (e.getDate() != null) map.put("date", e.getDate());
-        if (e.getWeightPercentage() != null) map.put("weightPercentage", e.getWeightPercentage());
-        if (e.getCreatedAt() != null) {
-            map.put("createdAt", Timestamp.of(java.sql.Timestamp.from(
-                    e.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant())));
-        }
-        return map;
-    }
-
-    private Exam mapToExam(DocumentSnapshot doc) {
-        if (doc == null || !doc.exists()) return null;
-        Exam e = new Exam();
-        e.setId(doc.getId());
-        e.setUserId(doc.getString("userId"));
-        e.setCourseName(doc.getString("courseName"));
-        e.setExamType(doc.getString("examType"));
-        e.setDate(doc.getString("date"));
-        Double weight = doc.getDouble("weightPercentage");
-        e.setWeightPercentage(weight);
-        Timestamp ts = doc.getTimestamp("createdAt");
-        if (ts != null) {
-            e.setCreatedAt(LocalDateTime.ofInstant(ts.toDate().toInstant(), ZoneId.systemDefault()));
-        }
-        return e;
-    }
-
-    private Map<String, Object> assignmentToMap(Assignment a) {
-        Map<String, Object> map = new HashMap<>();
-        map.put("userId", a.getUserId());
-        if (a.getCourseName() != null) map.put("courseName", a.getCourseName());
-        if (a.getAssignmentName() != null) map.put("assignmentName", a.getAssignmentName());
-        if (a.getDeadline() != null) map.put("deadline", a.getDeadline());
-        if (a.getDifficulty() != null) map.put("difficulty", a.getDifficulty());
-        if (a.getType() != null) map.put("type", a.getType());
-        if (a.getCreatedAt() != null) {
-            map.put("createdAt", Timestamp.of(java.sql.Timestamp.from(
-                    a.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant())));
-        }
-        return map;
-    }
-
-    private Assignment mapToAssignment(DocumentSnapshot doc) {
-        if (doc == null || !doc.exists()) return null;
-        Assignment a = new Assignment();
-        a.setId(doc.getId());
-        a.setUserId(doc.getString("userId"));
-        a.setCourseName(doc.getString("courseName"));
-        a.setAssignmentName(doc.getString("assignmentName"));
-        a.setDeadline(doc.getString("deadline"));
-        a.setDifficulty(doc.getString("difficulty"));
-        a.setType(doc.getString("type"));
-        Timestamp ts = doc.getTimestamp("createdAt");
-        if (ts != null) {
-            a.setCreatedAt(LocalDateTime.ofInstant(ts.toDate().toInstant(), ZoneId.systemDefault()));
-        }
-        return a;
-    }
-
-    private Map<String, Object> focusProfileToMap(FocusProfile f) {
-        Map<String, Object> map = new HashMap<>();
-        map.put("userId", f.getUserId());
-        if (f.getPeakFocusTimes() != null) map.put("peakFocusTimes", f.getPeakFocusTimes());
-        if (f.getLowEnergyTimes() != null) map.put("lowEnergyTimes", f.getLowEnergyTimes());
-        if (f.getTypicalStudyDuration() != null) map.put("typicalStudyDuration", f.getTypicalStudyDuration());
-        if (f.getCreatedAt() != null) {
-            map.put("createdAt", Timestamp.of(java.sql.Timestamp.from(
-                    f.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant())));
-        }
-        return map;
-    }
-
-    private FocusProfile mapToFocusProfile(DocumentSnapshot doc) {
-        if (doc == null || !doc.exists()) return null;
-        FocusProfile f = new FocusProfile();
-        f.setId(doc.getId());
-        f.setUserId(doc.getString("userId"));
-        Object peakObj = doc.get("peakFocusTimes");
-        List<String> peak = peakObj != null ? (List<String>) peakObj : null;
-        f.setPeakFocusTimes(peak);
-        Object lowObj = doc.get("lowEnergyTimes");
-        List<String> low = lowObj != null ? (List<String>) lowObj : null;
-        f.setLowEnergyTimes(low);
-        f.setTypicalStudyDuration(doc.getString("typicalStudyDuration"));
-        Timestamp ts = doc.getTimestamp("createdAt");
-        if (ts != null) {
-            f.setCreatedAt(LocalDateTime.ofInstant(ts.toDate().toInstant(), ZoneId.systemDefault()));
-        }
-        return f;
+    // ==================== UPCOMING ====================
+
+    /** Rows read per collection per round trip while merging the upcoming feed. */
+    private static final int UPCOMING_PAGE_SIZE = 25;
+
+    private static final Comparator<UpcomingItem> UPCOMING_ORDER = Comparator
+            .comparing(UpcomingItem::getDueDate)
+            .thenComparing(UpcomingItem::getType)
+            .thenComparing(FirestoreService::upcomingId);
+
+    public List<UpcomingItem> getUpcoming(String userId, LocalDate from, LocalDate to, int limit) throws ExecutionException, InterruptedException {
+        return getUpcomingAsync(userId, from, to, limit).get();
+    }
+
+    /**
+     * Deadlines, exams and assignments due from {@code from} to {@code to} (both inclusive),
+     * soonest first, at most {@code limit}. Each collection is a paged range query on its date
+     * field; the first pages are read in parallel and merged, and a collection's next page is
+     * read only once the merge has consumed its current one, so a feed that fills up or runs
+     * past {@code to} stops reading.
+     */
+    public CompletableFuture<List<UpcomingItem>> getUpcomingAsync(String userId, LocalDate from, LocalDate to, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, UPCOMING_PAGE_SIZE));
+        Query deadlines = getFirestore().collection(DEADLINES_COLLECTION)
+                .whereEqualTo("userId", userId)
+                .whereGreaterThanOrEqualTo("dueDate", DocumentCodecs.timestamp(from))
+                .whereLessThan("dueDate", DocumentCodecs.timestamp(to.plusDays(1)))
+                .orderBy("dueDate", Query.Direction.ASCENDING);
+        List<UpcomingSource> sources = List.of(
+                new UpcomingSource(deadlines, pageSize, doc -> UpcomingItem.of(DocumentCodecs.DEADLINE.decode(doc))),
+                new UpcomingSource(typedDateRangeQuery(EXAMS_COLLECTION, DocumentCodecs.EXAM_DATE, userId, from, to),
+                        pageSize, doc -> UpcomingItem.of(DocumentCodecs.EXAM.decode(doc))),
+                new UpcomingSource(typedDateRangeQuery(ASSIGNMENTS_COLLECTION, DocumentCodecs.ASSIGNMENT_DUE_DATE, userId, from, to),
+                        pageSize, doc -> UpcomingItem.of(DocumentCodecs.ASSIGNMENT.decode(doc))));
+        return mergeUpcoming(sources, new ArrayList<>(), limit);
+    }
+
+    private static CompletableFuture<List<UpcomingItem>> mergeUpcoming(List<UpcomingSource> sources, List<UpcomingItem> out, int limit) {
+        while (out.size() < limit) {
+            List<CompletableFuture<Void>> fetches = new ArrayList<>();
+            for (UpcomingSource source : sources) {
+                if (source.needsFetch()) fetches.add(source.fetch());
+            }
+            if (!fetches.isEmpty()) {
+                return FirestoreFutures.allOf(fetches).thenCompose(v -> mergeUpcoming(sources, out, limit));
+            }
+            UpcomingSource next = null;
+            for (UpcomingSource source : sources) {
+                UpcomingItem head = source.buffer.peek();
+                if (head != null && (next == null || UPCOMING_ORDER.compare(head, next.buffer.peek()) < 0)) next = source;
+            }
+            if (next == null) break;  // every collection exhausted
+            out.add(next.buffer.poll());
+        }
+        return CompletableFuture.completedFuture(out);
+    }
+
+    private static String upcomingId(UpcomingItem item) {
+        if (item.getDeadline() != null) return item.getDeadline().getId();
+        if (item.getExam() != null) return item.getExam().getId();
+        return item.getAssignment() != null ? item.getAssignment().getId() : "";
+    }
+
+    /** One collection's side of the merge: a query read page by page into a buffer. */
+    private static final class UpcomingSource {
+        private final Query query;
+        private final int pageSize;
+        private final Function<DocumentSnapshot, UpcomingItem> mapper;
+        private final ArrayDeque<UpcomingItem> buffer = new ArrayDeque<>();
+        private DocumentSnapshot last;
+        private boolean exhausted;
+
+        UpcomingSource(Query query, int pageSize, Function<DocumentSnapshot, UpcomingItem> mapper) {
+            this.query = query;
+            this.pageSize = pageSize;
+            this.mapper = mapper;
+        }
+
+        boolean needsFetch() {
+            return buffer.isEmpty() && !exhausted;
+        }
+
+        CompletableFuture<Void> fetch() {
+            Query page = (last != null ? query.startAfter(last) : query).limit(pageSize);
+            return FirestoreFutures.toCompletable(page.get()).thenAccept(snapshot -> {
+                List<QueryDocumentSnapshot> docs = snapshot.getDocuments();
+                for (DocumentSnapshot doc : docs) {
+                    UpcomingItem item = mapper.apply(doc);
+                    if (item != null && item.getDueDate() != null) buffer.add(item);
+                }
+                if (!docs.isEmpty()) last = docs.get(docs.size() - 1);
+                exhausted = docs.size() < pageSize;
+            });
+        }
+    }
+
+    // ==================== SYNC ====================
+
+    private static final Map<String, DocumentCodec<?>> SYNCED_COLLECTIONS = new LinkedHashMap<>();
+    static {
+        SYNCED_COLLECTIONS.put(TASKS_COLLECTION, DocumentCodecs.TASK);
+        SYNCED_COLLECTIONS.put(DEADLINES_COLLECTION, DocumentCodecs.DEADLINE);
+        SYNCED_COLLECTIONS.put(WEEKLY_CHECK_INS_COLLECTION, DocumentCodecs.WEEKLY_CHECK_IN);
+        SYNCED_COLLECTIONS.put(PLANNER_WEEKS_COLLECTION, DocumentCodecs.PLANNER_WEEK);
+        SYNCED_COLLECTIONS.put(PLANNER_TASKS_COLLECTION, DocumentCodecs.PLANNER_TASK);
+        SYNCED_COLLECTIONS.put(SEMESTERS_COLLECTION, DocumentCodecs.SEMESTER);
+        SYNCED_COLLECTIONS.put(EXAMS_COLLECTION, DocumentCodecs.EXAM);
+        SYNCED_COLLECTIONS.put(ASSIGNMENTS_COLLECTION, DocumentCodecs.ASSIGNMENT);
+        SYNCED_COLLECTIONS.put(FOCUS_PROFILES_COLLECTION, DocumentCodecs.FOCUS_PROFILE);
+    }
+
+    public SyncResponse getChangesSince(String userId, long since) throws ExecutionException, InterruptedException {
+        return getChangesSinceAsync(userId, since).get();
+    }
+
+    /**
+     * Everything the user created, updated or deleted after change version {@code since} (see
+     * ChangeVersions). The change marker is read first, so a client that is already current pays
+     * a single read. Otherwise the returned version is the earliest read time of the queries:
+     * every change committed up to it is in the response, and changes a later query already
+     * picked up are only sent again next time. Documents written before versioning existed, or
+     * stamped by the earlier counter scheme, carry no commit-time version, so clients bootstrap
+     * from the list endpoints and sync from there.
+     */
+    public CompletableFuture<SyncResponse> getChangesSinceAsync(String userId, long since) {
+        Firestore db = getFirestore();
+        return completionJournal.flushAsync()
+                .thenCompose(v -> FirestoreFutures.toCompletable(
+                        db.collection(ChangeVersions.COUNTERS_COLLECTION).document(userId).get()))
+                .thenCompose(marker -> {
+                    Timestamp changedAt = marker.exists() ? marker.getTimestamp(ChangeVersions.CHANGED_AT) : null;
+                    if (changedAt == null || ChangeVersions.toVersion(changedAt) <= since) {
+                        return CompletableFuture.completedFuture(new SyncResponse(since, Map.of(), List.of()));
+                    }
+                    Timestamp after = ChangeVersions.fromVersion(since);
+                    List<Timestamp> readTimes = Collections.synchronizedList(new ArrayList<>());
+                    Map<String, CompletableFuture<? extends List<?>>> changed = new LinkedHashMap<>();
+                    SYNCED_COLLECTIONS.forEach((collection, codec) ->
+                            changed.put(collection, changedSinceAsync(db, collection, codec, userId, after, readTimes)));
+                    CompletableFuture<List<SyncResponse.Tombstone>> deleted = FirestoreFutures.toCompletable(
+                            versionedSince(db, ChangeVersions.TOMBSTONES_COLLECTION, userId, after).get())
+                            .thenApply(snapshot -> {
+                                readTimes.add(snapshot.getReadTime());
+                                return decode(snapshot, doc -> new SyncResponse.Tombstone(doc.getString("collection"), doc.getString("docId")));
+                            });
+                    List<CompletableFuture<?>> all = new ArrayList<>(changed.values());
+                    all.add(deleted);
+                    // Embedded sessions travel inside their week; send them as plannerTasks all the same.
+                    CompletableFuture<List<PlannerTask>> embedded = embeddedSessions
+                            ? FirestoreFutures.toCompletable(versionedSince(db, PLANNER_WEEKS_COLLECTION, userId, after).get())
+                                    .thenApply(weeks -> {
+                                        readTimes.add(weeks.getReadTime());
+                                        List<PlannerTask> sessions = new ArrayList<>();
+                                        for (DocumentSnapshot week : weeks.getDocuments()) sessions.addAll(EmbeddedSessions.decode(week));
+                                        return completionJournal.overlay(sessions);
+                                    })
+                            : CompletableFuture.completedFuture(List.of());
+                    all.add(embedded);
+                    return CompletableFuture.allOf(all.toArray(new CompletableFuture[0])).thenApply(x -> {
+                        Map<String, List<?>> changes = new LinkedHashMap<>();
+                        changed.forEach((collection, items) -> {
+                            List<?> list = items.join();
+                            if (PLANNER_TASKS_COLLECTION.equals(collection) && !embedded.join().isEmpty()) {
+                                List<Object> merged = new ArrayList<>(list);
+                                merged.addAll(embedded.join());
+                                list = merged;
+                            }
+                            if (!list.isEmpty()) changes.put(collection, list);
+                        });
+                        Timestamp covered = Collections.min(readTimes);
+                        return new SyncResponse(Math.max(since, ChangeVersions.toVersion(covered)), changes, deleted.join());
+                    });
+                });
+    }
+
+    private <T> CompletableFuture<List<T>> changedSinceAsync(Firestore db, String collection, DocumentCodec<T> codec,
+            String userId, Timestamp after, List<Timestamp> readTimes) {
+        CompletableFuture<List<T>> items = FirestoreFutures.toCompletable(versionedSince(db, collection, userId, after).get())
+                .thenApply(snapshot -> {
+                    readTimes.add(snapshot.getReadTime());
+                    return decode(snapshot, codec::decode);
+                });
+        if (!PLANNER_TASKS_COLLECTION.equals(collection)) return items;
+        @SuppressWarnings("unchecked")
+        CompletableFuture<List<T>> overlaid = (CompletableFuture<List<T>>) (CompletableFuture<?>)
+                ((CompletableFuture<List<PlannerTask>>) (CompletableFuture<?>) items).thenApply(completionJournal::overlay);
+        return overlaid;
+    }
+
+    private static Query versionedSince(Firestore db, String collection, String userId, Timestamp after) {
+        return db.collection(collection)
+                .whereEqualTo("userId", userId)
+                .whereGreaterThan(ChangeVersions.FIELD, after)
+                .orderBy(ChangeVersions.FIELD, Query.Direction.ASCENDING);
+    }
+
+    // ==================== ASYNC PRIMITIVES ====================
+
+    private <T> CompletableFuture<List<T>> queryAsync(Query query, Function<DocumentSnapshot, T> mapper) {
+        return FirestoreFutures.toCompletable(query.get()).thenApply(snapshot -> decode(snapshot, mapper));
+    }
+
+    /**
+     * Keyset pagination over {@code query}, which must be ordered by the Timestamp field
+     * {@code orderField} alone. The document id breaks ties so documents sharing a timestamp are
+     * never skipped or repeated; the token encodes the last (timestamp, id) pair returned.
+     * One extra document is fetched to tell whether another page exists.
+     *
+     * @throws IllegalArgumentException if {@code pageToken} was not produced by this method
+     */
+    private <T> CompletableFuture<Page<T>> pageAsync(Query query, String orderField, Query.Direction direction,
+            int pageSize, String pageToken, Function<DocumentSnapshot, T> mapper) {
+        int size = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+        Query paged = query.orderBy(FieldPath.documentId(), direction);
+        if (pageToken != null && !pageToken.isBlank()) {
+            paged = paged.startAfter(decodePageToken(pageToken));
+        }
+        return FirestoreFutures.toCompletable(paged.limit(size + 1).get()).thenApply(snapshot -> {
+            List<QueryDocumentSnapshot> docs = snapshot.getDocuments();
+            int n = Math.min(docs.size(), size);
+            List<T> items = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                T item = mapper.apply(docs.get(i));
+                if (item != null) items.add(item);
+            }
+            String next = docs.size() > size ? encodePageToken(docs.get(n - 1), orderField) : null;
+            return new Page<>(items, next);
+        });
+    }
+
+    private static String encodePageToken(DocumentSnapshot last, String orderField) {
+        Timestamp ts = last.getTimestamp(orderField);
+        String raw = ts.getSeconds() + "." + ts.getNanos() + "." + last.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Object[] decodePageToken(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\.", 3);
+            Timestamp ts = Timestamp.ofTimeSecondsAndNanos(Long.parseLong(parts[0]), Integer.parseInt(parts[1]));
+            return new Object[] {ts, parts[2]};
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid page token", e);
+        }
+    }
+
+    /**
+     * Server-side count() aggregation: one round trip and no document payload. Stores without
+     * aggregation support (older emulators) set stayontrack.firestore.aggregation-queries=false,
+     * and a failing aggregation also falls back to counting a downloaded snapshot.
+     */
+    private CompletableFuture<Long> countAsync(Query query) {
+        if (!aggregationQueries) {
+            return FirestoreFutures.toCompletable(query.get()).thenApply(snapshot -> (long) snapshot.size());
+        }
+        return FirestoreFutures.toCompletable(query.count().get())
+                .thenApply(AggregateQuerySnapshot::getCount)
+                .exceptionallyCompose(e -> {
+                    System.err.println("⚠️ count() aggregation failed, counting documents instead: " + e.getMessage());
+                    return FirestoreFutures.toCompletable(query.get()).thenApply(snapshot -> (long) snapshot.size());
+                });
+    }
+
+    private <T> List<T> decode(QuerySnapshot snapshot, Function<DocumentSnapshot, T> mapper) {
+        List<T> list = new ArrayList<>(snapshot.size());
+        for (DocumentSnapshot doc : snapshot.getDocuments()) {
+            T item = mapper.apply(doc);
+            if (item != null) list.add(item);
+        }
+        return list;
+    }
+
+    /**
+     * After a committed write of {@code collection/docId} (null {@code written}: nothing was
+     * written): the materialized view and the user's plan snapshots must not serve older state.
+     */
+    private void noteWrite(String collection, String docId, WriteCoalescer.Written written, boolean deleted) {
+        if (written == null) return;
+        materializedState.noteWrite(collection, written.userId(), docId, written.before(), deleted);
+        planSnapshots.invalidateUser(written.userId());
+    }
+
+    /** After a committed write of any number of the user's documents in {@code collection}. */
+    private void noteWrites(String collection, String userId) {
+        materializedState.noteWrites(collection, userId);
+        planSnapshots.invalidateUser(userId);
+    }
+
+    private CompletableFuture<DocumentReference> add(String collection, Map<String, Object> data) {
+        DocumentReference docRef = getFirestore().collection(collection).document();
+        Supplier<CompletableFuture<WriteCoalescer.Written>> alone = () -> addAlone(collection, docRef, data);
+        return (writeCoalescer.isEnabled()
+                ? writeCoalescer.submit(WriteCoalescer.Kind.CREATE, collection, docRef, data, agendaChanges(collection, docRef.getId()), alone)
+                : alone.get())
+                .thenApply(written -> {
+                    noteWrite(collection, docRef.getId(), written, false);
+                    return docRef;
+                });
+    }
+
+    /**
+     * A write that feeds agendas runs in a transaction, which reads the agendas it changes. Any
+     * other create is one blind batch; any other update or delete reads the document and commits
+     * a batch conditioned on that version (see {@link #conditionally}).
+     */
+    private CompletableFuture<WriteCoalescer.Written> addAlone(String collection, DocumentReference docRef, Map<String, Object> data) {
+        Firestore db = getFirestore();
+        String userId = (String) data.get("userId");
+        List<AgendaBuckets.Change> changes = agendaChange(collection, docRef.getId(), null, new HashMap<>(data));
+        if (changes.isEmpty()) {
+            WriteBatch batch = db.batch();
+            batch.create(docRef, stamp(new HashMap<>(data), ChangeVersions.mark(batch, db, userId)));
+            return FirestoreFutures.toCompletable(batch.commit()).thenApply(results -> new WriteCoalescer.Written(userId, null));
+        }
+        return FirestoreFutures.toCompletable(db.runTransaction(FirestoreCostLedger.propagate(tx -> {
+            AgendaBuckets.Edit agenda = AgendaBuckets.read(tx, db, changes);
+            tx.create(docRef, stamp(new HashMap<>(data), ChangeVersions.mark(tx, db, userId)));
+            agenda.write();
+            return new WriteCoalescer.Written(userId, null);
+        })));
+    }
+
+    /** Fails with NOT_FOUND if the document does not exist, like a plain update. */
+    private CompletableFuture<Void> update(String collection, String docId, Map<String, Object> updates) {
+        DocumentReference docRef = getFirestore().collection(collection).document(docId);
+        Supplier<CompletableFuture<WriteCoalescer.Written>> alone = () -> updateAlone(collection, docRef, updates);
+        return (writeCoalescer.isEnabled()
+                ? writeCoalescer.submit(WriteCoalescer.Kind.UPDATE, collection, docRef, updates, agendaChanges(collection, docId), alone)
+                : alone.get())
+                .thenApply(written -> {
+                    noteWrite(collection, docId, written, false);
+                    return null;
+                });
+    }
+
+    private CompletableFuture<WriteCoalescer.Written> updateAlone(String collection, DocumentReference docRef, Map<String, Object> updates) {
+        Firestore db = getFirestore();
+        if (!feedsAgendas(collection)) {
+            return conditionally(docRef, (batch, current) -> {
+                String userId = current.getString("userId");
+                Map<String, Object> stamped = stamp(new HashMap<>(updates), ChangeVersions.mark(batch, db, userId));
+                if (current.exists()) {
+                    batch.update(docRef, stamped, Precondition.updatedAt(current.getUpdateTime()));
+                } else {
+                    batch.update(docRef, stamped);  // NOT_FOUND, like a plain update
+                }
+                return new WriteCoalescer.Written(userId, current.getUpdateTime());
+            });
+        }
+        return FirestoreFutures.toCompletable(db.runTransaction(FirestoreCostLedger.propagate(tx -> {
+            DocumentSnapshot current = tx.get(docRef).get();
+            String userId = current.getString("userId");
+            AgendaBuckets.Edit agenda = AgendaBuckets.read(tx, db, current.exists()
+                    ? agendaChange(collection, docRef.getId(), current.getData(), AgendaBuckets.merged(current.getData(), updates))
+                    : List.of());
+            tx.update(docRef, stamp(new HashMap<>(updates), ChangeVersions.mark(tx, db, userId)));
+            agenda.write();
+            return new WriteCoalescer.Written(userId, current.getUpdateTime());
+        })));
+    }
+
+    /** Deleting leaves a tombstone for delta sync; deleting a missing document is a no-op. */
+    private CompletableFuture<Void> delete(String collection, String docId) {
+        DocumentReference docRef = getFirestore().collection(collection).document(docId);
+        Supplier<CompletableFuture<WriteCoalescer.Written>> alone = () -> deleteAlone(collection, docRef);
+        return (writeCoalescer.isEnabled()
+                ? writeCoalescer.submit(WriteCoalescer.Kind.DELETE, collection, docRef, null, agendaChanges(collection, docId), alone)
+                : alone.get())
+                .thenApply(written -> {
+                    noteWrite(collection, docId, written, true);
+                    return null;
+                });
+    }
+
+    private CompletableFuture<WriteCoalescer.Written> deleteAlone(String collection, DocumentReference docRef) {
+        Firestore db = getFirestore();
+        if (!feedsAgendas(collection)) {
+            return conditionally(docRef, (batch, current) -> {
+                if (!current.exists()) return null;
+                String userId = current.getString("userId");
+                FieldValue version = ChangeVersions.mark(batch, db, userId);
+                batch.delete(docRef, Precondition.updatedAt(current.getUpdateTime()));
+                if (version != null) ChangeVersions.tombstone(batch, db, userId, collection, docRef.getId(), version);
+                return new WriteCoalescer.Written(userId, current.getUpdateTime());
+            });
+        }
+        return FirestoreFutures.toCompletable(db.runTransaction(FirestoreCostLedger.propagate(tx -> {
+            DocumentSnapshot current = tx.get(docRef).get();
+            if (!current.exists()) return null;
+            String userId = current.getString("userId");
+            AgendaBuckets.Edit agenda = AgendaBuckets.read(tx, db, agendaChange(collection, docRef.getId(), current.getData(), null));
+            FieldValue version = ChangeVersions.mark(tx, db, userId);
+            tx.delete(docRef);
+            if (version != null) ChangeVersions.tombstone(tx, db, userId, collection, docRef.getId(), version);
+            agenda.write();
+            return new WriteCoalescer.Written(userId, current.getUpdateTime());
+        })));
+    }
+
+    /** Writes {@code batch} given the document as read; null to commit nothing. */
+    @FunctionalInterface
+    private interface ConditionalWrite {
+        WriteCoalescer.Written write(WriteBatch batch, DocumentSnapshot current);
+    }
+
+    /**
+     * Read {@code docRef}, then commit the batch {@code write} builds from it. The writes carry an
+     * updatedAt precondition on the version read, so if another write gets in between the commit
+     * fails with FAILED_PRECONDITION and the whole attempt runs again, up to as many times as a
+     * transaction would.
+     */
+    private CompletableFuture<WriteCoalescer.Written> conditionally(DocumentReference docRef, ConditionalWrite write) {
+        return conditionally(docRef, write, CONDITIONAL_WRITE_ATTEMPTS);
+    }
+
+    private CompletableFuture<WriteCoalescer.Written> conditionally(DocumentReference docRef, ConditionalWrite write, int attempts) {
+        return FirestoreFutures.toCompletable(docRef.get()).thenCompose(current -> {
+            WriteBatch batch = getFirestore().batch();
+            WriteCoalescer.Written written = write.write(batch, current);
+            if (written == null) return CompletableFuture.<WriteCoalescer.Written>completedFuture(null);
+            return FirestoreFutures.toCompletable(batch.commit()).thenApply(results -> written);
+        }).exceptionallyCompose(e -> attempts > 1 && isStale(e)
+                ? conditionally(docRef, write, attempts - 1)
+                : CompletableFuture.failedFuture(e));
+    }
+
+    /** Whether {@code e} is Firestore refusing a write whose updatedAt precondition no longer holds. */
+    private static boolean isStale(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof ApiException api && api.getStatusCode().getCode() == StatusCode.Code.FAILED_PRECONDITION) return true;
+            if (t instanceof FirestoreException fe && fe.getStatus() != null
+                    && fe.getStatus().getCode() == Status.Code.FAILED_PRECONDITION) return true;
+        }
+        return false;
+    }
+
+    /** Whether writes to {@code collection} change agendas, and so need a transaction to read them. */
+    private boolean feedsAgendas(String collection) {
+        return agendas && AgendaBuckets.typeOf(collection) != null;
+    }
+
+    /** Agenda changes of writes to {@code collection/docId}, for a group commit to compute from what it reads. */
+    private WriteCoalescer.AgendaChanges agendaChanges(String collection, String docId) {
+        return (before, after) -> agendaChange(collection, docId, before, after);
+    }
+
+    /** Agenda change for one write to {@code collection}; none if agendas are off or it does not feed them. */
+    private List<AgendaBuckets.Change> agendaChange(String collection, String docId,
+            Map<String, Object> before, Map<String, Object> after) {
+        String type = agendas ? AgendaBuckets.typeOf(collection) : null;
+        return type == null ? List.of() : List.of(new AgendaBuckets.Change(type, docId, before, after));
+    }
+
+    /** Agenda changes for a reconciled week. */
+    private List<AgendaBuckets.Change> agendaChanges(Map<String, Map<String, Object>> existing, PlannerWeekReconciler.Plan plan) {
+        if (!agendas) return List.of();
+        List<AgendaBuckets.Change> changes = new ArrayList<>();
+        plan.inserts().forEach((id, data) -> changes.add(new AgendaBuckets.Change(AgendaItem.SESSION, id, null, new HashMap<>(data))));
+        plan.updates().forEach((id, data) -> changes.add(new AgendaBuckets.Change(AgendaItem.SESSION, id, existing.get(id),
+                AgendaBuckets.merged(existing.get(id), data))));
+        for (String id : plan.deletes()) changes.add(new AgendaBuckets.Change(AgendaItem.SESSION, id, existing.get(id), null));
+        return changes;
+    }
+
+    /** Agenda changes replacing every session in {@code before} (id -> stored fields) with {@code after}. */
+    private List<AgendaBuckets.Change> replacedSessions(Map<String, Map<String, Object>> before, List<PlannerTask> after) {
+        if (!agendas) return List.of();
+        List<AgendaBuckets.Change> changes = new ArrayList<>();
+        before.forEach((id, fields) -> changes.add(new AgendaBuckets.Change(AgendaItem.SESSION, id, fields, null)));
+        for (PlannerTask t : after) {
+            changes.add(new AgendaBuckets.Change(AgendaItem.SESSION, t.getId(), null, DocumentCodecs.PLANNER_TASK.encode(t)));
+        }
+        return changes;
+    }
+
+    private static Map<String, Object> stamp(Map<String, Object> data, FieldValue version) {
+        if (version != null) data.put(ChangeVersions.FIELD, version);
+        return data;
     }
 }
@@ -0,0 +1,168 @@
+package com.stayontrack.service;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Circuit breakers for GeminiClient, one per use (see GeminiClient.Call): task extraction and the
+ * planner have different timeouts and fallbacks, so one going bad must not refuse the other's
+ * calls. A circuit counts a call as slow once it took slow-call-percent % of its use's timeout.
+ *
+ * Closed, a circuit keeps the outcome of the last window calls and opens once at least
+ * minimum-calls have been seen and the share of failures (transport errors, 429 and 5xx) or of
+ * slow calls reaches its threshold. Open, every call is refused, so callers go straight to their
+ * fallbacks. After open-for it lets half-open-calls trial calls through: all succeeding closes
+ * it, any failing or slow one opens it again.
+ *
+ * Transitions are counted in stayontrack.ai.gemini.circuit.transitions{use,from,to}; the current
+ * state is the stayontrack.ai.gemini.circuit.state{use} gauge (0 closed, 1 open, 2 half-open).
+ */
+@Component
+public class GeminiCircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final MeterRegistry meterRegistry;
+    private final int window;
+    private final int minimumCalls;
+    private final double failureRate;
+    private final double slowCallRate;
+    private final double slowCallShare;
+    private final long openForNanos;
+    private final int halfOpenCalls;
+    private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+    public GeminiCircuitBreaker(MeterRegistry meterRegistry,
+            @Value("${stayontrack.ai.gemini.circuit.window:20}") int window,
+            @Value("${stayontrack.ai.gemini.circuit.minimum-calls:5}") int minimumCalls,
+            @Value("${stayontrack.ai.gemini.circuit.failure-rate:50}") double failureRatePercent,
+            @Value("${stayontrack.ai.gemini.circuit.slow-call-rate:80}") double slowCallRatePercent,
+            @Value("${stayontrack.ai.gemini.circuit.slow-call-percent:66}") double slowCallPercentOfTimeout,
+            @Value("${stayontrack.ai.gemini.circuit.open-for:30s}") Duration openFor,
+            @Value("${stayontrack.ai.gemini.circuit.half-open-calls:2}") int halfOpenCalls) {
+        this.meterRegistry = meterRegistry;
+        this.window = Math.max(1, window);
+        this.minimumCalls = Math.max(1, Math.min(minimumCalls, this.window));
+        this.failureRate = failureRatePercent / 100.0;
+        this.slowCallRate = slowCallRatePercent / 100.0;
+        this.slowCallShare = slowCallPercentOfTimeout / 100.0;
+        this.openForNanos = openFor.toNanos();
+        this.halfOpenCalls = Math.max(1, halfOpenCalls);
+    }
+
+    /** The circuit of {@code use}, whose calls time out after {@code timeout}. */
+    Circuit circuit(String use, Duration timeout) {
+        return circuits.computeIfAbsent(use, u -> new Circuit(u, (long) (timeout.toNanos() * slowCallShare)));
+    }
+
+    /** Current state of {@code use}'s circuit; closed if it has not made a call yet. */
+    public State state(String use) {
+        Circuit circuit = circuits.get(use);
+        return circuit != null ? circuit.state() : State.CLOSED;
+    }
+
+    final class Circuit {
+        private final String use;
+        private final long slowCallNanos;
+
+        /** Ring of the last calls' outcomes while closed. */
+        private final boolean[] failed = new boolean[window];
+        private final boolean[] slow = new boolean[window];
+        private int next;
+        private int recorded;
+        private int failures;
+        private int slowCalls;
+
+        private State state = State.CLOSED;
+        private long openedAt;
+        private int trialsLeft;
+        private int trialsPassed;
+
+        private Circuit(String use, long slowCallNanos) {
+            this.use = use;
+            this.slowCallNanos = slowCallNanos;
+            Gauge.builder("stayontrack.ai.gemini.circuit.state", this, circuit -> circuit.state().ordinal())
+                    .description("Gemini circuit breaker state: 0 closed, 1 open, 2 half-open")
+                    .tag("use", use)
+                    .register(meterRegistry);
+        }
+
+        synchronized State state() {
+            return state;
+        }
+
+        /** Whether a call may go out now. Every permitted call must be followed by {@link #record}. */
+        synchronized boolean tryAcquire() {
+            if (state == State.OPEN) {
+                if (System.nanoTime() - openedAt < openForNanos) return false;
+                transition(State.HALF_OPEN);
+            }
+            if (state == State.HALF_OPEN) {
+                if (trialsLeft == 0) return false;
+                trialsLeft--;
+            }
+            return true;
+        }
+
+        /** Outcome of a permitted call: whether it failed in a way that counts against Gemini, and how long it took. */
+        synchronized void record(boolean failure, long elapsedNanos) {
+            boolean tooSlow = elapsedNanos > slowCallNanos;
+            switch (state) {
+                case HALF_OPEN -> {
+                    if (failure || tooSlow) {
+                        transition(State.OPEN);
+                    } else if (++trialsPassed >= halfOpenCalls) {
+                        transition(State.CLOSED);
+                    }
+                }
+                case CLOSED -> {
+                    if (recorded == failed.length) {
+                        if (failed[next]) failures--;
+                        if (slow[next]) slowCalls--;
+                    } else {
+                        recorded++;
+                    }
+                    failed[next] = failure;
+                    slow[next] = tooSlow;
+                    if (failure) failures++;
+                    if (tooSlow) slowCalls++;
+                    next = (next + 1) % failed.length;
+                    if (recorded >= minimumCalls
+                            && (failures >= failureRate * recorded || slowCalls >= slowCallRate * recorded)) {
+                        transition(State.OPEN);
+                    }
+                }
+                case OPEN -> { }  // a call that started before the circuit opened
+            }
+        }
+
+        private void transition(State to) {
+            State from = state;
+            state = to;
+            switch (to) {
+                case OPEN -> openedAt = System.nanoTime();
+                case HALF_OPEN -> {
+                    trialsLeft = halfOpenCalls;
+                    trialsPassed = 0;
+                }
+                case CLOSED -> {
+                    next = 0;
+                    recorded = 0;
+                    failures = 0;
+                    slowCalls = 0;
+                }
+            }
+            meterRegistry.counter("stayontrack.ai.gemini.circuit.transitions",
+                    "use", use, "from", from.name().toLowerCase(), "to", to.name().toLowerCase()).increment();
+            System.out.println((to == State.OPEN ? "🔌 " : "🔁 ") + "Gemini " + use + " circuit " + from.name().toLowerCase()
+                    + " → " + to.name().toLowerCase());
+        }
+    }
+}
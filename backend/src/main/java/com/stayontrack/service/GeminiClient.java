@@ -0,0 +1,270 @@
+package com.stayontrack.service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * The one HTTP client for Gemini's generateContent API, shared by AIService and GeminiService.
+ *
+ * Built on the JDK HttpClient over HTTP/2: calls to the API host multiplex over one pooled,
+ * kept-alive TLS connection, so connection setup and the handshake are paid once per process
+ * (at startup, by {@link #warmUp()}) instead of on every call. Configuration lives under
+ * stayontrack.ai.gemini.*: the API key, base URL and default model, plus a default timeout that
+ * each call can override along with the model and generation settings (see {@link Call}).
+ *
+ * Every call goes through a bulkhead (at most max-concurrent in flight; others wait up to
+ * max-wait, then fail), the use's circuit in GeminiCircuitBreaker (which fails calls at once
+ * while Gemini is down or slow for that use) and bounded retries with jittered backoff for 429,
+ * transient 5xx and connection errors. A refused call throws GeminiException like a failed one,
+ * so callers fall back without waiting out the timeout. Outcomes are counted in
+ * stayontrack.ai.gemini.calls{use,outcome}, retries in stayontrack.ai.gemini.retries.
+ */
+@Component
+public class GeminiClient {
+
+    /**
+     * Per-call settings; null fields use the client's defaults (generation settings: the API's).
+     * {@code use} names the caller ("tasks", "planner"): each use has its own circuit breaker.
+     */
+    public record Call(String use, String model, Duration timeout, Double temperature, Integer maxOutputTokens) {}
+
+    /** A failed call: transport error, timeout, HTTP error status or an unusable response. */
+    public static class GeminiException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        GeminiException(String message, int status, Throwable cause) {
+            super(message, cause);
+            this.status = status;
+        }
+
+        /** HTTP status of the failed response, 0 if there was none. */
+        public int getStatus() {
+            return status;
+        }
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpClient http;
+    private final String apiKey;
+    private final String baseUrl;
+    private final String model;
+    private final Duration timeout;
+    private final GeminiCircuitBreaker breaker;
+    private final MeterRegistry meterRegistry;
+    private final Counter retries;
+    private final int maxAttempts;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+    private final int maxConcurrent;
+    private final Semaphore bulkhead;
+    private final Duration bulkheadWait;
+
+    public GeminiClient(GeminiCircuitBreaker breaker, MeterRegistry meterRegistry,
+            @Value("${stayontrack.ai.gemini.api-key:}") String apiKey,
+            @Value("${stayontrack.ai.gemini.base-url:https://generativelanguage.googleapis.com/v1beta}") String baseUrl,
+            @Value("${stayontrack.ai.gemini.model:gemini-flash-latest}") String model,
+            @Value("${stayontrack.ai.gemini.connect-timeout:10s}") Duration connectTimeout,
+            @Value("${stayontrack.ai.gemini.timeout:60s}") Duration timeout,
+            @Value("${stayontrack.ai.gemini.retry.max-attempts:3}") int maxAttempts,
+            @Value("${stayontrack.ai.gemini.retry.initial-backoff:250ms}") Duration initialBackoff,
+            @Value("${stayontrack.ai.gemini.retry.max-backoff:2s}") Duration maxBackoff,
+            @Value("${stayontrack.ai.gemini.bulkhead.max-concurrent:8}") int maxConcurrent,
+            @Value("${stayontrack.ai.gemini.bulkhead.max-wait:100ms}") Duration bulkheadWait) {
+        this.apiKey = apiKey;
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.model = model;
+        this.timeout = timeout;
+        this.breaker = breaker;
+        this.meterRegistry = meterRegistry;
+        this.retries = Counter.builder("stayontrack.ai.gemini.retries")
+                .description("Gemini calls retried after a retryable failure")
+                .register(meterRegistry);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.bulkhead = new Semaphore(this.maxConcurrent);
+        this.bulkheadWait = bulkheadWait;
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .build();
+    }
+
+    public boolean isAvailable() {
+        return apiKey != null && !apiKey.isBlank();
+    }
+
+    /** Open the pooled connection ahead of the first real call; failures only mean the first call pays for it. */
+    @PostConstruct
+    void warmUp() {
+        if (!isAvailable()) return;
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/models/" + model))
+                .header("x-goog-api-key", apiKey)
+                .timeout(timeout)
+                .GET()
+                .build();
+        http.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, e) -> {
+                    if (e != null) System.err.println("⚠️ Gemini connection warm-up failed: " + e.getMessage());
+                });
+    }
+
+    /** Send {@code prompt} and return the text of the first candidate. */
+    public String generate(String prompt, Call call) {
+        if (!isAvailable()) throw new GeminiException("API key missing (GOOGLE_AI_API_KEY not configured)", 0, null);
+        String body;
+        try {
+            body = objectMapper.writeValueAsString(requestBody(prompt, call));
+        } catch (IOException e) {
+            throw new GeminiException("Could not encode Gemini request: " + e.getMessage(), 0, e);
+        }
+        String use = call.use() != null ? call.use() : "default";
+        Duration callTimeout = call.timeout() != null ? call.timeout() : timeout;
+        GeminiCircuitBreaker.Circuit circuit = breaker.circuit(use, callTimeout);
+        HttpRequest request = HttpRequest.newBuilder(URI.create(
+                        baseUrl + "/models/" + (call.model() != null ? call.model() : model) + ":generateContent"))
+                .header("Content-Type", "application/json")
+                .header("x-goog-api-key", apiKey)  // not in the URL, so it stays out of logs
+                .timeout(callTimeout)
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+
+        boolean admitted;
+        try {
+            admitted = bulkhead.tryAcquire(bulkheadWait.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeminiException("Interrupted waiting for a Gemini call slot", 0, e);
+        }
+        if (!admitted) {
+            count(use, "rejected");
+            throw new GeminiException("Gemini bulkhead full (" + maxConcurrent + " calls in flight)", 0, null);
+        }
+        try {
+            for (int attempt = 1; ; attempt++) {
+                if (!circuit.tryAcquire()) {
+                    count(use, "short_circuited");
+                    throw new GeminiException("Gemini " + use + " circuit open; skipping the call", 0, null);
+                }
+                long start = System.nanoTime();
+                try {
+                    String text = send(request);
+                    circuit.record(false, System.nanoTime() - start);
+                    count(use, "success");
+                    return text;
+                } catch (GeminiException e) {
+                    circuit.record(countsAgainstGemini(e), System.nanoTime() - start);
+                    if (attempt >= maxAttempts || !retryable(e)) {
+                        count(use, "failure");
+                        throw e;
+                    }
+                    retries.increment();
+                    pause(backoff(attempt));
+                }
+            }
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    private String send(HttpRequest request) {
+        HttpResponse<String> response;
+        try {
+            response = http.send(request, HttpResponse.BodyHandlers.ofString());
+        } catch (IOException e) {
+            throw new GeminiException(e.getClass().getSimpleName() + ": " + e.getMessage(), 0, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeminiException("Interrupted waiting for Gemini", 0, e);
+        }
+        return text(response);
+    }
+
+    /** Quota, server and transport errors say Gemini is unwell; other 4xx and bad responses are about the request. */
+    private static boolean countsAgainstGemini(GeminiException e) {
+        int status = e.getStatus();
+        return status == 429 || status >= 500 || (status == 0 && e.getCause() instanceof IOException);
+    }
+
+    /** 429 and transient 5xx, plus connection failures; not timeouts, which already cost the caller a full wait. */
+    private static boolean retryable(GeminiException e) {
+        return switch (e.getStatus()) {
+            case 429, 500, 502, 503, 504 -> true;
+            case 0 -> e.getCause() instanceof IOException && !(e.getCause() instanceof HttpTimeoutException);
+            default -> false;
+        };
+    }
+
+    /** Exponential backoff with equal jitter: half the step fixed, half random, so retries from concurrent calls spread out. */
+    private long backoff(int attempt) {
+        long step = Math.min(maxBackoff.toNanos(), initialBackoff.toNanos() << Math.min(attempt - 1, 20));
+        return step / 2 + ThreadLocalRandom.current().nextLong(step / 2 + 1);
+    }
+
+    private static void pause(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeminiException("Interrupted before retrying Gemini", 0, e);
+        }
+    }
+
+    private void count(String use, String outcome) {
+        meterRegistry.counter("stayontrack.ai.gemini.calls", "use", use, "outcome", outcome).increment();
+    }
+
+    private static Map<String, Object> requestBody(String prompt, Call call) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("contents", List.of(Map.of("parts", List.of(Map.of("text", prompt)))));
+        Map<String, Object> generation = new LinkedHashMap<>();
+        if (call.temperature() != null) generation.put("temperature", call.temperature());
+        if (call.maxOutputTokens() != null) generation.put("maxOutputTokens", call.maxOutputTokens());
+        if (!generation.isEmpty()) body.put("generationConfig", generation);
+        return body;
+    }
+
+    private String text(HttpResponse<String> response) {
+        int status = response.statusCode();
+        JsonNode root;
+        try {
+            root = objectMapper.readTree(response.body() != null ? response.body() : "");
+        } catch (IOException e) {
+            throw new GeminiException("Gemini returned unreadable body (HTTP " + status + ")", status, e);
+        }
+        if (root == null || root.isMissingNode()) throw new GeminiException("Gemini returned empty body", status, null);
+        if (root.has("error")) {
+            throw new GeminiException(root.path("error").path("message").asText("Gemini API error"), status, null);
+        }
+        if (status / 100 != 2) throw new GeminiException("Gemini HTTP status " + status, status, null);
+        JsonNode candidates = root.path("candidates");
+        if (candidates.isEmpty()) throw new GeminiException("Gemini returned no candidates", status, null);
+        JsonNode parts = candidates.get(0).path("content").path("parts");
+        if (parts.isEmpty()) throw new GeminiException("No content in Gemini response", status, null);
+        return parts.get(0).path("text").asText();
+    }
+}
@@ -1,15 +1,12 @@
 package com.stayontrack.service;
 
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -22,15 +19,19 @@ import com.stayontrack.model.Deadline;
 @Service
 public class GeminiService {
 
-    private static final String GEMINI_URL = "https://generativelanguage.googleapis.com/v1beta/models/gemini-1.5-flash:generateContent";
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final RestTemplate restTemplate = new RestTemplate();
-
-    @Value("${google.ai.api-key:}")
-    private String apiKey;
+    private final GeminiClient gemini;
+    private final GeminiClient.Call plannerCall;
+
+    public GeminiService(GeminiClient gemini,
+            @Value("${stayontrack.ai.gemini.planner.model:}") String model,
+            @Value("${stayontrack.ai.gemini.planner.timeout:30s}") Duration timeout) {
+        this.gemini = gemini;
+        this.plannerCall = new GeminiClient.Call("planner", model.isBlank() ? null : model, timeout, 0.5, 2048);
+    }
 
     public boolean isAvailable() {
-        return apiKey != null && !apiKey.isBlank();
+        return gemini.isAvailable();
     }
 
     /**
@@ -108,31 +109,8 @@ public class GeminiService {
         return generateTaskSuggestionsForWeek(deadlines, availableHours, feedback, weekStart, null, null, null, null);
     }
 
-    private String callGemini(String prompt) throws Exception {
-        String url = GEMINI_URL + "?key=" + apiKey;
-        String body = objectMapper.writeValueAsString(java.util.Map.of(
-                "contents", List.of(java.util.Map.of(
-                        "parts", List.of(java.util.Map.of("text", prompt))
-                )),
-                "generationConfig", java.util.Map.of(
-                        "temperature", 0.5,
-                        "maxOutputTokens", 2048
-                )
-        ));
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        HttpEntity<String> entity = new HttpEntity<>(body, headers);
-        String response = restTemplate.postForObject(url, entity, String.class);
-
-        if (response == null) throw new RuntimeException("Empty Gemini response");
-
-        JsonNode root = objectMapper.readTree(response);
-        JsonNode candidates = root.path("candidates");
-        if (candidates.isEmpty()) throw new RuntimeException("No candidates in Gemini response");
-        JsonNode content = candidates.get(0).path("content").path("parts");
-        if (content.isEmpty()) throw new RuntimeException("No content in Gemini response");
-        return content.get(0).path("text").asText();
+    private String callGemini(String prompt) {
+        return gemini.generate(prompt, plannerCall);
     }
 
     private List<String> parseTimeSlottedSuggestions(String response) {
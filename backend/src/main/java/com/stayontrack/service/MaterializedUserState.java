@@ -0,0 +1,319 @@
+package com.stayontrack.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QuerySnapshot;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Optional listener-backed view of active users' hot documents (deadlines, semester,
+ * focus profile, current-week planner tasks). When enabled, FirestoreService serves those
+ * reads from the latest snapshot instead of issuing a query; changes made by other writers
+ * arrive through the listeners.
+ *
+ * Read-your-writes: every write through FirestoreService is recorded here once committed.
+ * A single-document write names the update time of the version it replaced (the Java client
+ * does not expose a transaction's commit time, but every transaction reads that version), and
+ * the view falls back to direct reads until its listener delivers the document newer than that,
+ * or without it for a delete. A view not caught up within catch-up, or that saw a write of
+ * documents not named one by one (a week regeneration, a cascade, a purge), re-attaches its
+ * listener on the next read; the new listener's first snapshot postdates the write.
+ *
+ * Listeners are detached after an idle timeout, and least-recently-used users are detached
+ * whenever the total number of materialized documents exceeds the configured budget.
+ */
+@Component
+public class MaterializedUserState {
+
+    public enum Kind {
+        DEADLINES("deadlines"),
+        SEMESTERS("semesters"),
+        FOCUS_PROFILES("focusProfiles"),
+        CURRENT_WEEK_TASKS("plannerTasks");
+
+        private final String collection;
+
+        Kind(String collection) {
+            this.collection = collection;
+        }
+
+        static Kind forCollection(String collection) {
+            for (Kind k : values()) {
+                if (k.collection.equals(collection)) return k;
+            }
+            return null;
+        }
+    }
+
+    private final boolean enabled;
+    private final long idleTimeoutMillis;
+    private final int maxDocuments;
+    private final long catchUpMillis;
+    private final Map<String, UserView> views = new ConcurrentHashMap<>();
+
+    public MaterializedUserState(
+            @Value("${stayontrack.firestore.listeners.enabled:false}") boolean enabled,
+            @Value("${stayontrack.firestore.listeners.idle-timeout:15m}") Duration idleTimeout,
+            @Value("${stayontrack.firestore.listeners.max-documents:50000}") int maxDocuments,
+            @Value("${stayontrack.firestore.listeners.catch-up:2s}") Duration catchUp) {
+        this.enabled = enabled;
+        this.idleTimeoutMillis = idleTimeout.toMillis();
+        this.maxDocuments = maxDocuments;
+        this.catchUpMillis = catchUp.toMillis();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Serve a read from the user's materialized view, attaching a listener on first use.
+     * {@code scope} distinguishes views of the same kind over different ranges (the week start
+     * for CURRENT_WEEK_TASKS); a scope change re-attaches the listener.
+     * Falls back to {@code fallback} when disabled, stale after an own write, or on listener error.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<List<T>> read(String userId, Kind kind, Object scope, Supplier<Query> query,
+            Function<QuerySnapshot, List<T>> decoder, Supplier<CompletableFuture<List<T>>> fallback) {
+        if (!enabled || userId == null) return fallback.get();
+
+        boolean[] created = {false};
+        UserView view = views.computeIfAbsent(userId, id -> {
+            created[0] = true;
+            return new UserView(id);
+        });
+        QueryView<T> qv = (QueryView<T>) view.attach(kind, scope, query, (Function) decoder);
+        if (created[0]) enforceBudget(view);
+        if (qv == null || qv.isStale()) return fallback.get();
+        return qv.firstSnapshot
+                .thenApply(v -> qv.documents)
+                .exceptionallyCompose(e -> fallback.get());
+    }
+
+    /**
+     * Record a committed write of {@code collection/docId}. {@code before} is the update time of
+     * the version it replaced, null if it created the document. {@code userId} may be null for
+     * updates/deletes by id; the doc is then matched against the ids currently materialized.
+     */
+    public void noteWrite(String collection, String userId, String docId, Timestamp before, boolean deleted) {
+        if (!enabled || docId == null) return;
+        Kind kind = Kind.forCollection(collection);
+        if (kind == null) return;
+        Expected expected = new Expected(before, deleted, System.currentTimeMillis());
+        if (userId != null) {
+            UserView view = views.get(userId);
+            if (view != null) view.expect(kind, docId, expected);
+            return;
+        }
+        for (UserView view : views.values()) {
+            if (view.contains(kind, docId)) view.expect(kind, docId, expected);
+        }
+    }
+
+    /** Record a committed write of any number of the user's documents in {@code collection}. */
+    public void noteWrites(String collection, String userId) {
+        if (!enabled || userId == null) return;
+        Kind kind = Kind.forCollection(collection);
+        UserView view = views.get(userId);
+        if (kind != null && view != null) view.invalidate(kind);
+    }
+
+    @Scheduled(fixedDelayString = "${stayontrack.firestore.listeners.sweep-interval-ms:60000}")
+    public void detachIdleUsers() {
+        if (!enabled) return;
+        long cutoff = System.currentTimeMillis() - idleTimeoutMillis;
+        for (UserView view : views.values()) {
+            if (view.lastAccess < cutoff) detach(view);
+        }
+    }
+
+    @PreDestroy
+    public void detachAll() {
+        for (UserView view : views.values()) detach(view);
+    }
+
+    private void enforceBudget(UserView keep) {
+        int total = 0;
+        for (UserView v : views.values()) total += v.documentCount();
+        if (total <= maxDocuments) return;
+        List<UserView> lru = new ArrayList<>(views.values());
+        lru.sort(Comparator.comparingLong(v -> v.lastAccess));
+        for (UserView v : lru) {
+            if (total <= maxDocuments) break;
+            if (v == keep) continue;
+            total -= v.documentCount();
+            detach(v);
+        }
+    }
+
+    private void detach(UserView view) {
+        views.remove(view.userId, view);
+        view.close();
+    }
+
+    private final class UserView {
+        private final String userId;
+        private final Map<Kind, QueryView<?>> queries = new EnumMap<>(Kind.class);
+        private volatile long lastAccess = System.currentTimeMillis();
+        private boolean closed;
+
+        UserView(String userId) {
+            this.userId = userId;
+        }
+
+        synchronized QueryView<?> attach(Kind kind, Object scope, Supplier<Query> query,
+                Function<QuerySnapshot, List<Object>> decoder) {
+            if (closed) return null;
+            lastAccess = System.currentTimeMillis();
+            QueryView<?> existing = queries.get(kind);
+            if (existing != null && !existing.failed && Objects.equals(existing.scope, scope)
+                    && !existing.needsReattach(catchUpMillis)) {
+                return existing;
+            }
+            if (existing != null) existing.close();
+            QueryView<Object> qv = new QueryView<>(scope, decoder);
+            qv.registration = query.get().addSnapshotListener((snapshot, error) -> {
+                if (error != null) {
+                    System.err.println("⚠️ Snapshot listener failed for " + userId + "/" + kind + ": " + error.getMessage());
+                    qv.fail(error);
+                    return;
+                }
+                if (snapshot != null) qv.apply(snapshot);
+            });
+            if (qv.failed) qv.close();  // listener failed before the registration was assigned
+            queries.put(kind, qv);
+            return qv;
+        }
+
+        synchronized void expect(Kind kind, String docId, Expected expected) {
+            QueryView<?> qv = queries.get(kind);
+            if (qv != null) qv.expect(docId, expected);
+        }
+
+        synchronized void invalidate(Kind kind) {
+            QueryView<?> qv = queries.get(kind);
+            if (qv != null) qv.invalidated = true;
+        }
+
+        synchronized boolean contains(Kind kind, String docId) {
+            QueryView<?> qv = queries.get(kind);
+            return qv != null && qv.updateTimes.containsKey(docId);
+        }
+
+        synchronized int documentCount() {
+            int n = 0;
+            for (QueryView<?> qv : queries.values()) n += qv.updateTimes.size();
+            return n;
+        }
+
+        synchronized void close() {
+            closed = true;
+            for (QueryView<?> qv : queries.values()) qv.close();
+            queries.clear();
+        }
+    }
+
+    /** A write the view must reflect before serving reads: see {@link #noteWrite}. */
+    private record Expected(Timestamp before, boolean deleted, long notedAt) {
+
+        /**
+         * Whether a view holding {@code current} (null: absent) shows this write. A document
+         * that is absent after an update either left the view's range ({@code removed}: the
+         * listener said so) or has not arrived yet.
+         */
+        boolean seenIn(Timestamp current, boolean removed) {
+            if (current != null) return before == null || current.compareTo(before) > 0;
+            return deleted || removed;
+        }
+
+        /** Both of two writes to one document: the later one (notes can arrive out of order), waiting since the first note. */
+        Expected and(Expected other) {
+            boolean later = other.before != null && (before == null || other.before.compareTo(before) > 0);
+            Expected latest = later ? other : this;
+            return new Expected(latest.before, latest.deleted, Math.min(notedAt, other.notedAt));
+        }
+    }
+
+    private static final class QueryView<T> {
+        private final Object scope;
+        private final Function<QuerySnapshot, List<T>> decoder;
+        private final CompletableFuture<Void> firstSnapshot = new CompletableFuture<>();
+        private volatile ListenerRegistration registration;
+        private volatile List<T> documents = List.of();
+        private volatile Map<String, Timestamp> updateTimes = Map.of();
+        private final Map<String, Expected> expected = new HashMap<>();
+        private volatile boolean invalidated;
+        private volatile boolean failed;
+
+        QueryView(Object scope, Function<QuerySnapshot, List<T>> decoder) {
+            this.scope = scope;
+            this.decoder = decoder;
+        }
+
+        synchronized void apply(QuerySnapshot snapshot) {
+            Map<String, Timestamp> times = new HashMap<>();
+            for (DocumentSnapshot doc : snapshot.getDocuments()) times.put(doc.getId(), doc.getUpdateTime());
+            Set<String> removed = new HashSet<>();
+            for (DocumentChange change : snapshot.getDocumentChanges()) {
+                if (change.getType() == DocumentChange.Type.REMOVED) removed.add(change.getDocument().getId());
+            }
+            documents = List.copyOf(decoder.apply(snapshot));
+            updateTimes = times;
+            expected.entrySet().removeIf(e -> e.getValue().seenIn(times.get(e.getKey()), removed.contains(e.getKey())));
+            firstSnapshot.complete(null);
+        }
+
+        void fail(Throwable error) {
+            failed = true;
+            firstSnapshot.completeExceptionally(error);
+            close();
+        }
+
+        /** The listener may already have delivered the write; otherwise wait for it. */
+        synchronized void expect(String docId, Expected write) {
+            if (write.seenIn(updateTimes.get(docId), false)) return;
+            expected.merge(docId, write, Expected::and);
+        }
+
+        synchronized boolean isStale() {
+            return invalidated || !expected.isEmpty();
+        }
+
+        /** Invalidated, or an expected write has not arrived within {@code catchUpMillis}. */
+        synchronized boolean needsReattach(long catchUpMillis) {
+            if (invalidated) return true;
+            long cutoff = System.currentTimeMillis() - catchUpMillis;
+            for (Expected write : expected.values()) {
+                if (write.notedAt() < cutoff) return true;
+            }
+            return false;
+        }
+
+        void close() {
+            if (registration != null) registration.remove();
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package com.stayontrack.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Per-user plan snapshots (today's sessions, the current week, deadlines) kept as JSON in a
+ * memory-mapped file, so they live off-heap and survive restarts. Reads are stale-while-revalidate:
+ * a snapshot younger than fresh-for is returned as is, an older one (up to max-stale) is returned
+ * while a background load from Firestore replaces it, and any snapshot at all is returned when
+ * that load fails, so a Firestore outage degrades to slightly old plans instead of errors.
+ *
+ * Every write through FirestoreService (and every journal flush) invalidates the writing user's
+ * snapshots; an invalidated snapshot is only served when Firestore cannot be reached.
+ *
+ * The file is an append-only log of records, each
+ * [length:int][crc:int][writtenAt:long][keyLength:int][key][value], committed by writing its
+ * length last. Only the key -> offset index is on the heap; it is rebuilt by scanning the file
+ * on startup, stopping at the first torn or corrupt record. When the file fills up it is
+ * compacted to the latest record per key, newest first. Snapshots are per node; with several
+ * nodes, ChangeMarkerListener evicts them on other nodes' writes. Off by default.
+ */
+@Component
+public class PlanSnapshotStore {
+
+    public enum Kind { TODAY, CURRENT_WEEK, DEADLINES }
+
+    private static final int MAGIC = 0x504c534e;  // "PLSN"
+    private static final int FILE_HEADER = 8;      // magic, format version
+    private static final int FORMAT_VERSION = 1;
+    private static final int RECORD_HEADER = 20;   // length, crc, writtenAt, keyLength
+    private static final int WRITTEN_AT_OFFSET = 8;
+
+    private final boolean enabled;
+    private final Path path;
+    private final int capacity;
+    private final long freshForMillis;
+    private final long maxStaleMillis;
+    private final ObjectMapper objectMapper;
+    private final Map<String, UserSnapshots> users = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<?>> refreshing = new ConcurrentHashMap<>();
+    private final Counter fresh;
+    private final Counter stale;
+    private final Counter miss;
+    private final Counter fallback;
+    private MappedByteBuffer region;
+    private int end;
+    /** Bumped when compaction drops users' entries, and with them generations in-flight loads hold. */
+    private long epoch;
+
+    /**
+     * A user's snapshot offsets, and a count of invalidations so loads racing a write are dropped.
+     * Users get one when they have snapshots or a load starts, not when they merely write.
+     */
+    private static final class UserSnapshots {
+        final Map<String, Integer> offsets = new HashMap<>();
+        long generation;
+    }
+
+    /** What a load saw when it started; it is stored only if both are unchanged. */
+    private record Generation(long epoch, long user) {}
+
+    private record Snapshot(byte[] value, long writtenAt) {}
+
+    public PlanSnapshotStore(ObjectMapper objectMapper, MeterRegistry meterRegistry,
+            @Value("${stayontrack.snapshots.enabled:false}") boolean enabled,
+            @Value("${stayontrack.snapshots.path:data/plan-snapshots.bin}") String path,
+            @Value("${stayontrack.snapshots.capacity-mb:64}") int capacityMb,
+            @Value("${stayontrack.snapshots.fresh-for:30s}") Duration freshFor,
+            @Value("${stayontrack.snapshots.max-stale:7d}") Duration maxStale) {
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.path = Path.of(path);
+        this.capacity = (int) Math.min(Integer.MAX_VALUE, Math.max(1, capacityMb) * 1024L * 1024L);
+        this.freshForMillis = freshFor.toMillis();
+        this.maxStaleMillis = maxStale.toMillis();
+        this.fresh = readCounter(meterRegistry, "fresh");
+        this.stale = readCounter(meterRegistry, "stale");
+        this.miss = readCounter(meterRegistry, "miss");
+        this.fallback = readCounter(meterRegistry, "fallback");
+    }
+
+    private static Counter readCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("stayontrack.snapshots.reads").tag("result", result).register(meterRegistry);
+    }
+
+    @PostConstruct
+    void open() throws IOException {
+        if (!enabled) return;
+        synchronized (this) {
+            boolean reuse = Files.exists(path) && Files.size(path) == capacity;
+            if (!reuse) {
+                Path dir = path.toAbsolutePath().getParent();
+                if (dir != null) Files.createDirectories(dir);
+                Files.deleteIfExists(path);
+            }
+            region = map(path);
+            if (reuse && region.getInt(0) == MAGIC && region.getInt(4) == FORMAT_VERSION) {
+                scan();
+                System.out.println("📦 Loaded plan snapshots for " + users.size() + " user(s) from " + path);
+            } else {
+                region.putInt(0, MAGIC).putInt(4, FORMAT_VERSION);
+                end = FILE_HEADER;
+                region.putInt(end, 0);
+            }
+        }
+    }
+
+    @PreDestroy
+    synchronized void close() {
+        if (region != null) region.force();
+    }
+
+    /**
+     * A list snapshot for {@code userId}, loading it with {@code loader} when there is none fit to
+     * serve. {@code scope} tells snapshots of one kind apart (the date for TODAY, the week start for
+     * CURRENT_WEEK), so a new day or week starts from a miss.
+     */
+    public <T> CompletableFuture<List<T>> read(String userId, Kind kind, Object scope, Class<T> elementType,
+            Supplier<CompletableFuture<List<T>>> loader) {
+        if (!enabled || userId == null) return loader.get();
+        String key = userId + "\u0000" + kind + "\u0000" + (scope != null ? scope : "");
+        JavaType type = objectMapper.getTypeFactory().constructCollectionType(List.class, elementType);
+        Snapshot snapshot = get(userId, key);
+        long age = snapshot != null && snapshot.writtenAt() > 0 ? System.currentTimeMillis() - snapshot.writtenAt() : -1;
+        if (age >= 0 && age <= maxStaleMillis) {
+            List<T> value = decode(snapshot, type);
+            if (value != null) {
+                if (age <= freshForMillis) {
+                    fresh.increment();
+                } else {
+                    stale.increment();
+                    refresh(userId, key, loader);
+                }
+                return CompletableFuture.completedFuture(value);
+            }
+        }
+        miss.increment();
+        return load(userId, key, loader).exceptionally(e -> {
+            List<T> value = snapshot != null ? decode(snapshot, type) : null;
+            if (value == null) throw e instanceof RuntimeException re ? re : new IllegalStateException(e);
+            fallback.increment();
+            System.err.println("⚠️ Serving last known " + kind + " snapshot for " + userId + ": " + e.getMessage());
+            return value;
+        });
+    }
+
+    /** Mark every snapshot of {@code userId} as outdated; they are then only served as an outage fallback. */
+    public void invalidateUser(String userId) {
+        if (!enabled || userId == null) return;
+        synchronized (this) {
+            UserSnapshots snapshots = users.get(userId);
+            if (snapshots == null) return;  // no snapshots, and no load in flight (loads register the user)
+            snapshots.generation++;
+            for (int offset : snapshots.offsets.values()) region.putLong(offset + WRITTEN_AT_OFFSET, 0L);
+        }
+    }
+
+    /** Mark every snapshot as outdated, e.g. when cross-node invalidations may have been missed. */
+    public void invalidateAll() {
+        if (!enabled) return;
+        synchronized (this) {
+            users.forEach((userId, snapshots) -> {
+                snapshots.generation++;
+                for (int offset : snapshots.offsets.values()) region.putLong(offset + WRITTEN_AT_OFFSET, 0L);
+            });
+        }
+    }
+
+    /** Write time of the oldest snapshot still fit to serve, or -1 if there is none. */
+    public synchronized long oldestSnapshotMillis() {
+        long oldest = -1;
+        if (!enabled) return oldest;
+        for (UserSnapshots snapshots : users.values()) {
+            for (int offset : snapshots.offsets.values()) {
+                long writtenAt = region.getLong(offset + WRITTEN_AT_OFFSET);
+                if (writtenAt > 0 && (oldest < 0 || writtenAt < oldest)) oldest = writtenAt;
+            }
+        }
+        return oldest;
+    }
+
+    private <T> void refresh(String userId, String key, Supplier<CompletableFuture<List<T>>> loader) {
+        CompletableFuture<Void> marker = new CompletableFuture<>();
+        if (refreshing.putIfAbsent(key, marker) != null) return;  // one refresh per snapshot at a time
+        load(userId, key, loader).whenComplete((v, e) -> {
+            if (e != null) System.err.println("⚠️ Plan snapshot refresh failed, keeping the stale copy: " + e.getMessage());
+            refreshing.remove(key, marker);
+            marker.complete(null);
+        });
+    }
+
+    private <T> CompletableFuture<List<T>> load(String userId, String key, Supplier<CompletableFuture<List<T>>> loader) {
+        Generation generation = generation(userId);
+        return loader.get().thenApply(value -> {
+            try {
+                put(userId, key, generation, objectMapper.writeValueAsBytes(value));
+            } catch (IOException | RuntimeException e) {
+                System.err.println("⚠️ Could not store plan snapshot: " + e.getMessage());
+            }
+            return value;
+        });
+    }
+
+    private <T> List<T> decode(Snapshot snapshot, JavaType type) {
+        try {
+            return objectMapper.readValue(snapshot.value(), type);
+        } catch (IOException e) {
+            return null;  // written by an incompatible model version: treat as a miss
+        }
+    }
+
+    private synchronized Generation generation(String userId) {
+        return new Generation(epoch, users.computeIfAbsent(userId, id -> new UserSnapshots()).generation);
+    }
+
+    private synchronized Snapshot get(String userId, String key) {
+        UserSnapshots snapshots = users.get(userId);
+        Integer offset = snapshots != null ? snapshots.offsets.get(key) : null;
+        if (offset == null) return null;
+        int length = region.getInt(offset);
+        int keyLength = region.getInt(offset + 16);
+        byte[] value = new byte[length - RECORD_HEADER - keyLength];
+        region.get(offset + RECORD_HEADER + keyLength, value);
+        return new Snapshot(value, region.getLong(offset + WRITTEN_AT_OFFSET));
+    }
+
+    private synchronized void put(String userId, String key, Generation generation, byte[] value) throws IOException {
+        UserSnapshots snapshots = users.get(userId);
+        // Written meanwhile, or compacted away with a count we can no longer compare: this load may be older.
+        if (generation.epoch() != epoch || snapshots == null || snapshots.generation != generation.user()) return;
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int length = RECORD_HEADER + keyBytes.length + value.length;
+        if (length > (capacity - FILE_HEADER) / 4) return;  // not worth a quarter of the store
+        if (end + length + 4 > capacity) compact(length);
+        int offset = append(region, end, keyBytes, value, System.currentTimeMillis());
+        end = offset + length;
+        users.computeIfAbsent(userId, id -> new UserSnapshots()).offsets.put(key, offset);
+    }
+
+    /** Write a record at {@code offset} followed by an end marker; the length goes last so a torn write reads as the end. */
+    private static int append(MappedByteBuffer buf, int offset, byte[] key, byte[] value, long writtenAt) {
+        int length = RECORD_HEADER + key.length + value.length;
+        buf.putInt(offset + 16, key.length);
+        buf.put(offset + RECORD_HEADER, key);
+        buf.put(offset + RECORD_HEADER + key.length, value);
+        buf.putLong(offset + WRITTEN_AT_OFFSET, writtenAt);
+        buf.putInt(offset + 4, crc(key, value));
+        if (offset + length + 4 <= buf.capacity()) buf.putInt(offset + length, 0);
+        buf.putInt(offset, length);
+        return offset;
+    }
+
+    private static int crc(byte[] key, byte[] value) {
+        CRC32 crc = new CRC32();
+        crc.update(key);
+        crc.update(value);
+        return (int) crc.getValue();
+    }
+
+    /** Rebuild the index from the file; the last record of a key wins. */
+    private void scan() {
+        int offset = FILE_HEADER;
+        while (offset + RECORD_HEADER <= capacity) {
+            int length = region.getInt(offset);
+            int keyLength = region.getInt(offset + 16);
+            if (length < RECORD_HEADER || offset + length > capacity || keyLength < 0 || keyLength > length - RECORD_HEADER) break;
+            byte[] key = new byte[keyLength];
+            byte[] value = new byte[length - RECORD_HEADER - keyLength];
+            region.get(offset + RECORD_HEADER, key);
+            region.get(offset + RECORD_HEADER + keyLength, value);
+            if (crc(key, value) != region.getInt(offset + 4)) break;  // torn tail from a crash mid-write
+            String k = new String(key, StandardCharsets.UTF_8);
+            String userId = k.substring(0, Math.max(0, k.indexOf('\u0000')));
+            users.computeIfAbsent(userId, id -> new UserSnapshots()).offsets.put(k, offset);
+            offset += length;
+        }
+        end = offset;
+        if (end + 4 <= capacity) region.putInt(end, 0);
+    }
+
+    /**
+     * Rewrite the file with the latest record per key, newest first, leaving room for
+     * {@code needed} more bytes and at least half the store free. Caller holds the lock.
+     */
+    private void compact(int needed) throws IOException {
+        record Live(String userId, String key, int offset, long writtenAt) {}
+        List<Live> live = new ArrayList<>();
+        users.forEach((userId, snapshots) -> snapshots.offsets.forEach((key, offset) ->
+                live.add(new Live(userId, key, offset, region.getLong(offset + WRITTEN_AT_OFFSET)))));
+        live.sort(Comparator.comparingLong(Live::writtenAt).reversed());
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.deleteIfExists(tmp);
+        MappedByteBuffer next = map(tmp);
+        next.putInt(0, MAGIC).putInt(4, FORMAT_VERSION);
+        int budget = Math.min(capacity - needed - 4, FILE_HEADER + (capacity - FILE_HEADER) / 2);
+        int offset = FILE_HEADER;
+        Map<String, UserSnapshots> kept = new HashMap<>();
+        for (Live l : live) {
+            int length = region.getInt(l.offset());
+            if (offset + length > budget) continue;
+            int keyLength = region.getInt(l.offset() + 16);
+            byte[] key = new byte[keyLength];
+            byte[] value = new byte[length - RECORD_HEADER - keyLength];
+            region.get(l.offset() + RECORD_HEADER, key);
+            region.get(l.offset() + RECORD_HEADER + keyLength, value);
+            append(next, offset, key, value, l.writtenAt());
+            kept.computeIfAbsent(l.userId(), id -> new UserSnapshots()).offsets.put(l.key(), offset);
+            offset += length;
+        }
+        next.force();
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        region = next;
+        end = offset;
+        users.forEach((userId, snapshots) -> {
+            UserSnapshots k = kept.get(userId);
+            snapshots.offsets.clear();
+            if (k != null) snapshots.offsets.putAll(k.offsets);
+        });
+        if (users.values().removeIf(s -> s.offsets.isEmpty())) epoch++;
+        System.out.println("📦 Compacted plan snapshots: kept " + kept.values().stream().mapToInt(s -> s.offsets.size()).sum()
+                + " of " + live.size());
+    }
+
+    private MappedByteBuffer map(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not map plan snapshot store " + file, e);
+        }
+    }
+}
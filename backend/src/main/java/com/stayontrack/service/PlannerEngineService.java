@@ -4,7 +4,6 @@ import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.LinkedHashMap;
@@ -14,6 +13,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 import org.springframework.stereotype.Service;
@@ -34,10 +34,13 @@ public class PlannerEngineService {
 
     private final FirestoreService firestoreService;
     private final GeminiService geminiService;
+    private final CompletionJournal completionJournal;
 
-    public PlannerEngineService(FirestoreService firestoreService, GeminiService geminiService) {
+    public PlannerEngineService(FirestoreService firestoreService, GeminiService geminiService,
+            CompletionJournal completionJournal) {
         this.firestoreService = firestoreService;
         this.geminiService = geminiService;
+        this.completionJournal = completionJournal;
     }
 
     /**
@@ -45,8 +48,10 @@ public class PlannerEngineService {
      * Called when user completes setup or adds/edits deadlines.
      */
     public PlannerWeek generateNextWeek(String userId, int availableHours) throws ExecutionException, InterruptedException {
-        List<Deadline> deadlines = firestoreService.getDeadlinesByUserId(userId);
-        List<Semester> semesters = firestoreService.getSemestersByUserId(userId);
+        CompletableFuture<List<Deadline>> deadlinesFuture = firestoreService.getDeadlinesByUserIdAsync(userId);
+        CompletableFuture<List<Semester>> semestersFuture = firestoreService.getSemestersByUserIdAsync(userId);
+        List<Deadline> deadlines = deadlinesFuture.get();
+        List<Semester> semesters = semestersFuture.get();
 
         LocalDate planStart;
         LocalDate planEnd;
@@ -55,8 +60,8 @@ public class PlannerEngineService {
         LocalDate currentWeekStart = getWeekStart(today);
         if (!semesters.isEmpty()) {
             Semester s = semesters.get(0);
-            planStart = parseDate(s.getStartDate());
-            planEnd = parseDate(s.getEndDate());
+            planStart = s.getStartsOn();
+            planEnd = s.getEndsOn();
             if (planStart == null) planStart = currentWeekStart;
             if (planEnd == null) planEnd = planStart.plusMonths(4);
             if (planEnd.isBefore(planStart)) planEnd = planStart.plusWeeks(2);
@@ -74,61 +79,38 @@ public class PlannerEngineService {
             planEnd = planStart.plusWeeks(12);
         }
 
-        LocalDate weekStart = planStart;
-        List<PlannerWeek> created = new ArrayList<>();
         int maxWeeks = 12;  // Cover full semester; ensures all assignments and exams are included
-        int weekCount = 0;
-        while (!weekStart.isAfter(planEnd) && weekCount < maxWeeks) {
-            PlannerWeek existing = firestoreService.getPlannerWeekByDate(userId, weekStart);
-            if (existing != null) {
-                firestoreService.deletePlannerTasksByWeekId(existing.getId());
-                firestoreService.deletePlannerWeek(existing.getId());
-            }
-            PlannerWeek week = new PlannerWeek(userId, weekStart, weekStart.plusDays(6), availableHours);
-            firestoreService.createPlannerWeek(week);
+        List<PlannerWeek> created = new ArrayList<>();
+        List<CompletableFuture<PlannerWeek>> saves = new ArrayList<>();
+        for (LocalDate weekStart = planStart; !weekStart.isAfter(planEnd) && created.size() < maxWeeks;
+                weekStart = weekStart.plusWeeks(1)) {
+            PlannerWeek week = newPlannerWeek(userId, weekStart, availableHours);
             List<PlannerTask> tasks = distributeTasks(week, deadlines, availableHours, null, userId);
-            for (PlannerTask task : tasks) {
-                firestoreService.createPlannerTask(task);
-            }
+            // Overwrites the week in place (deterministic ids); saves overlap with planning the next week
+            saves.add(firestoreService.savePlannerWeekAsync(week, tasks));
             created.add(week);
-            weekStart = weekStart.plusWeeks(1);
-            weekCount++;
         }
+        FirestoreFutures.allOf(saves).get();
 
         return created.isEmpty() ? null : created.get(created.size() - 1);
     }
 
-    private LocalDate parseDate(String s) {
-        if (s == null || s.isBlank()) return null;
-        try {
-            if (s.contains("-") && s.length() >= 10) {
-                return LocalDate.parse(s.substring(0, 10), DateTimeFormatter.ISO_LOCAL_DATE);
-            }
-            return null;
-        } catch (Exception e) {
-            return null;
-        }
-    }
-
     /**
      * Regenerate next week only. Called from Weekly Check-In.
      */
     public PlannerWeek regenerateNextWeek(String userId, int availableHours, String feedback) throws ExecutionException, InterruptedException {
         LocalDate nextMonday = getNextMonday(LocalDate.now());
-        PlannerWeek existing = firestoreService.getPlannerWeekByDate(userId, nextMonday);
-
-        if (existing != null) {
-            firestoreService.deletePlannerTasksByWeekId(existing.getId());
-            firestoreService.deletePlannerWeek(existing.getId());
-        }
-
-        PlannerWeek week = new PlannerWeek(userId, getNextMonday(LocalDate.now()), getNextMonday(LocalDate.now()).plusDays(6), availableHours);
-        firestoreService.createPlannerWeek(week);
+        PlannerWeek week = newPlannerWeek(userId, nextMonday, availableHours);
         List<Deadline> deadlines = firestoreService.getDeadlinesByUserId(userId);
         List<PlannerTask> tasks = distributeTasks(week, deadlines, availableHours, feedback, userId);
-        for (PlannerTask task : tasks) {
-            firestoreService.createPlannerTask(task);
-        }
+        firestoreService.savePlannerWeek(week, tasks);
+        return week;
+    }
+
+    /** New week carrying its deterministic id, so generated sessions can reference it before it is saved. */
+    private PlannerWeek newPlannerWeek(String userId, LocalDate weekStart, int availableHours) {
+        PlannerWeek week = new PlannerWeek(userId, weekStart, weekStart.plusDays(6), availableHours);
+        week.setId(FirestoreService.plannerWeekId(userId, weekStart));
         return week;
     }
 
@@ -143,16 +125,25 @@ public class PlannerEngineService {
      * Get weekly summary (tasks completed, overdue, completion rate).
      */
     public WeeklySummary getWeeklySummary(String userId) throws ExecutionException, InterruptedException {
-        LocalDate weekStart = getWeekStart(LocalDate.now());
-        List<PlannerTask> tasks = firestoreService.getPlannerTasksForWeek(userId, weekStart);
-
-        int completed = (int) tasks.stream().filter(PlannerTask::isCompleted).count();
-        int overdue = (int) tasks.stream()
-                .filter(t -> !t.isCompleted() && t.getDueDate().isBefore(LocalDate.now()))
-                .count();
-        int total = tasks.size();
+        LocalDate today = LocalDate.now();
+        return firestoreService.getPlannerWeekSummary(userId, getWeekStart(today), today);
+    }
 
-        return new WeeklySummary(completed, total, overdue);
+    /**
+     * Get tasks from {@code from} to {@code to} (inclusive) grouped by ISO day, in date order.
+     * Every day in the range has an entry, empty if nothing is scheduled.
+     */
+    public Map<String, List<PlannerTask>> getTasksByDay(String userId, LocalDate from, LocalDate to) throws ExecutionException, InterruptedException {
+        Map<String, List<PlannerTask>> byDay = new LinkedHashMap<>();
+        for (LocalDate d = from; !d.isAfter(to); d = d.plusDays(1)) {
+            byDay.put(d.toString(), new ArrayList<>());
+        }
+        for (PlannerTask task : firestoreService.getPlannerTasksForRange(userId, from, to)) {
+            if (task.getDueDate() == null) continue;
+            List<PlannerTask> day = byDay.get(task.getDueDate().toString());
+            if (day != null) day.add(task);
+        }
+        return byDay;
     }
 
     /**
@@ -161,6 +152,11 @@ public class PlannerEngineService {
     public PlannerTask toggleTaskCompletion(String taskId, boolean completed) throws ExecutionException, InterruptedException {
         PlannerTask task = new PlannerTask();
         task.setCompleted(completed);
+        if (completionJournal.isEnabled()) {
+            completionJournal.record(taskId, completed);  // flushed to Firestore in the background
+            task.setId(taskId);
+            return task;
+        }
         return firestoreService.updatePlannerTask(taskId, task);
     }
 
@@ -193,14 +189,16 @@ public class PlannerEngineService {
         List<String> lowEnergy = null;
         List<String> restDays = null;
         String typicalDuration = null;
-        List<FocusProfile> focusProfiles = firestoreService.getFocusProfilesByUserId(userId);
+        CompletableFuture<List<FocusProfile>> focusFuture = firestoreService.getFocusProfilesByUserIdAsync(userId);
+        CompletableFuture<List<Semester>> semestersFuture = firestoreService.getSemestersByUserIdAsync(userId);
+        List<FocusProfile> focusProfiles = focusFuture.get();
         if (!focusProfiles.isEmpty()) {
             FocusProfile fp = focusProfiles.get(0);
             peakFocus = fp.getPeakFocusTimes();
             lowEnergy = fp.getLowEnergyTimes();
             typicalDuration = fp.getTypicalStudyDuration();
         }
-        List<Semester> semesters = firestoreService.getSemestersByUserId(userId);
+        List<Semester> semesters = semestersFuture.get();
         if (!semesters.isEmpty() && semesters.get(0).getRestDays() != null) {
             restDays = new ArrayList<>();
             for (String d : semesters.get(0).getRestDays()) {
@@ -261,6 +259,7 @@ public class PlannerEngineService {
                         }
                         PlannerTask task = new PlannerTask(week.getId(), week.getUserId(),
                                 parts[0], parts[1], parts[2], taskDate, scheduledStart, diff, ind);
+                        if (match != null) task.setDeadlineId(match.getId());
                         tasks.add(task);
                     } catch (NumberFormatException ignored) {}
                 }
@@ -311,6 +310,7 @@ public class PlannerEngineService {
                         ind = d.getIsIndividual();
                     }
                     PlannerTask task = new PlannerTask(week.getId(), week.getUserId(), taskTitle, d.getCourse(), duration, taskDate, scheduledStart, diff, ind);
+                    task.setDeadlineId(d.getId());
                     tasks.add(task);
                     nextHourByDate.put(taskDate, hour + (isExamDeadline(d) ? 2 : 1));
                 }
@@ -459,12 +459,27 @@ public class PlannerEngineService {
         return hours;
     }
 
+    private static final String[] TASK_TITLE_PREFIXES = {"Prepare for ", "Work on "};
+
     private String buildTaskTitle(Deadline d) {
         String type = d.getType() != null ? d.getType().toLowerCase() : "";
         if (type.contains("exam") || type.contains("midterm") || type.contains("final") || type.contains("quiz")) {
-            return "Prepare for " + d.getTitle();
+            return TASK_TITLE_PREFIXES[0] + d.getTitle();
+        }
+        return TASK_TITLE_PREFIXES[1] + d.getTitle();
+    }
+
+    /**
+     * A session's title after its deadline is renamed from {@code oldTitle}: the same form with
+     * the new title when it is the deadline title or one built by buildTaskTitle, otherwise null
+     * (AI- or user-written titles are left alone).
+     */
+    static String retitleTask(String title, String oldTitle, String newTitle) {
+        if (title.equals(oldTitle)) return newTitle;
+        for (String prefix : TASK_TITLE_PREFIXES) {
+            if (title.equals(prefix + oldTitle)) return prefix + newTitle;
         }
-        return "Work on " + d.getTitle();
+        return null;
     }
 
     private boolean isExamDeadline(Deadline d) {
@@ -558,7 +573,8 @@ public class PlannerEngineService {
     private static final Pattern DURATION_HOURS = Pattern.compile("(\\d+(?:\\.\\d+)?)\\s*(?:hour|hours|h)", Pattern.CASE_INSENSITIVE);
     private static final Pattern DURATION_MINS = Pattern.compile("(\\d+)\\s*(?:minute|minutes|min|m)", Pattern.CASE_INSENSITIVE);
 
-    private int parseDurationToMinutes(String duration) {
+    /** Minutes in a duration label like "1 hour", "1.5h" or "45 min"; 60 if it has none. */
+    static int parseDurationToMinutes(String duration) {
         if (duration == null || duration.isBlank()) return 60;
         int minutes = 0;
         Matcher h = DURATION_HOURS.matcher(duration);
@@ -583,6 +599,10 @@ public class PlannerEngineService {
             String dTitle = d.getTitle() != null ? d.getTitle() : "";
             int coveredCount = 0;
             for (PlannerTask t : tasks) {
+                if (t.getDeadlineId() != null) {
+                    if (t.getDeadlineId().equals(d.getId())) coveredCount++;
+                    continue;
+                }
                 String tTitle = t.getTitle() != null ? t.getTitle() : "";
                 if (tTitle.contains(dTitle) || (dTitle.length() > 3 && tTitle.contains(dTitle.substring(0, Math.min(10, dTitle.length()))))) {
                     coveredCount++;
@@ -614,6 +634,7 @@ public class PlannerEngineService {
                     ind = d.getIsIndividual();
                 }
                 PlannerTask task = new PlannerTask(week.getId(), week.getUserId(), taskTitle, d.getCourse(), duration, taskDate, scheduledStart, diff, ind);
+                task.setDeadlineId(d.getId());
                 tasks.add(task);
                 nextHourByDate.put(taskDate, hour + (isExamDeadline(d) ? 2 : 1));
             }
@@ -0,0 +1,226 @@
+package com.stayontrack.service;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.BulkWriter;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.SetOptions;
+import com.google.cloud.firestore.WriteResult;
+import com.google.firebase.cloud.FirestoreClient;
+
+/**
+ * Scheduled retention for planner history. Weeks that started more than horizon-weeks ago are
+ * rolled up into a plannerWeekSummaries/{weekId} document (session counts, planned and completed
+ * hours and completion rate, overall and per course), after which the week document, its
+ * per-task sessions and its days' agenda documents are deleted with a BulkWriter.
+ *
+ * Work goes page by page: summaries first, then sessions and agendas, and the week document
+ * last, only once everything it owned is gone. An existing summary is never recomputed, so a
+ * run interrupted between the steps resumes where it stopped without rolling up a half-deleted
+ * week; progress is checkpointed in migrations/plannerRetention after every page.
+ *
+ * Archived sessions get no sync tombstones: clients that already hold them keep them as history.
+ * Off by default.
+ */
+@Component
+public class PlannerRetention {
+
+    private static final String PLANNER_WEEKS_COLLECTION = "plannerWeeks";
+    private static final String PLANNER_TASKS_COLLECTION = "plannerTasks";
+    private static final String SUMMARIES_COLLECTION = "plannerWeekSummaries";
+    private static final String CHECKPOINTS_COLLECTION = "migrations";
+    private static final String CHECKPOINT_ID = "plannerRetention";
+    private static final String NO_COURSE = "Uncategorized";
+
+    private final CompletionJournal completionJournal;
+    private final boolean enabled;
+    private final int horizonWeeks;
+    private final int pageSize;
+
+    public PlannerRetention(CompletionJournal completionJournal,
+            @Value("${stayontrack.retention.planner.enabled:false}") boolean enabled,
+            @Value("${stayontrack.retention.planner.horizon-weeks:26}") int horizonWeeks,
+            @Value("${stayontrack.retention.planner.page-size:50}") int pageSize) {
+        this.completionJournal = completionJournal;
+        this.enabled = enabled;
+        this.horizonWeeks = Math.max(1, horizonWeeks);
+        this.pageSize = Math.max(1, pageSize);
+    }
+
+    @Scheduled(initialDelayString = "${stayontrack.retention.planner.initial-delay:PT5M}",
+            fixedDelayString = "${stayontrack.retention.planner.interval:PT24H}")
+    public void runScheduled() {
+        if (!enabled) return;
+        try {
+            archive(LocalDate.now().with(DayOfWeek.MONDAY).minusWeeks(horizonWeeks));
+        } catch (Exception e) {
+            System.err.println("⚠️ Planner retention stopped, will resume on its next run: " + e.getMessage());
+        }
+    }
+
+    /** Archive every week that started before {@code cutoff}. */
+    private void archive(LocalDate cutoff) throws ExecutionException, InterruptedException {
+        completionJournal.flushAsync().get();  // pending toggles must land before completion is rolled up
+        Firestore db = FirestoreClient.getFirestore();
+        DocumentReference checkpointRef = db.collection(CHECKPOINTS_COLLECTION).document(CHECKPOINT_ID);
+        Query weeks = db.collection(PLANNER_WEEKS_COLLECTION)
+                .whereLessThan("weekStartDate", DocumentCodecs.timestamp(cutoff))
+                .orderBy("weekStartDate", Query.Direction.ASCENDING)
+                .limit(pageSize);
+        int archived = 0;
+        DocumentSnapshot last = null;
+        while (true) {
+            // Archived weeks drop out of the query; the cursor only skips weeks this run failed to delete.
+            List<QueryDocumentSnapshot> page = (last != null ? weeks.startAfter(last) : weeks).get().get().getDocuments();
+            if (page.isEmpty()) break;
+            last = page.get(page.size() - 1);
+
+            BulkWriter writer = db.bulkWriter();
+            try {
+                Map<String, List<DocumentReference>> owned = rollUp(db, writer, page);
+                Map<String, List<ApiFuture<WriteResult>>> deletes = new HashMap<>();
+                owned.forEach((weekId, refs) -> {
+                    List<ApiFuture<WriteResult>> weekDeletes = new ArrayList<>(refs.size());
+                    for (DocumentReference ref : refs) weekDeletes.add(writer.delete(ref));
+                    deletes.put(weekId, weekDeletes);
+                });
+                writer.flush().get();
+                List<ApiFuture<WriteResult>> weekDeletes = new ArrayList<>(page.size());
+                for (QueryDocumentSnapshot week : page) {
+                    if (!succeeded(deletes.get(week.getId()))) continue;  // left for the next run
+                    weekDeletes.add(writer.delete(week.getReference()));
+                }
+                writer.flush().get();
+                for (ApiFuture<WriteResult> delete : weekDeletes) {
+                    if (succeeded(List.of(delete))) archived++;  // a failed one is retried by the next run
+                }
+            } finally {
+                writer.close();
+            }
+
+            Map<String, Object> progress = HashMap.newHashMap(4);
+            progress.put("cutoff", DocumentCodecs.timestamp(cutoff));
+            progress.put("lastWeekId", last.getId());
+            progress.put("weeksArchived", FieldValue.increment(archived));
+            progress.put("updatedAt", FieldValue.serverTimestamp());
+            checkpointRef.set(progress, SetOptions.merge()).get();
+            archived = 0;
+        }
+        System.out.println("🧹 Planner retention: weeks before " + cutoff + " archived");
+    }
+
+    /**
+     * Write the summary of every week in {@code page} that does not have one yet and return,
+     * per week, the documents to delete before the week document itself.
+     */
+    private Map<String, List<DocumentReference>> rollUp(Firestore db, BulkWriter writer, List<QueryDocumentSnapshot> page)
+            throws ExecutionException, InterruptedException {
+        DocumentReference[] summaryRefs = page.stream()
+                .map(week -> db.collection(SUMMARIES_COLLECTION).document(week.getId()))
+                .toArray(DocumentReference[]::new);
+        List<DocumentSnapshot> summaries = db.getAll(summaryRefs).get();
+
+        Map<String, List<DocumentReference>> owned = new LinkedHashMap<>();
+        List<ApiFuture<WriteResult>> writes = new ArrayList<>();
+        for (int i = 0; i < page.size(); i++) {
+            QueryDocumentSnapshot week = page.get(i);
+            List<QueryDocumentSnapshot> sessions = db.collection(PLANNER_TASKS_COLLECTION)
+                    .whereEqualTo("plannerWeekId", week.getId()).get().get().getDocuments();
+            if (!summaries.get(i).exists()) {
+                List<Map<String, Object>> fields = new ArrayList<>(EmbeddedSessions.entries(week).values());
+                for (QueryDocumentSnapshot s : sessions) fields.add(s.getData());
+                writes.add(writer.set(summaryRefs[i], summarize(week, fields)));
+            }
+            List<DocumentReference> refs = new ArrayList<>();
+            for (QueryDocumentSnapshot s : sessions) refs.add(s.getReference());
+            String userId = week.getString("userId");
+            LocalDate start = week.get("weekStartDate") instanceof Timestamp ts ? DocumentCodecs.localDate(ts) : null;
+            if (userId != null && start != null) {
+                for (int d = 0; d < 7; d++) refs.add(AgendaBuckets.ref(db, userId, start.plusDays(d)));
+            }
+            owned.put(week.getId(), refs);
+        }
+        writer.flush().get();
+        for (ApiFuture<WriteResult> write : writes) write.get();  // no deletes without the summary
+        return owned;
+    }
+
+    private static Map<String, Object> summarize(DocumentSnapshot week, List<Map<String, Object>> sessions) {
+        Map<String, Tally> byCourse = new LinkedHashMap<>();
+        Tally total = new Tally();
+        for (Map<String, Object> s : sessions) {
+            String course = s.get("course") instanceof String c && !c.isBlank() ? c : NO_COURSE;
+            int minutes = PlannerEngineService.parseDurationToMinutes(s.get("duration") instanceof String d ? d : null);
+            boolean completed = Boolean.TRUE.equals(s.get("completed"));
+            total.add(minutes, completed);
+            byCourse.computeIfAbsent(course, c -> new Tally()).add(minutes, completed);
+        }
+        Map<String, Object> courses = LinkedHashMap.newLinkedHashMap(byCourse.size());
+        byCourse.forEach((course, tally) -> courses.put(course, tally.toMap()));
+
+        Map<String, Object> summary = new HashMap<>(total.toMap());
+        summary.put("userId", week.getString("userId"));
+        summary.put("weekStartDate", week.get("weekStartDate"));
+        summary.put("weekEndDate", week.get("weekEndDate"));
+        summary.put("availableHours", week.get("availableHours"));
+        summary.put("courses", courses);
+        summary.put("archivedAt", FieldValue.serverTimestamp());
+        return summary;
+    }
+
+    private static final class Tally {
+        int sessions;
+        int completed;
+        int plannedMinutes;
+        int completedMinutes;
+
+        void add(int minutes, boolean done) {
+            sessions++;
+            plannedMinutes += minutes;
+            if (done) {
+                completed++;
+                completedMinutes += minutes;
+            }
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = HashMap.newHashMap(5);
+            map.put("sessions", sessions);
+            map.put("completedSessions", completed);
+            map.put("plannedHours", plannedMinutes / 60.0);
+            map.put("completedHours", completedMinutes / 60.0);
+            map.put("completionRatePercent", sessions > 0 ? completed * 100 / sessions : 0);
+            return map;
+        }
+    }
+
+    private static boolean succeeded(List<ApiFuture<WriteResult>> deletes) throws InterruptedException {
+        if (deletes == null) return false;
+        for (ApiFuture<WriteResult> delete : deletes) {
+            try {
+                delete.get();
+            } catch (ExecutionException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
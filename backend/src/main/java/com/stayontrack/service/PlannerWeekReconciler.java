@@ -0,0 +1,127 @@
+package com.stayontrack.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.FieldValue;
+import com.stayontrack.model.PlannerTask;
+
+/**
+ * Diffs a regenerated week against the sessions already stored for it, so regeneration writes
+ * only what changed. Sessions match on (deadline, day, start time), so a session whose title the
+ * model words differently on regeneration is still the same session. A matched session keeps its
+ * document id, completion state and createdAt, and is updated only in the planner-owned fields
+ * that differ, title included.
+ */
+final class PlannerWeekReconciler {
+
+    /** Fields regeneration may overwrite; anything else on a stored session is left alone. */
+    private static final List<String> PLANNER_FIELDS = List.of(
+            "plannerWeekId", "userId", "deadlineId", "title", "course", "duration", "difficulty",
+            "isIndividual", "status", "dueDate", "scheduledStartTime");
+
+    /** Week fields compared before rewriting the week document. */
+    static final List<String> WEEK_FIELDS = List.of("userId", "availableHours", "weekStartDate", "weekEndDate");
+
+    record Plan(Map<String, Map<String, Object>> inserts,
+                Map<String, Map<String, Object>> updates,
+                List<String> deletes) {}
+
+    private PlannerWeekReconciler() {}
+
+    /**
+     * @param existing stored sessions of the week, id -> raw fields
+     * @param desired  newly generated sessions; ids, completion and createdAt are filled in from
+     *                 their stored match, new sessions get fresh ids
+     */
+    static Plan reconcile(String weekId, Map<String, Map<String, Object>> existing, List<PlannerTask> desired) {
+        Map<String, Deque<String>> existingByKey = new HashMap<>();
+        for (Map.Entry<String, Map<String, Object>> e : existing.entrySet()) {
+            existingByKey.computeIfAbsent(key(e.getValue()), k -> new ArrayDeque<>()).add(e.getKey());
+        }
+
+        Map<String, Map<String, Object>> inserts = new LinkedHashMap<>();
+        Map<String, Map<String, Object>> updates = new LinkedHashMap<>();
+        Set<String> kept = new HashSet<>();
+        for (PlannerTask task : desired) {
+            task.setPlannerWeekId(weekId);
+            Map<String, Object> fields = DocumentCodecs.PLANNER_TASK.encode(task);
+            Deque<String> candidates = existingByKey.get(key(fields));
+            String id = candidates != null ? candidates.poll() : null;
+            if (id != null) {
+                Map<String, Object> stored = existing.get(id);
+                kept.add(id);
+                task.setId(id);
+                task.setCompleted(Boolean.TRUE.equals(stored.get("completed")));
+                if (stored.get("createdAt") instanceof Timestamp ts) task.setCreatedAt(DocumentCodecs.localDateTime(ts));
+                Map<String, Object> changed = changedFields(stored, fields, PLANNER_FIELDS);
+                if (!changed.isEmpty()) updates.put(id, changed);
+            } else {
+                id = newId(weekId, key(fields), existing.keySet(), inserts.keySet());
+                task.setId(id);
+                inserts.put(id, fields);
+            }
+        }
+
+        List<String> deletes = new ArrayList<>();
+        for (String id : existing.keySet()) {
+            if (!kept.contains(id)) deletes.add(id);
+        }
+        return new Plan(inserts, updates, deletes);
+    }
+
+    /**
+     * Fields among {@code owned} whose desired value differs from the stored one; a field that is
+     * now absent maps to a delete sentinel.
+     */
+    static Map<String, Object> changedFields(Map<String, Object> stored, Map<String, Object> desired, List<String> owned) {
+        Map<String, Object> changed = new HashMap<>();
+        for (String field : owned) {
+            Object want = desired.get(field);
+            Object have = stored.get(field);
+            if (same(have, want)) continue;
+            changed.put(field, want != null ? want : FieldValue.delete());
+        }
+        return changed;
+    }
+
+    private static boolean same(Object a, Object b) {
+        // Firestore returns integers as Long; the codecs write int.
+        if (a instanceof Number x && b instanceof Number y) return x.doubleValue() == y.doubleValue();
+        return Objects.equals(a, b);
+    }
+
+    /** Identity a session is matched on; also used to merge moved legacy sessions into a week. */
+    static String key(Map<String, Object> fields) {
+        return fields.get("deadlineId") + "|" + seconds(fields.get("dueDate"))
+                + "|" + seconds(fields.get("scheduledStartTime"));
+    }
+
+    private static Object seconds(Object value) {
+        return value instanceof Timestamp ts ? ts.getSeconds() : value;
+    }
+
+    /** A fresh deterministic id for a session with {@code fields} that collides with none of {@code taken}. */
+    static String newSessionId(String weekId, Map<String, Object> fields, Set<String> taken) {
+        return newId(weekId, key(fields), taken, Set.of());
+    }
+
+    /** Deterministic per session key, so a retried transaction picks the same ids. */
+    private static String newId(String weekId, String key, Set<String> existingIds, Set<String> taken) {
+        String base = weekId + "_" + Integer.toHexString(key.hashCode());
+        String id = base;
+        for (int n = 2; existingIds.contains(id) || taken.contains(id); n++) {
+            id = base + "-" + n;
+        }
+        return id;
+    }
+}
@@ -0,0 +1,115 @@
+package com.stayontrack.service;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Precondition;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.SetOptions;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.firebase.cloud.FirestoreClient;
+
+/**
+ * Background backfill of the typed date copies (see DocumentCodecs) on exams, assignments and
+ * semesters written before they existed. Walks each collection in document-id order, one
+ * batch per page; the batch also advances a checkpoint in migrations/typedDates, so a restart
+ * or failure resumes after the last committed page.
+ *
+ * Each update is conditioned on the document being unchanged since it was read; if a user edits
+ * one meanwhile the page fails and is redone on the next run. Backfilled copies are derived
+ * data and do not bump sync versions.
+ */
+@Component
+public class TypedDateMigration {
+
+    private static final String CHECKPOINTS_COLLECTION = "migrations";
+    private static final String CHECKPOINT_ID = "typedDates";
+
+    /** Collection and its string field -> typed copy pairs. */
+    private record Target(String collection, Map<String, String> fields) {}
+
+    private static final List<Target> TARGETS = List.of(
+            new Target("exams", Map.of("date", DocumentCodecs.EXAM_DATE)),
+            new Target("assignments", Map.of("deadline", DocumentCodecs.ASSIGNMENT_DUE_DATE)),
+            new Target("semesters", Map.of(
+                    "startDate", DocumentCodecs.SEMESTER_STARTS_ON,
+                    "endDate", DocumentCodecs.SEMESTER_ENDS_ON)));
+
+    private final boolean enabled;
+    private final int batchSize;
+    private volatile boolean finished;
+
+    public TypedDateMigration(
+            @Value("${stayontrack.migrations.typed-dates.enabled:true}") boolean enabled,
+            @Value("${stayontrack.migrations.typed-dates.batch-size:200}") int batchSize) {
+        this.enabled = enabled;
+        this.batchSize = Math.max(1, Math.min(batchSize, 499));  // one slot left for the checkpoint
+    }
+
+    @Scheduled(initialDelayString = "${stayontrack.migrations.typed-dates.initial-delay:PT30S}",
+            fixedDelayString = "${stayontrack.migrations.typed-dates.retry-interval:PT10M}")
+    public void runScheduled() {
+        if (!enabled || finished) return;
+        try {
+            migrate();
+            finished = true;
+        } catch (Exception e) {
+            System.err.println("⚠️ Typed date migration paused, will resume from its checkpoint: " + e.getMessage());
+        }
+    }
+
+    private void migrate() throws ExecutionException, InterruptedException {
+        Firestore db = FirestoreClient.getFirestore();
+        DocumentReference checkpointRef = db.collection(CHECKPOINTS_COLLECTION).document(CHECKPOINT_ID);
+        DocumentSnapshot checkpoint = checkpointRef.get().get();
+        for (Target target : TARGETS) {
+            if (Boolean.TRUE.equals(checkpoint.get(FieldPath.of(target.collection(), "done")))) continue;
+            String cursor = checkpoint.get(FieldPath.of(target.collection(), "cursor")) instanceof String s ? s : null;
+            int updated = 0;
+            boolean done = false;
+            while (!done) {
+                Query page = db.collection(target.collection()).orderBy(FieldPath.documentId()).limit(batchSize);
+                if (cursor != null) page = page.startAfter(cursor);
+                List<QueryDocumentSnapshot> docs = page.get().get().getDocuments();
+
+                WriteBatch batch = db.batch();
+                for (QueryDocumentSnapshot doc : docs) {
+                    Map<String, Object> copies = missingCopies(doc, target.fields());
+                    if (copies.isEmpty()) continue;
+                    batch.update(doc.getReference(), copies, Precondition.updatedAt(doc.getUpdateTime()));
+                    updated++;
+                }
+                done = docs.size() < batchSize;
+                if (!docs.isEmpty()) cursor = docs.get(docs.size() - 1).getId();
+                Map<String, Object> progress = HashMap.newHashMap(2);
+                progress.put("cursor", cursor);
+                progress.put("done", done);
+                batch.set(checkpointRef, Map.of(target.collection(), progress), SetOptions.merge());
+                batch.commit().get();
+            }
+            System.out.println("📅 Typed date migration: " + target.collection() + " done, " + updated + " document(s) updated");
+        }
+    }
+
+    private static Map<String, Object> missingCopies(DocumentSnapshot doc, Map<String, String> fields) {
+        Map<String, Object> copies = new HashMap<>();
+        fields.forEach((stringField, typedField) -> {
+            if (doc.contains(typedField)) return;
+            LocalDate date = doc.get(stringField) instanceof String s ? DocumentCodecs.parseDate(s) : null;
+            if (date != null) copies.put(typedField, DocumentCodecs.timestamp(date));
+        });
+        return copies;
+    }
+}
@@ -0,0 +1,127 @@
+package com.stayontrack.service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.stayontrack.model.Deadline;
+import com.stayontrack.model.FocusProfile;
+import com.stayontrack.model.Semester;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Read-through cache for the per-user setup data the planner re-reads on almost every call
+ * (deadlines, semesters, focus profiles). Bounded by user count and expired after a TTL;
+ * FirestoreService invalidates entries on every create, update and delete.
+ * Hit rates are published as cache.gets / stayontrack.cache.hit.rate metrics.
+ */
+@Component
+public class UserDataCache {
+
+    private final UserScopedCache<Deadline> deadlines;
+    private final UserScopedCache<Semester> semesters;
+    private final UserScopedCache<FocusProfile> focusProfiles;
+
+    public UserDataCache(MeterRegistry meterRegistry,
+            @Value("${stayontrack.cache.user-data.max-users:10000}") long maxUsers,
+            @Value("${stayontrack.cache.user-data.ttl:10m}") Duration ttl) {
+        this.deadlines = new UserScopedCache<>("userDeadlines", Deadline::getId, maxUsers, ttl, meterRegistry);
+        this.semesters = new UserScopedCache<>("userSemesters", Semester::getId, maxUsers, ttl, meterRegistry);
+        this.focusProfiles = new UserScopedCache<>("userFocusProfiles", FocusProfile::getId, maxUsers, ttl, meterRegistry);
+    }
+
+    public UserScopedCache<Deadline> deadlines() { return deadlines; }
+
+    public UserScopedCache<Semester> semesters() { return semesters; }
+
+    public UserScopedCache<FocusProfile> focusProfiles() { return focusProfiles; }
+
+    /** Drop everything cached for {@code userId}, e.g. after another node wrote for them. */
+    public void invalidateUser(String userId) {
+        deadlines.invalidateUser(userId);
+        semesters.invalidateUser(userId);
+        focusProfiles.invalidateUser(userId);
+    }
+
+    public void invalidateAll() {
+        deadlines.invalidateAll();
+        semesters.invalidateAll();
+        focusProfiles.invalidateAll();
+    }
+
+    /**
+     * One cache of per-user lists. Keeps a docId -> userId index of everything it holds so a
+     * write that only knows the document id (update/delete by id) evicts exactly the owning user.
+     */
+    public static final class UserScopedCache<T> {
+
+        private final AsyncCache<String, List<T>> cache;
+        private final Function<T, String> idOf;
+        private final Map<String, String> ownerByDocId = new ConcurrentHashMap<>();
+
+        UserScopedCache(String name, Function<T, String> idOf, long maxUsers, Duration ttl, MeterRegistry meterRegistry) {
+            this.idOf = idOf;
+            this.cache = Caffeine.newBuilder()
+                    .maximumSize(maxUsers)
+                    .expireAfterWrite(ttl)
+                    .recordStats()
+                    .<String, List<T>>removalListener((userId, list, cause) -> {
+                        if (userId == null || list == null) return;
+                        for (T item : list) {
+                            ownerByDocId.computeIfPresent(idOf.apply(item), (docId, owner) -> dropOwner(owner, userId) ? null : owner);
+                        }
+                    })
+                    .buildAsync();
+            CaffeineCacheMetrics.monitor(meterRegistry, cache.synchronous(), name);
+            Gauge.builder("stayontrack.cache.hit.rate", cache, c -> c.synchronous().stats().hitRate())
+                    .tag("cache", name)
+                    .register(meterRegistry);
+        }
+
+        /**
+         * Whether a removed list's docId -> owner mapping can go. Removal listeners run
+         * asynchronously, possibly after a reload for the same user has re-indexed its documents;
+         * that reload's entry is in the cache before it indexes anything, so while the user has
+         * an entry the mapping is kept (at worst it evicts that user once more than needed).
+         */
+        private boolean dropOwner(String owner, String removedUserId) {
+            return owner.equals(removedUserId) && !cache.asMap().containsKey(removedUserId);
+        }
+
+        /** Concurrent misses for the same user share a single load. Returned lists are immutable. */
+        public CompletableFuture<List<T>> get(String userId, Function<String, CompletableFuture<List<T>>> loader) {
+            return cache.get(userId, (key, executor) -> loader.apply(key).thenApply(list -> {
+                for (T item : list) {
+                    ownerByDocId.put(idOf.apply(item), key);
+                }
+                return List.copyOf(list);
+            }));
+        }
+
+        public void invalidateUser(String userId) {
+            if (userId != null) cache.synchronous().invalidate(userId);
+        }
+
+        public void invalidateAll() {
+            cache.synchronous().invalidateAll();
+        }
+
+        /** Evict whichever user's cached list contains this document; no-op if none does. */
+        public void invalidateDoc(String docId) {
+            if (docId == null) return;
+            String owner = ownerByDocId.remove(docId);
+            if (owner != null) invalidateUser(owner);
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package com.stayontrack.service;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.firebase.cloud.FirestoreClient;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Group commit for FirestoreService's single-document creates, updates and deletes: writes that
+ * arrive from concurrent requests within a few milliseconds of each other are committed together,
+ * so a burst of writes pays for one commit per user instead of one per write.
+ *
+ * A batch is split by owner, so contention on one user's documents cannot abort another user's
+ * writes. Creates name their owner; for updates and deletes one plain getAll of the batch's
+ * documents finds it. Each user's writes then share a transaction that does what each write's own
+ * would (see ChangeVersions and AgendaBuckets): one getAll for the documents being updated or
+ * deleted and one for the agendas they touch, then every write at once, stamped with the commit's
+ * change version, plus the user's change marker. Each caller's future completes when its user's
+ * commit does.
+ *
+ * A batch is capped by the writes it can expand to, not by the number of callers: each write may
+ * add a tombstone, its owner's marker and up to two agenda updates, and a commit takes at most
+ * 500 writes. An update of a missing document, and every write of a transaction that fails, is
+ * retried in its own transaction, so callers see the same results and errors as without
+ * coalescing. A batch holds at most one write per document; a second one waits for the next
+ * batch. Group commits are charged to the background endpoint in FirestoreCostLedger. Off by
+ * default.
+ */
+@Component
+public class WriteCoalescer {
+
+    enum Kind { CREATE, UPDATE, DELETE }
+
+    /** Firestore's limit on the writes in one commit. */
+    static final int MAX_COMMIT_WRITES = 500;
+
+    /** Agenda changes a write makes, given the document's stored fields before and after it. */
+    @FunctionalInterface
+    interface AgendaChanges {
+        List<AgendaBuckets.Change> of(Map<String, Object> before, Map<String, Object> after);
+    }
+
+    /**
+     * A committed write: the document's owner, and the update time of the version it replaced
+     * (null for a create), which MaterializedUserState uses to tell when its view has caught up.
+     */
+    record Written(String userId, Timestamp before) {}
+
+    /** A write waiting for the next batch. Its result is null if there was nothing to write. */
+    private static final class Pending {
+        final Kind kind;
+        final String collection;
+        final DocumentReference ref;
+        final Map<String, Object> data;
+        final AgendaChanges agenda;
+        final Supplier<CompletableFuture<Written>> alone;
+        /** Writes this one can expand to in a commit: itself, a tombstone, its owner's marker, two agendas. */
+        final int cost;
+        final FirestoreCostLedger.Usage usage = FirestoreCostLedger.current();
+        final CompletableFuture<Written> result = new CompletableFuture<>();
+
+        Pending(Kind kind, String collection, DocumentReference ref, Map<String, Object> data,
+                AgendaChanges agenda, Supplier<CompletableFuture<Written>> alone) {
+            this.kind = kind;
+            this.collection = collection;
+            this.ref = ref;
+            this.data = data;
+            this.agenda = agenda;
+            this.alone = alone;
+            this.cost = 1 + (kind == Kind.DELETE ? 1 : 0) + 1 + (AgendaBuckets.typeOf(collection) != null ? 2 : 0);
+        }
+    }
+
+    /** What a batch's transaction decided: the result of each committed write, and the writes left to run alone. */
+    private record Outcome(Map<Pending, Written> committed, List<Pending> alone) {}
+
+    private final boolean enabled;
+    private final int maxWrites;
+    private final Executor afterWindow;
+    private final DistributionSummary batchSizes;
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private int pendingCost;
+    private boolean scheduled;
+
+    public WriteCoalescer(MeterRegistry meterRegistry,
+            @Value("${stayontrack.firestore.group-commit.enabled:false}") boolean enabled,
+            @Value("${stayontrack.firestore.group-commit.window:5ms}") Duration window,
+            @Value("${stayontrack.firestore.group-commit.max-writes:500}") int maxWrites) {
+        this.enabled = enabled;
+        this.maxWrites = Math.max(1, Math.min(maxWrites, MAX_COMMIT_WRITES));
+        this.afterWindow = CompletableFuture.delayedExecutor(window.toNanos(), TimeUnit.NANOSECONDS);
+        this.batchSizes = DistributionSummary.builder("stayontrack.firestore.group.commit.writes")
+                .description("Callers' writes committed together per user transaction")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queue a write for the next group commit. {@code alone} runs the same write in its own
+     * transaction and must resolve to the same result.
+     */
+    CompletableFuture<Written> submit(Kind kind, String collection, DocumentReference ref, Map<String, Object> data,
+            AgendaChanges agenda, Supplier<CompletableFuture<Written>> alone) {
+        Pending write = new Pending(kind, collection, ref, data, agenda, alone);
+        boolean full;
+        synchronized (pending) {
+            pending.add(write);
+            pendingCost += write.cost;
+            full = pendingCost >= maxWrites;
+            if (!full && !scheduled) {
+                scheduled = true;
+                CompletableFuture.runAsync(this::flush, afterWindow);
+            }
+        }
+        if (full) flush();
+        return write.result;
+    }
+
+    /**
+     * Commit what is queued now, up to maxWrites expanded writes (but always at least one write);
+     * anything left over (a full batch, repeated documents) goes next.
+     */
+    private void flush() {
+        List<Pending> batch = new ArrayList<>();
+        synchronized (pending) {
+            scheduled = false;
+            Set<String> paths = new HashSet<>();
+            int cost = 0;
+            for (Iterator<Pending> it = pending.iterator(); it.hasNext(); ) {
+                Pending write = it.next();
+                if (!batch.isEmpty() && cost + write.cost > maxWrites) break;
+                if (!paths.add(write.ref.getPath())) continue;
+                it.remove();
+                pendingCost -= write.cost;
+                cost += write.cost;
+                batch.add(write);
+            }
+            if (!pending.isEmpty() && !scheduled) {
+                scheduled = true;
+                CompletableFuture.runAsync(this::flush);
+            }
+        }
+        if (!batch.isEmpty()) commit(batch);
+    }
+
+    /** Find the owners of the batch's updates and deletes, then commit each user's writes. */
+    private void commit(List<Pending> batch) {
+        Firestore db = FirestoreClient.getFirestore();
+        List<DocumentReference> stored = new ArrayList<>();
+        for (Pending write : batch) {
+            if (write.kind != Kind.CREATE) stored.add(write.ref);
+        }
+        if (stored.isEmpty()) {
+            commitPerUser(db, batch, Map.of());
+            return;
+        }
+        ApiFutures.addCallback(db.getAll(stored.toArray(new DocumentReference[0])), new ApiFutureCallback<List<DocumentSnapshot>>() {
+            @Override
+            public void onSuccess(List<DocumentSnapshot> docs) {
+                Map<String, String> owners = new HashMap<>();
+                for (DocumentSnapshot doc : docs) {
+                    if (doc.exists()) owners.put(doc.getReference().getPath(), doc.getString("userId"));
+                }
+                commitPerUser(db, batch, owners);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                System.err.println("⚠️ Group commit of " + batch.size() + " writes could not read them, committing them one by one: " + t.getMessage());
+                batch.forEach(WriteCoalescer::runAlone);
+            }
+        }, Runnable::run);
+    }
+
+    /**
+     * One transaction per owner. Writes whose document was missing when read share the null group;
+     * their transaction reads them again and decides.
+     */
+    private void commitPerUser(Firestore db, List<Pending> batch, Map<String, String> owners) {
+        Map<String, List<Pending>> byUser = new LinkedHashMap<>();
+        for (Pending write : batch) {
+            String userId = write.kind == Kind.CREATE ? (String) write.data.get("userId") : owners.get(write.ref.getPath());
+            byUser.computeIfAbsent(userId, u -> new ArrayList<>()).add(write);
+        }
+        byUser.values().forEach(writes -> commitTogether(db, writes));
+    }
+
+    private void commitTogether(Firestore db, List<Pending> batch) {
+        batchSizes.record(batch.size());
+        ApiFutures.addCallback(db.runTransaction(tx -> {
+            List<DocumentReference> reads = new ArrayList<>();
+            for (Pending write : batch) {
+                if (write.kind != Kind.CREATE) reads.add(write.ref);
+            }
+            Map<String, DocumentSnapshot> stored = new HashMap<>();
+            if (!reads.isEmpty()) {
+                for (DocumentSnapshot doc : tx.getAll(reads.toArray(new DocumentReference[0])).get()) {
+                    stored.put(doc.getReference().getPath(), doc);
+                }
+            }
+
+            Map<Pending, Written> committed = new LinkedHashMap<>();
+            List<Pending> alone = new ArrayList<>();
+            List<AgendaBuckets.Change> changes = new ArrayList<>();
+            for (Pending write : batch) {
+                DocumentSnapshot current = stored.get(write.ref.getPath());
+                switch (write.kind) {
+                    case CREATE -> {
+                        committed.put(write, new Written((String) write.data.get("userId"), null));
+                        changes.addAll(write.agenda.of(null, new HashMap<>(write.data)));
+                    }
+                    case UPDATE -> {
+                        if (!current.exists()) {
+                            alone.add(write);  // fails there with NOT_FOUND, as it would have anyway
+                            continue;
+                        }
+                        committed.put(write, new Written(current.getString("userId"), current.getUpdateTime()));
+                        changes.addAll(write.agenda.of(current.getData(), AgendaBuckets.merged(current.getData(), write.data)));
+                    }
+                    case DELETE -> {
+                        committed.put(write, current.exists() ? new Written(current.getString("userId"), current.getUpdateTime()) : null);
+                        if (current.exists()) changes.addAll(write.agenda.of(current.getData(), null));
+                    }
+                }
+            }
+
+            AgendaBuckets.Edit agenda = AgendaBuckets.read(tx, db, changes);
+            List<String> owners = new ArrayList<>();
+            committed.values().forEach(written -> owners.add(written != null ? written.userId() : null));
+            Map<String, FieldValue> versions = ChangeVersions.mark(tx, db, owners);
+            committed.forEach((write, written) -> {
+                String userId = written != null ? written.userId() : null;
+                FieldValue version = userId != null ? versions.get(userId) : null;
+                switch (write.kind) {
+                    case CREATE -> tx.create(write.ref, stamp(write.data, version));
+                    case UPDATE -> tx.update(write.ref, stamp(write.data, version));
+                    case DELETE -> {
+                        if (!stored.get(write.ref.getPath()).exists()) return;
+                        tx.delete(write.ref);
+                        if (version != null) ChangeVersions.tombstone(tx, db, userId, write.collection, write.ref.getId(), version);
+                    }
+                }
+            });
+            agenda.write();
+            return new Outcome(committed, alone);
+        }), new ApiFutureCallback<Outcome>() {
+            @Override
+            public void onSuccess(Outcome outcome) {
+                outcome.committed().forEach(WriteCoalescer::complete);
+                outcome.alone().forEach(WriteCoalescer::runAlone);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                System.err.println("⚠️ Group commit of " + batch.size() + " writes failed, committing them one by one: " + t.getMessage());
+                batch.forEach(WriteCoalescer::runAlone);
+            }
+        }, Runnable::run);
+    }
+
+    private static Map<String, Object> stamp(Map<String, Object> data, FieldValue version) {
+        Map<String, Object> copy = new HashMap<>(data);  // the write may still run alone
+        if (version != null) copy.put(ChangeVersions.FIELD, version);
+        return copy;
+    }
+
+    /** Complete with the caller's usage bound, as FirestoreFutures does, so its follow-up reads are charged to it. */
+    private static void complete(Pending write, Written written) {
+        FirestoreCostLedger.Scope scope = FirestoreCostLedger.bind(write.usage);
+        try {
+            write.result.complete(written);
+        } finally {
+            scope.close();
+        }
+    }
+
+    private static void runAlone(Pending write) {
+        FirestoreCostLedger.Scope scope = FirestoreCostLedger.bind(write.usage);
+        try {
+            write.alone.get().whenComplete((written, e) -> {
+                if (e != null) write.result.completeExceptionally(e); else write.result.complete(written);
+            });
+        } finally {
+            scope.close();
+        }
+    }
+
+    @PreDestroy
+    void close() {
+        if (!enabled) return;
+        while (true) {
+            synchronized (pending) {
+                if (pending.isEmpty()) return;
+            }
+            flush();  // callers still waiting get their commit started; it is not awaited
+        }
+    }
+}
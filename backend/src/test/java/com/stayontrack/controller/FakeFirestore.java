@@ -0,0 +1,640 @@
+package com.stayontrack.controller;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.firestore.v1.AggregationResult;
+import com.google.firestore.v1.ArrayValue;
+import com.google.firestore.v1.BatchGetDocumentsRequest;
+import com.google.firestore.v1.BatchGetDocumentsResponse;
+import com.google.firestore.v1.BeginTransactionRequest;
+import com.google.firestore.v1.BeginTransactionResponse;
+import com.google.firestore.v1.CommitRequest;
+import com.google.firestore.v1.CommitResponse;
+import com.google.firestore.v1.Cursor;
+import com.google.firestore.v1.Document;
+import com.google.firestore.v1.DocumentTransform;
+import com.google.firestore.v1.MapValue;
+import com.google.firestore.v1.Precondition;
+import com.google.firestore.v1.RollbackRequest;
+import com.google.firestore.v1.RunAggregationQueryRequest;
+import com.google.firestore.v1.RunAggregationQueryResponse;
+import com.google.firestore.v1.RunQueryRequest;
+import com.google.firestore.v1.RunQueryResponse;
+import com.google.firestore.v1.StructuredAggregationQuery;
+import com.google.firestore.v1.StructuredQuery;
+import com.google.firestore.v1.Value;
+import com.google.firestore.v1.Write;
+import com.google.firestore.v1.WriteResult;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Empty;
+import com.google.protobuf.Message;
+import com.google.protobuf.Timestamp;
+
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * In-memory Firestore backend speaking the v1 gRPC API, so tests can run the real Firestore
+ * client (and everything metering it) against it. Covers what this app sends: point reads,
+ * queries (field and composite filters, ordering, cursors, offset/limit, projections), count
+ * aggregations, transactions, and commits with preconditions and field transforms.
+ *
+ * Transactions are not isolated: reads see the latest commit and commits never abort. That is
+ * enough for tests that drive one request at a time. The service is registered from the v1
+ * protos directly, so the generated gRPC stubs are not needed; other RPCs answer UNIMPLEMENTED.
+ */
+final class FakeFirestore {
+
+    private static final String SERVICE = "google.firestore.v1.Firestore";
+
+    static final String PROJECT = "stayontrack-test";
+    static final String ROOT = "projects/" + PROJECT + "/databases/(default)/documents";
+
+    private static final String NAME_FIELD = "__name__";
+
+    private final ConcurrentSkipListMap<String, Document> documents = new ConcurrentSkipListMap<>();
+    private final AtomicLong transactions = new AtomicLong();
+    private final AtomicLong lastMicros = new AtomicLong();
+    private final Server server;
+
+    private FakeFirestore() throws IOException {
+        server = ServerBuilder.forPort(0).addService(service()).build().start();
+    }
+
+    private ServerServiceDefinition service() {
+        return ServerServiceDefinition.builder(SERVICE)
+                .addMethod(method("BatchGetDocuments", MethodDescriptor.MethodType.SERVER_STREAMING,
+                                BatchGetDocumentsRequest.getDefaultInstance(), BatchGetDocumentsResponse.getDefaultInstance()),
+                        ServerCalls.asyncServerStreamingCall(this::batchGetDocuments))
+                .addMethod(method("RunQuery", MethodDescriptor.MethodType.SERVER_STREAMING,
+                                RunQueryRequest.getDefaultInstance(), RunQueryResponse.getDefaultInstance()),
+                        ServerCalls.asyncServerStreamingCall(this::runQuery))
+                .addMethod(method("RunAggregationQuery", MethodDescriptor.MethodType.SERVER_STREAMING,
+                                RunAggregationQueryRequest.getDefaultInstance(), RunAggregationQueryResponse.getDefaultInstance()),
+                        ServerCalls.asyncServerStreamingCall(this::runAggregationQuery))
+                .addMethod(method("BeginTransaction", MethodDescriptor.MethodType.UNARY,
+                                BeginTransactionRequest.getDefaultInstance(), BeginTransactionResponse.getDefaultInstance()),
+                        ServerCalls.asyncUnaryCall(this::beginTransaction))
+                .addMethod(method("Rollback", MethodDescriptor.MethodType.UNARY,
+                                RollbackRequest.getDefaultInstance(), Empty.getDefaultInstance()),
+                        ServerCalls.asyncUnaryCall(this::rollback))
+                .addMethod(method("Commit", MethodDescriptor.MethodType.UNARY,
+                                CommitRequest.getDefaultInstance(), CommitResponse.getDefaultInstance()),
+                        ServerCalls.asyncUnaryCall(this::commit))
+                .build();
+    }
+
+    private static <Q extends Message, R extends Message> MethodDescriptor<Q, R> method(String name,
+            MethodDescriptor.MethodType type, Q request, R response) {
+        return MethodDescriptor.<Q, R>newBuilder()
+                .setType(type)
+                .setFullMethodName(MethodDescriptor.generateFullMethodName(SERVICE, name))
+                .setRequestMarshaller(ProtoUtils.marshaller(request))
+                .setResponseMarshaller(ProtoUtils.marshaller(response))
+                .build();
+    }
+
+    /** Start a backend on a free local port; it runs until the JVM exits. */
+    static FakeFirestore start() {
+        try {
+            FakeFirestore fake = new FakeFirestore();
+            Runtime.getRuntime().addShutdownHook(new Thread(fake.server::shutdownNow));
+            return fake;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    int port() {
+        return server.getPort();
+    }
+
+    /** Documents directly in {@code collectionId} whose userId field is {@code userId}. */
+    int count(String collectionId, String userId) {
+        String prefix = ROOT + "/" + collectionId + "/";
+        int count = 0;
+        for (Document doc : documents.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+            Value owner = doc.getFieldsMap().get("userId");
+            if (doc.getName().indexOf('/', prefix.length()) < 0 && owner != null && userId.equals(owner.getStringValue())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // ---- RPCs ----
+
+    void batchGetDocuments(BatchGetDocumentsRequest request, StreamObserver<BatchGetDocumentsResponse> response) {
+        ByteString transaction = request.getConsistencySelectorCase() == BatchGetDocumentsRequest.ConsistencySelectorCase.NEW_TRANSACTION
+                ? newTransaction() : ByteString.EMPTY;
+        Timestamp readTime = now();
+        for (String name : request.getDocumentsList()) {
+            BatchGetDocumentsResponse.Builder result = BatchGetDocumentsResponse.newBuilder()
+                    .setReadTime(readTime)
+                    .setTransaction(transaction);
+            Document doc = documents.get(name);
+            if (doc == null) {
+                result.setMissing(name);
+            } else {
+                result.setFound(request.hasMask() ? project(doc, request.getMask().getFieldPathsList()) : doc);
+            }
+            response.onNext(result.build());
+            transaction = ByteString.EMPTY;  // only the first response carries it
+        }
+        if (!transaction.isEmpty()) {
+            response.onNext(BatchGetDocumentsResponse.newBuilder().setReadTime(readTime).setTransaction(transaction).build());
+        }
+        response.onCompleted();
+    }
+
+    void runQuery(RunQueryRequest request, StreamObserver<RunQueryResponse> response) {
+        ByteString transaction = request.getConsistencySelectorCase() == RunQueryRequest.ConsistencySelectorCase.NEW_TRANSACTION
+                ? newTransaction() : ByteString.EMPTY;
+        List<Document> results;
+        try {
+            results = query(request.getParent(), request.getStructuredQuery());
+        } catch (StatusRuntimeException e) {
+            response.onError(e);
+            return;
+        }
+        Timestamp readTime = now();
+        if (results.isEmpty()) {
+            response.onNext(RunQueryResponse.newBuilder().setReadTime(readTime).setTransaction(transaction).build());
+        }
+        for (Document doc : results) {
+            response.onNext(RunQueryResponse.newBuilder().setDocument(doc).setReadTime(readTime).setTransaction(transaction).build());
+            transaction = ByteString.EMPTY;
+        }
+        response.onCompleted();
+    }
+
+    void runAggregationQuery(RunAggregationQueryRequest request, StreamObserver<RunAggregationQueryResponse> response) {
+        ByteString transaction = request.getConsistencySelectorCase() == RunAggregationQueryRequest.ConsistencySelectorCase.NEW_TRANSACTION
+                ? newTransaction() : ByteString.EMPTY;
+        StructuredAggregationQuery aggregation = request.getStructuredAggregationQuery();
+        AggregationResult.Builder result = AggregationResult.newBuilder();
+        try {
+            int matched = query(request.getParent(), aggregation.getStructuredQuery()).size();
+            for (StructuredAggregationQuery.Aggregation a : aggregation.getAggregationsList()) {
+                if (!a.hasCount()) throw Status.UNIMPLEMENTED.withDescription("only count() is supported").asRuntimeException();
+                long count = a.getCount().hasUpTo() ? Math.min(matched, a.getCount().getUpTo().getValue()) : matched;
+                result.putAggregateFields(a.getAlias(), Value.newBuilder().setIntegerValue(count).build());
+            }
+        } catch (StatusRuntimeException e) {
+            response.onError(e);
+            return;
+        }
+        response.onNext(RunAggregationQueryResponse.newBuilder()
+                .setResult(result)
+                .setReadTime(now())
+                .setTransaction(transaction)
+                .build());
+        response.onCompleted();
+    }
+
+    void beginTransaction(BeginTransactionRequest request, StreamObserver<BeginTransactionResponse> response) {
+        response.onNext(BeginTransactionResponse.newBuilder().setTransaction(newTransaction()).build());
+        response.onCompleted();
+    }
+
+    void rollback(RollbackRequest request, StreamObserver<Empty> response) {
+        response.onNext(Empty.getDefaultInstance());
+        response.onCompleted();
+    }
+
+    void commit(CommitRequest request, StreamObserver<CommitResponse> response) {
+        CommitResponse.Builder result = CommitResponse.newBuilder();
+        synchronized (documents) {
+            Timestamp commitTime = now();
+            result.setCommitTime(commitTime);
+            Map<String, Document> staged = new HashMap<>();  // null marks a delete
+            try {
+                for (Write write : request.getWritesList()) result.addWriteResults(apply(write, staged, commitTime));
+            } catch (StatusRuntimeException e) {
+                response.onError(e);
+                return;
+            }
+            staged.forEach((name, doc) -> {
+                if (doc == null) documents.remove(name); else documents.put(name, doc);
+            });
+        }
+        response.onNext(result.build());
+        response.onCompleted();
+    }
+
+    // ---- writes ----
+
+    private WriteResult apply(Write write, Map<String, Document> staged, Timestamp now) {
+        boolean delete = write.getOperationCase() == Write.OperationCase.DELETE;
+        if (!delete && write.getOperationCase() != Write.OperationCase.UPDATE) {
+            throw Status.UNIMPLEMENTED.withDescription(write.getOperationCase().name()).asRuntimeException();
+        }
+        String name = delete ? write.getDelete() : write.getUpdate().getName();
+        Document existing = staged.containsKey(name) ? staged.get(name) : documents.get(name);
+        if (write.hasCurrentDocument()) check(write.getCurrentDocument(), name, existing);
+
+        WriteResult.Builder result = WriteResult.newBuilder().setUpdateTime(now);
+        if (delete) {
+            staged.put(name, null);
+            return result.build();
+        }
+
+        Map<String, Value> fields = new HashMap<>();
+        if (write.hasUpdateMask()) {
+            if (existing != null) fields.putAll(existing.getFieldsMap());
+            for (String path : write.getUpdateMask().getFieldPathsList()) {
+                List<String> segments = segments(path);
+                set(fields, segments, get(write.getUpdate().getFieldsMap(), segments));  // absent: FieldValue.delete()
+            }
+        } else {
+            fields.putAll(write.getUpdate().getFieldsMap());
+        }
+        for (DocumentTransform.FieldTransform transform : write.getUpdateTransformsList()) {
+            List<String> segments = segments(transform.getFieldPath());
+            Value value = transform(transform, get(fields, segments), now);
+            set(fields, segments, value);
+            result.addTransformResults(value);
+        }
+        staged.put(name, Document.newBuilder()
+                .setName(name)
+                .putAllFields(fields)
+                .setCreateTime(existing != null ? existing.getCreateTime() : now)
+                .setUpdateTime(now)
+                .build());
+        return result.build();
+    }
+
+    private static void check(Precondition precondition, String name, Document existing) {
+        switch (precondition.getConditionTypeCase()) {
+            case EXISTS -> {
+                if (precondition.getExists() && existing == null) {
+                    throw Status.NOT_FOUND.withDescription("No document to update: " + name).asRuntimeException();
+                }
+                if (!precondition.getExists() && existing != null) {
+                    throw Status.ALREADY_EXISTS.withDescription("Document already exists: " + name).asRuntimeException();
+                }
+            }
+            case UPDATE_TIME -> {
+                if (existing == null || !existing.getUpdateTime().equals(precondition.getUpdateTime())) {
+                    throw Status.FAILED_PRECONDITION.withDescription("Stale update time: " + name).asRuntimeException();
+                }
+            }
+            default -> { }
+        }
+    }
+
+    private static Value transform(DocumentTransform.FieldTransform transform, Value current, Timestamp now) {
+        return switch (transform.getTransformTypeCase()) {
+            case SET_TO_SERVER_VALUE -> Value.newBuilder().setTimestampValue(now).build();
+            case INCREMENT -> {
+                Value operand = transform.getIncrement();
+                if (current == null || !isNumber(current)) yield operand;
+                if (isInteger(current) && isInteger(operand)) {
+                    yield Value.newBuilder().setIntegerValue(current.getIntegerValue() + operand.getIntegerValue()).build();
+                }
+                yield Value.newBuilder().setDoubleValue(asDouble(current) + asDouble(operand)).build();
+            }
+            case MAXIMUM -> current != null && isNumber(current) && compare(current, transform.getMaximum()) >= 0
+                    ? current : transform.getMaximum();
+            case MINIMUM -> current != null && isNumber(current) && compare(current, transform.getMinimum()) <= 0
+                    ? current : transform.getMinimum();
+            case APPEND_MISSING_ELEMENTS -> {
+                List<Value> values = new ArrayList<>(current != null && current.hasArrayValue()
+                        ? current.getArrayValue().getValuesList() : List.of());
+                for (Value v : transform.getAppendMissingElements().getValuesList()) {
+                    if (values.stream().noneMatch(e -> compare(e, v) == 0)) values.add(v);
+                }
+                yield array(values);
+            }
+            case REMOVE_ALL_FROM_ARRAY -> {
+                List<Value> values = new ArrayList<>(current != null && current.hasArrayValue()
+                        ? current.getArrayValue().getValuesList() : List.of());
+                List<Value> removed = transform.getRemoveAllFromArray().getValuesList();
+                values.removeIf(e -> removed.stream().anyMatch(v -> compare(e, v) == 0));
+                yield array(values);
+            }
+            default -> throw Status.UNIMPLEMENTED.withDescription(transform.getTransformTypeCase().name()).asRuntimeException();
+        };
+    }
+
+    // ---- queries ----
+
+    private List<Document> query(String parent, StructuredQuery query) {
+        if (query.getFromCount() != 1) throw Status.UNIMPLEMENTED.withDescription("one collection per query").asRuntimeException();
+        StructuredQuery.CollectionSelector from = query.getFrom(0);
+        List<StructuredQuery.Order> orders = orders(query);
+
+        List<Document> results = new ArrayList<>();
+        for (Document doc : documents.tailMap(parent + "/").values()) {
+            if (!doc.getName().startsWith(parent + "/")) break;
+            if (!inCollection(doc.getName(), parent, from)) continue;
+            if (query.hasWhere() && !matches(doc, query.getWhere())) continue;
+            // Ordering by a field leaves out documents that do not have it
+            if (orders.stream().anyMatch(o -> field(doc, o.getField().getFieldPath()) == null)) continue;
+            results.add(doc);
+        }
+        results.sort((a, b) -> compare(a, b, orders));
+        if (query.hasStartAt()) results.removeIf(doc -> {
+            int c = compare(doc, query.getStartAt(), orders);
+            return query.getStartAt().getBefore() ? c < 0 : c <= 0;
+        });
+        if (query.hasEndAt()) results.removeIf(doc -> {
+            int c = compare(doc, query.getEndAt(), orders);
+            return query.getEndAt().getBefore() ? c >= 0 : c > 0;
+        });
+
+        int fromIndex = Math.min(query.getOffset(), results.size());
+        int toIndex = query.hasLimit() ? Math.min(results.size(), fromIndex + query.getLimit().getValue()) : results.size();
+        List<Document> page = results.subList(fromIndex, toIndex);
+        if (!query.hasSelect()) return new ArrayList<>(page);
+        List<String> paths = query.getSelect().getFieldsList().stream().map(StructuredQuery.FieldReference::getFieldPath).toList();
+        return page.stream().map(doc -> project(doc, paths)).toList();
+    }
+
+    /** Explicit orders, else inequality fields; then the document name, as the backend does. */
+    private static List<StructuredQuery.Order> orders(StructuredQuery query) {
+        List<StructuredQuery.Order> orders = new ArrayList<>(query.getOrderByList());
+        if (orders.isEmpty() && query.hasWhere()) {
+            List<String> inequalities = new ArrayList<>();
+            collectInequalities(query.getWhere(), inequalities);
+            inequalities.stream().distinct().sorted().forEach(path -> orders.add(order(path, StructuredQuery.Direction.ASCENDING)));
+        }
+        boolean named = orders.stream().anyMatch(o -> NAME_FIELD.equals(o.getField().getFieldPath()));
+        if (!named) {
+            StructuredQuery.Direction direction = orders.isEmpty()
+                    ? StructuredQuery.Direction.ASCENDING : orders.get(orders.size() - 1).getDirection();
+            orders.add(order(NAME_FIELD, direction));
+        }
+        return orders;
+    }
+
+    private static void collectInequalities(StructuredQuery.Filter filter, List<String> paths) {
+        switch (filter.getFilterTypeCase()) {
+            case COMPOSITE_FILTER -> filter.getCompositeFilter().getFiltersList().forEach(f -> collectInequalities(f, paths));
+            case FIELD_FILTER -> {
+                switch (filter.getFieldFilter().getOp()) {
+                    case LESS_THAN, LESS_THAN_OR_EQUAL, GREATER_THAN, GREATER_THAN_OR_EQUAL, NOT_EQUAL, NOT_IN ->
+                            paths.add(filter.getFieldFilter().getField().getFieldPath());
+                    default -> { }
+                }
+            }
+            default -> { }
+        }
+    }
+
+    private static StructuredQuery.Order order(String path, StructuredQuery.Direction direction) {
+        return StructuredQuery.Order.newBuilder()
+                .setField(StructuredQuery.FieldReference.newBuilder().setFieldPath(path))
+                .setDirection(direction)
+                .build();
+    }
+
+    private static boolean inCollection(String name, String parent, StructuredQuery.CollectionSelector from) {
+        String rest = name.substring(parent.length() + 1);
+        String[] segments = rest.split("/");
+        if (segments.length < 2 || segments.length % 2 != 0) return false;
+        if (from.getAllDescendants()) return from.getCollectionId().equals(segments[segments.length - 2]);
+        return segments.length == 2 && from.getCollectionId().equals(segments[0]);
+    }
+
+    private static boolean matches(Document doc, StructuredQuery.Filter filter) {
+        return switch (filter.getFilterTypeCase()) {
+            case COMPOSITE_FILTER -> {
+                StructuredQuery.CompositeFilter composite = filter.getCompositeFilter();
+                yield composite.getOp() == StructuredQuery.CompositeFilter.Operator.OR
+                        ? composite.getFiltersList().stream().anyMatch(f -> matches(doc, f))
+                        : composite.getFiltersList().stream().allMatch(f -> matches(doc, f));
+            }
+            case FIELD_FILTER -> matches(doc, filter.getFieldFilter());
+            case UNARY_FILTER -> {
+                StructuredQuery.UnaryFilter unary = filter.getUnaryFilter();
+                Value value = field(doc, unary.getField().getFieldPath());
+                if (value == null) yield false;
+                yield switch (unary.getOp()) {
+                    case IS_NULL -> isNull(value);
+                    case IS_NOT_NULL -> !isNull(value);
+                    case IS_NAN -> isDouble(value) && Double.isNaN(value.getDoubleValue());
+                    case IS_NOT_NAN -> !(isDouble(value) && Double.isNaN(value.getDoubleValue()));
+                    default -> throw Status.UNIMPLEMENTED.withDescription(unary.getOp().name()).asRuntimeException();
+                };
+            }
+            default -> true;
+        };
+    }
+
+    private static boolean matches(Document doc, StructuredQuery.FieldFilter filter) {
+        Value actual = field(doc, filter.getField().getFieldPath());
+        Value operand = filter.getValue();
+        if (actual == null) return false;
+        return switch (filter.getOp()) {
+            case EQUAL -> compare(actual, operand) == 0;
+            case NOT_EQUAL -> !isNull(actual) && compare(actual, operand) != 0;
+            case LESS_THAN -> typeOrder(actual) == typeOrder(operand) && compare(actual, operand) < 0;
+            case LESS_THAN_OR_EQUAL -> typeOrder(actual) == typeOrder(operand) && compare(actual, operand) <= 0;
+            case GREATER_THAN -> typeOrder(actual) == typeOrder(operand) && compare(actual, operand) > 0;
+            case GREATER_THAN_OR_EQUAL -> typeOrder(actual) == typeOrder(operand) && compare(actual, operand) >= 0;
+            case ARRAY_CONTAINS -> actual.hasArrayValue() && contains(actual.getArrayValue(), operand);
+            case ARRAY_CONTAINS_ANY -> actual.hasArrayValue()
+                    && operand.getArrayValue().getValuesList().stream().anyMatch(v -> contains(actual.getArrayValue(), v));
+            case IN -> contains(operand.getArrayValue(), actual);
+            case NOT_IN -> !isNull(actual) && !contains(operand.getArrayValue(), actual);
+            default -> throw Status.UNIMPLEMENTED.withDescription(filter.getOp().name()).asRuntimeException();
+        };
+    }
+
+    private static boolean contains(ArrayValue array, Value value) {
+        return array.getValuesList().stream().anyMatch(v -> compare(v, value) == 0);
+    }
+
+    private static int compare(Document a, Document b, List<StructuredQuery.Order> orders) {
+        for (StructuredQuery.Order order : orders) {
+            int c = compare(field(a, order.getField().getFieldPath()), field(b, order.getField().getFieldPath()));
+            if (c != 0) return order.getDirection() == StructuredQuery.Direction.DESCENDING ? -c : c;
+        }
+        return 0;
+    }
+
+    /** Position of {@code doc} relative to a cursor: negative if it sorts before it. */
+    private static int compare(Document doc, Cursor cursor, List<StructuredQuery.Order> orders) {
+        for (int i = 0; i < cursor.getValuesCount() && i < orders.size(); i++) {
+            StructuredQuery.Order order = orders.get(i);
+            int c = compare(field(doc, order.getField().getFieldPath()), cursor.getValues(i));
+            if (c != 0) return order.getDirection() == StructuredQuery.Direction.DESCENDING ? -c : c;
+        }
+        return 0;
+    }
+
+    private static Document project(Document doc, List<String> paths) {
+        Map<String, Value> fields = new HashMap<>();
+        for (String path : paths) {
+            if (NAME_FIELD.equals(path)) continue;
+            List<String> segments = segments(path);
+            Value value = get(doc.getFieldsMap(), segments);
+            if (value != null) set(fields, segments, value);
+        }
+        return doc.toBuilder().clearFields().putAllFields(fields).build();
+    }
+
+    // ---- values ----
+
+    private static Value field(Document doc, String path) {
+        if (NAME_FIELD.equals(path)) return Value.newBuilder().setReferenceValue(doc.getName()).build();
+        return get(doc.getFieldsMap(), segments(path));
+    }
+
+    /** Split a field path into names; segments may be `quoted` when they are not plain identifiers. */
+    private static List<String> segments(String path) {
+        List<String> segments = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '\\' && quoted && i + 1 < path.length()) {
+                current.append(path.charAt(++i));
+            } else if (c == '`') {
+                quoted = !quoted;
+            } else if (c == '.' && !quoted) {
+                segments.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        segments.add(current.toString());
+        return segments;
+    }
+
+    private static Value get(Map<String, Value> fields, List<String> path) {
+        Value value = fields.get(path.get(0));
+        if (value == null || path.size() == 1) return value;
+        return value.hasMapValue() ? get(value.getMapValue().getFieldsMap(), path.subList(1, path.size())) : null;
+    }
+
+    /** Set the value at {@code path}, creating maps on the way; a null value removes it. */
+    private static void set(Map<String, Value> fields, List<String> path, Value value) {
+        String head = path.get(0);
+        if (path.size() == 1) {
+            if (value == null) fields.remove(head); else fields.put(head, value);
+            return;
+        }
+        Value child = fields.get(head);
+        if (value == null && (child == null || !child.hasMapValue())) return;
+        Map<String, Value> nested = new HashMap<>(child != null && child.hasMapValue() ? child.getMapValue().getFieldsMap() : Map.of());
+        set(nested, path.subList(1, path.size()), value);
+        fields.put(head, Value.newBuilder().setMapValue(MapValue.newBuilder().putAllFields(nested)).build());
+    }
+
+    private static Value array(List<Value> values) {
+        return Value.newBuilder().setArrayValue(ArrayValue.newBuilder().addAllValues(values)).build();
+    }
+
+    private static boolean isInteger(Value v) {
+        return v.getValueTypeCase() == Value.ValueTypeCase.INTEGER_VALUE;
+    }
+
+    private static boolean isDouble(Value v) {
+        return v.getValueTypeCase() == Value.ValueTypeCase.DOUBLE_VALUE;
+    }
+
+    private static boolean isNull(Value v) {
+        return v.getValueTypeCase() == Value.ValueTypeCase.NULL_VALUE;
+    }
+
+    private static boolean isNumber(Value v) {
+        return isInteger(v) || isDouble(v);
+    }
+
+    private static double asDouble(Value v) {
+        return isInteger(v) ? v.getIntegerValue() : v.getDoubleValue();
+    }
+
+    /** Firestore's cross-type order: null, booleans, numbers, timestamps, strings, bytes, references, geo points, arrays, maps. */
+    private static int typeOrder(Value v) {
+        return switch (v.getValueTypeCase()) {
+            case NULL_VALUE -> 0;
+            case BOOLEAN_VALUE -> 1;
+            case INTEGER_VALUE, DOUBLE_VALUE -> 2;
+            case TIMESTAMP_VALUE -> 3;
+            case STRING_VALUE -> 4;
+            case BYTES_VALUE -> 5;
+            case REFERENCE_VALUE -> 6;
+            case GEO_POINT_VALUE -> 7;
+            case ARRAY_VALUE -> 8;
+            case MAP_VALUE -> 9;
+            default -> 10;
+        };
+    }
+
+    private static int compare(Value a, Value b) {
+        if (a == null || b == null) return a == null ? (b == null ? 0 : -1) : 1;
+        int c = Integer.compare(typeOrder(a), typeOrder(b));
+        if (c != 0) return c;
+        return switch (a.getValueTypeCase()) {
+            case BOOLEAN_VALUE -> Boolean.compare(a.getBooleanValue(), b.getBooleanValue());
+            case INTEGER_VALUE, DOUBLE_VALUE -> isInteger(a) && isInteger(b)
+                    ? Long.compare(a.getIntegerValue(), b.getIntegerValue())
+                    : Double.compare(asDouble(a), asDouble(b));
+            case TIMESTAMP_VALUE -> Comparator.comparingLong(Timestamp::getSeconds).thenComparingInt(Timestamp::getNanos)
+                    .compare(a.getTimestampValue(), b.getTimestampValue());
+            case STRING_VALUE -> a.getStringValue().compareTo(b.getStringValue());
+            case BYTES_VALUE -> ByteString.unsignedLexicographicalComparator().compare(a.getBytesValue(), b.getBytesValue());
+            case REFERENCE_VALUE -> a.getReferenceValue().compareTo(b.getReferenceValue());
+            case GEO_POINT_VALUE -> {
+                int lat = Double.compare(a.getGeoPointValue().getLatitude(), b.getGeoPointValue().getLatitude());
+                yield lat != 0 ? lat : Double.compare(a.getGeoPointValue().getLongitude(), b.getGeoPointValue().getLongitude());
+            }
+            case ARRAY_VALUE -> {
+                List<Value> x = a.getArrayValue().getValuesList();
+                List<Value> y = b.getArrayValue().getValuesList();
+                for (int i = 0; i < x.size() && i < y.size(); i++) {
+                    int e = compare(x.get(i), y.get(i));
+                    if (e != 0) yield e;
+                }
+                yield Integer.compare(x.size(), y.size());
+            }
+            case MAP_VALUE -> {
+                List<Map.Entry<String, Value>> x = new ArrayList<>(new TreeMap<>(a.getMapValue().getFieldsMap()).entrySet());
+                List<Map.Entry<String, Value>> y = new ArrayList<>(new TreeMap<>(b.getMapValue().getFieldsMap()).entrySet());
+                for (int i = 0; i < x.size() && i < y.size(); i++) {
+                    int k = x.get(i).getKey().compareTo(y.get(i).getKey());
+                    if (k != 0) yield k;
+                    int e = compare(x.get(i).getValue(), y.get(i).getValue());
+                    if (e != 0) yield e;
+                }
+                yield Integer.compare(x.size(), y.size());
+            }
+            default -> 0;
+        };
+    }
+
+    // ---- bookkeeping ----
+
+    private ByteString newTransaction() {
+        return ByteString.copyFromUtf8("tx-" + transactions.incrementAndGet());
+    }
+
+    /** Strictly increasing microsecond timestamps, so update-time preconditions are meaningful. */
+    private Timestamp now() {
+        Instant instant = Instant.now();
+        long wall = instant.getEpochSecond() * 1_000_000 + instant.getNano() / 1_000;
+        long micros = lastMicros.updateAndGet(last -> Math.max(last + 1, wall));
+        return Timestamp.newBuilder().setSeconds(micros / 1_000_000).setNanos((int) (micros % 1_000_000) * 1_000).build();
+    }
+}
@@ -0,0 +1,372 @@
+package com.stayontrack.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultMatcher;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.firestore.FirestoreOptions;
+import com.google.cloud.firestore.v1.FirestoreSettings;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.FirebaseOptions;
+import com.stayontrack.model.Assignment;
+import com.stayontrack.model.Deadline;
+import com.stayontrack.model.Exam;
+import com.stayontrack.model.FocusProfile;
+import com.stayontrack.model.PlannerTask;
+import com.stayontrack.model.PlannerWeek;
+import com.stayontrack.model.Semester;
+import com.stayontrack.model.Task;
+import com.stayontrack.model.WeeklyCheckIn;
+import com.stayontrack.service.FirestoreCostLedger;
+import com.stayontrack.service.FirestoreService;
+import com.stayontrack.stay_on_track_backend.StayOnTrackBackendApplication;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.MethodDescriptor;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Firestore traffic budgets per endpoint. Each request runs through the real controllers,
+ * services and Firestore client against an in-memory backend ({@link FakeFirestore}); the round
+ * trips and documents it costs, as metered by FirestoreCostLedger, must stay within the budget
+ * declared in {@link #reads()} and {@link #writes()}. A change that makes an endpoint cost more
+ * fails here; one that makes it cheaper should lower its budget.
+ *
+ * Read budgets are for the steady state: the endpoint is called once to warm the user's caches
+ * and agenda documents, then measured. Write budgets are for one call, BeginTransaction
+ * included. Each case seeds a fresh user, so no case warms another's caches. The flags the
+ * budgets depend on are pinned below.
+ */
+@SpringBootTest(classes = StayOnTrackBackendApplication.class, properties = {
+        "stayontrack.firestore.cost-ledger.enabled=true",
+        "stayontrack.firestore.aggregation-queries=true",
+        "stayontrack.firestore.group-commit.enabled=false",
+        "stayontrack.firestore.listeners.enabled=false",
+        "stayontrack.cache.change-markers.enabled=false",
+        "stayontrack.planner.agenda.enabled=true",
+        "stayontrack.planner.embedded-sessions=false",
+        "stayontrack.planner.completion-journal.enabled=false",
+        "stayontrack.snapshots.enabled=false",
+        "stayontrack.migrations.typed-dates.enabled=false",
+        "stayontrack.ai.gemini.api-key="
+})
+@AutoConfigureMockMvc
+class FirestoreTrafficBudgetTest {
+
+    private static final FakeFirestore FIRESTORE = FakeFirestore.start();
+
+    /** Delegates to the ledger once the context is up; the channel is built before it. */
+    private static volatile ClientInterceptor ledgerInterceptor;
+
+    static {
+        // Point the default app at the fake before FirebaseConfig runs (it leaves an existing app alone).
+        FirebaseApp.getApps().forEach(FirebaseApp::delete);
+        FirebaseApp.initializeApp(FirebaseOptions.builder()
+                .setCredentials(GoogleCredentials.create(new AccessToken("test", null)))
+                .setProjectId(FakeFirestore.PROJECT)
+                .setFirestoreOptions(FirestoreOptions.newBuilder()
+                        .setProjectId(FakeFirestore.PROJECT)
+                        .setChannelProvider(FirestoreSettings.defaultGrpcTransportProviderBuilder()
+                                .setEndpoint("localhost:" + FIRESTORE.port())
+                                .setChannelConfigurator(ManagedChannelBuilder::usePlaintext)
+                                .setInterceptorProvider(() -> List.of(new ClientInterceptor() {
+                                    @Override
+                                    public <Q, R> ClientCall<Q, R> interceptCall(MethodDescriptor<Q, R> method,
+                                            CallOptions options, Channel next) {
+                                        ClientInterceptor ledger = ledgerInterceptor;
+                                        return ledger != null ? ledger.interceptCall(method, options, next) : next.newCall(method, options);
+                                    }
+                                }, new ClientInterceptor() {
+                                    @Override
+                                    public <Q, R> ClientCall<Q, R> interceptCall(MethodDescriptor<Q, R> method,
+                                            CallOptions options, Channel next) {
+                                        // OAuth call credentials are refused on a plaintext channel
+                                        return next.newCall(method, options.withCallCredentials(null));
+                                    }
+                                }))
+                                .build())
+                        .build())
+                .build());
+    }
+
+    /** What one endpoint may cost per call. */
+    record Budget(String endpoint, int maxRoundTrips, int maxDocuments,
+                  Function<Seed, MockHttpServletRequestBuilder> request, ResultMatcher expect) {
+        @Override
+        public String toString() {
+            return endpoint + " ≤ " + maxRoundTrips + " round trips, " + maxDocuments + " documents";
+        }
+    }
+
+    /** A user with a little of everything, due around today. */
+    record Seed(String userId, LocalDate today, LocalDate weekStart, String deadlineId, String sessionId) {}
+
+    static Stream<Budget> reads() {
+        return Stream.of(
+                // Served from the day's agenda document
+                new Budget("GET /api/planner/today", 1, 1,
+                        s -> get("/api/planner/today").param("userId", s.userId()),
+                        jsonPath("$.length()").value(3)),
+                new Budget("GET /api/planner/agenda", 1, 1,
+                        s -> get("/api/planner/agenda").param("userId", s.userId()).param("date", s.today().toString()),
+                        status().isOk()),
+                new Budget("GET /api/tasks", 1, 1,
+                        s -> get("/api/tasks").param("userId", s.userId()).param("date", s.today().toString()),
+                        jsonPath("$.length()").value(2)),
+                // Week document, then completed / total counts for the week so far
+                new Budget("GET /api/planner/weekly-summary", 3, 3,
+                        s -> get("/api/planner/weekly-summary").param("userId", s.userId()),
+                        status().isOk()),
+                new Budget("GET /api/planner/week", 2, 4,
+                        s -> get("/api/planner/week").param("userId", s.userId()).param("weekStartDate", s.weekStart().toString()),
+                        status().isOk()),
+                new Budget("GET /api/planner/range", 1, 3,
+                        s -> get("/api/planner/range").param("userId", s.userId())
+                                .param("from", s.weekStart().toString()).param("to", s.weekStart().plusDays(6).toString()),
+                        status().isOk()),
+                new Budget("GET /api/planner/month-tasks", 1, 1,
+                        s -> get("/api/planner/month-tasks").param("userId", s.userId())
+                                .param("year", String.valueOf(s.today().getYear()))
+                                .param("month", String.valueOf(s.today().getMonthValue())),
+                        status().isOk()),
+                new Budget("GET /api/exams", 1, 2,
+                        s -> get("/api/exams").param("userId", s.userId()),
+                        jsonPath("$.length()").value(2)),
+                new Budget("GET /api/exams/upcoming", 1, 2,
+                        s -> get("/api/exams/upcoming").param("userId", s.userId()).param("days", "14"),
+                        jsonPath("$.length()").value(2)),
+                new Budget("GET /api/assignments", 1, 2,
+                        s -> get("/api/assignments").param("userId", s.userId()),
+                        jsonPath("$.length()").value(2)),
+                new Budget("GET /api/weekly-checkins", 1, 3,
+                        s -> get("/api/weekly-checkins").param("userId", s.userId()),
+                        jsonPath("$.length()").value(3)),
+                // Cached per user after the first call
+                new Budget("GET /api/deadlines", 0, 0,
+                        s -> get("/api/deadlines").param("userId", s.userId()),
+                        jsonPath("$.length()").value(3)),
+                new Budget("GET /api/semesters", 0, 0,
+                        s -> get("/api/semesters").param("userId", s.userId()),
+                        jsonPath("$.length()").value(1)),
+                new Budget("GET /api/focus-profiles", 0, 0,
+                        s -> get("/api/focus-profiles").param("userId", s.userId()),
+                        jsonPath("$.length()").value(1)),
+                // One range query each for deadlines, exams and assignments
+                new Budget("GET /api/upcoming", 3, 6,
+                        s -> get("/api/upcoming").param("userId", s.userId()).param("days", "14"),
+                        jsonPath("$.length()").value(6)),
+                // Marker, one query per synced collection, tombstones
+                new Budget("GET /api/sync", 11, 20,
+                        s -> get("/api/sync").param("userId", s.userId()).param("since", "0"),
+                        status().isOk()));
+    }
+
+    static Stream<Budget> writes() {
+        return Stream.of(
+                // The deadline and its owner's change marker in one blind batch
+                new Budget("POST /api/deadlines", 1, 2,
+                        s -> post("/api/deadlines").param("userId", s.userId())
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content("{\"title\":\"Lab report\",\"course\":\"CHEM101\",\"dueDate\":\""
+                                        + s.today().plusDays(5) + "\",\"type\":\"assignment\"}"),
+                        status().isOk()),
+                // Renaming retitles the two linked sessions and their agenda day in the same commit
+                new Budget("PUT /api/deadlines/{deadlineId}", 6, 10,
+                        s -> put("/api/deadlines/" + s.deadlineId()).param("userId", s.userId())
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content("{\"title\":\"Final essay\",\"course\":\"ENG101\",\"dueDate\":\""
+                                        + s.today().plusDays(3) + "\",\"type\":\"assignment\"}"),
+                        status().isOk()),
+                new Budget("DELETE /api/deadlines/{deadlineId}", 6, 13,
+                        s -> delete("/api/deadlines/" + s.deadlineId()),
+                        status().isNoContent()),
+                new Budget("PATCH /api/planner/tasks/{taskId}/complete", 4, 5,
+                        s -> patch("/api/planner/tasks/" + s.sessionId() + "/complete").param("completed", "true"),
+                        status().isOk()),
+                // Tasks feed agendas: a transaction reads the day's agenda, then commits task, agenda and marker
+                new Budget("POST /api/tasks", 3, 4,
+                        s -> post("/api/tasks").param("userId", s.userId())
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content("{\"title\":\"Read chapter 4\",\"course\":\"HIST200\",\"duration\":\"1h\",\"dueDate\":\""
+                                        + s.today() + "\"}"),
+                        status().isOk()),
+                new Budget("POST /api/weekly-checkins", 1, 2,
+                        s -> post("/api/weekly-checkins").param("userId", s.userId())
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content("{\"feedback\":\"Busy week\",\"availableStudyHoursNextWeek\":12}"),
+                        status().isOk()));
+    }
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private FirestoreService firestoreService;
+
+    @Autowired
+    private FirestoreCostLedger costLedger;
+
+    @BeforeEach
+    void meterFirestore() {
+        ledgerInterceptor = costLedger.interceptor();
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("reads")
+    void readStaysWithinBudget(Budget budget) throws Exception {
+        Seed seed = seed();
+        mvc.perform(budget.request().apply(seed)).andExpect(budget.expect());  // warm up
+        assertWithinBudget(budget, seed);
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("writes")
+    void writeStaysWithinBudget(Budget budget) throws Exception {
+        assertWithinBudget(budget, seed());
+    }
+
+    /**
+     * Planning fans out per week, so its budget is per planned week: 4 round trips and 4
+     * documents per week, on top of 7 round trips of setup reads. Beyond that, documents scale
+     * with the sessions replaced and written, 2 each. Measured at 9 and 12 weeks against the fake.
+     */
+    @Test
+    void generateStaysWithinBudgetPerWeek() throws Exception {
+        Seed seed = seed();
+        String endpoint = "POST /api/planner/generate";
+        int sessionsBefore = FIRESTORE.count("plannerTasks", seed.userId());
+        Cost before = Cost.of(meterRegistry, endpoint);
+        mvc.perform(post("/api/planner/generate").param("userId", seed.userId()).param("availableHours", "20"))
+                .andExpect(status().isOk());
+        Cost cost = Cost.of(meterRegistry, endpoint).minus(before);
+
+        int weeks = FIRESTORE.count("plannerWeeks", seed.userId());
+        int sessionsAfter = FIRESTORE.count("plannerTasks", seed.userId());
+        assertThat(weeks).as("weeks planned").isGreaterThan(1);
+        assertThat(cost.roundTrips()).as(endpoint + " round trips for " + weeks + " weeks")
+                .isLessThanOrEqualTo(7 + 4 * weeks);
+        assertThat(cost.documents()).as(endpoint + " documents for " + weeks + " weeks")
+                .isLessThanOrEqualTo(7 + 4 * weeks + 2 * (sessionsBefore + sessionsAfter));
+    }
+
+    private void assertWithinBudget(Budget budget, Seed seed) throws Exception {
+        Cost before = Cost.of(meterRegistry, budget.endpoint());
+        mvc.perform(budget.request().apply(seed)).andExpect(budget.expect());
+        Cost cost = Cost.of(meterRegistry, budget.endpoint()).minus(before);
+        assertThat(cost.roundTrips()).as(budget.endpoint() + " round trips").isLessThanOrEqualTo(budget.maxRoundTrips());
+        assertThat(cost.documents()).as(budget.endpoint() + " documents").isLessThanOrEqualTo(budget.maxDocuments());
+    }
+
+    /** Per-request totals recorded by the ledger for one endpoint, summed over all calls so far. */
+    record Cost(double roundTrips, double documents) {
+        static Cost of(MeterRegistry registry, String endpoint) {
+            return new Cost(
+                    total(registry.find("stayontrack.firestore.request.round.trips").tag("endpoint", endpoint).summaries()),
+                    total(registry.find("stayontrack.firestore.request.documents").tag("endpoint", endpoint).summaries()));
+        }
+
+        private static double total(Collection<DistributionSummary> summaries) {
+            return summaries.stream().mapToDouble(DistributionSummary::totalAmount).sum();
+        }
+
+        Cost minus(Cost earlier) {
+            return new Cost(roundTrips - earlier.roundTrips, documents - earlier.documents);
+        }
+    }
+
+    private Seed seed() throws Exception {
+        String userId = "budget-" + UUID.randomUUID();
+        LocalDate today = LocalDate.now();
+        LocalDate weekStart = today.with(DayOfWeek.MONDAY);
+
+        Semester semester = new Semester();
+        semester.setUserId(userId);
+        semester.setSemesterName("Test semester");
+        semester.setStartDate(weekStart.minusWeeks(4).toString());
+        semester.setEndDate(weekStart.plusWeeks(8).toString());
+        firestoreService.createSemester(semester);
+
+        FocusProfile profile = new FocusProfile();
+        profile.setUserId(userId);
+        profile.setPeakFocusTimes(List.of("Morning"));
+        profile.setTypicalStudyDuration("1h");
+        firestoreService.createFocusProfile(profile);
+
+        Deadline essay = firestoreService.createDeadline(new Deadline("Essay", "ENG101", today.plusDays(3), "assignment", userId));
+        firestoreService.createDeadline(new Deadline("Problem set", "MATH120", today.plusDays(10), "assignment", userId));
+        firestoreService.createDeadline(new Deadline("Project", "CS210", today.plusDays(20), "project", userId));
+
+        for (int days : new int[] {5, 9}) {
+            Exam exam = new Exam();
+            exam.setUserId(userId);
+            exam.setCourseName("EXAM" + days);
+            exam.setExamType("Midterm");
+            exam.setDate(today.plusDays(days).toString());
+            exam.setCreatedAt(LocalDateTime.now());  // sent by the client; lists order by it
+            firestoreService.createExam(exam);
+        }
+        for (int days : new int[] {4, 12}) {
+            Assignment assignment = new Assignment();
+            assignment.setUserId(userId);
+            assignment.setCourseName("ASSIGN" + days);
+            assignment.setAssignmentName("Assignment " + days);
+            assignment.setDeadline(today.plusDays(days).toString());
+            assignment.setCreatedAt(LocalDateTime.now());
+            firestoreService.createAssignment(assignment);
+        }
+
+        firestoreService.createTask(new Task("Flashcards", "BIO110", "30m", false, today, userId));
+        firestoreService.createTask(new Task("Lab prep", "CHEM101", "1h", false, today, userId));
+        for (int hours : new int[] {10, 15, 20}) {
+            firestoreService.createWeeklyCheckIn(new WeeklyCheckIn(userId, "Check-in", hours));
+        }
+
+        PlannerWeek week = firestoreService.createPlannerWeek(new PlannerWeek(userId, weekStart, weekStart.plusDays(6), 20));
+        PlannerTask first = new PlannerTask(week.getId(), userId, "Work on Essay", "ENG101", "1h", today, "Medium");
+        first.setDeadlineId(essay.getId());
+        PlannerTask second = new PlannerTask(week.getId(), userId, "Work on Essay", "ENG101", "2h", today, "Medium");
+        second.setDeadlineId(essay.getId());
+        PlannerTask review = firestoreService.createPlannerTask(
+                new PlannerTask(week.getId(), userId, "Review notes", "MATH120", "1h", today, "Easy"));
+        firestoreService.createPlannerTask(first);
+        firestoreService.createPlannerTask(second);
+
+        return new Seed(userId, today, weekStart, essay.getId(), review.getId());
+    }
+}
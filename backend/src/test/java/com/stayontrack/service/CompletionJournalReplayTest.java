@@ -0,0 +1,84 @@
+package com.stayontrack.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.stayontrack.model.PlannerTask;
+
+/**
+ * Replays a completion journal across simulated crashes: a journal that is dropped without
+ * close() (so nothing is flushed or compacted) and restarted on the same file must come back
+ * with exactly the acknowledged toggles, the latest one per task, and ignore a line torn by the
+ * crash. No flush runs, so no Firestore is needed.
+ */
+class CompletionJournalReplayTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void acknowledgedTogglesSurviveACrash() throws IOException {
+        Path file = dir.resolve("completion-journal.log");
+
+        CompletionJournal before = start(file);
+        before.record("t1", true);
+        before.record("t2", true);
+        before.record("t2", false);
+        before.record("t3", true);
+        // Crash mid-append: the last line never got its tab-separated task id or newline.
+        Files.writeString(file, "5\t1", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        CompletionJournal after = start(file);
+        assertThat(completion(after, "t1", "t2", "t3", "t4"))
+                .containsExactlyInAnyOrderEntriesOf(Map.of("t1", true, "t2", false, "t3", true, "t4", false));
+        // Replay compacts to one line per pending task, dropping the torn one.
+        assertThat(Files.readAllLines(file, StandardCharsets.UTF_8)).hasSize(3);
+    }
+
+    @Test
+    void togglesAfterReplayWinOverReplayedOnes() throws IOException {
+        Path file = dir.resolve("completion-journal.log");
+
+        CompletionJournal first = start(file);
+        first.record("t1", true);
+        first.record("t2", true);
+
+        CompletionJournal second = start(file);
+        second.record("t1", false);
+
+        // A second crash: the toggle appended after the first replay's compaction must win.
+        CompletionJournal third = start(file);
+        assertThat(completion(third, "t1", "t2"))
+                .containsExactlyInAnyOrderEntriesOf(Map.of("t1", false, "t2", true));
+    }
+
+    /** A journal on {@code file} as it comes up at startup; flushes never run. */
+    private static CompletionJournal start(Path file) throws IOException {
+        CompletionJournal journal = new CompletionJournal(null, null, true, file.toString(), false, false);
+        journal.replay();
+        return journal;
+    }
+
+    /** Completion state reads would show for stored, uncompleted sessions {@code ids}. */
+    private static Map<String, Boolean> completion(CompletionJournal journal, String... ids) {
+        List<PlannerTask> stored = Arrays.stream(ids).map(id -> {
+            PlannerTask task = new PlannerTask();
+            task.setId(id);
+            return task;
+        }).toList();
+        return journal.overlay(stored).stream()
+                .collect(Collectors.toMap(PlannerTask::getId, PlannerTask::isCompleted, (a, b) -> a));
+    }
+}
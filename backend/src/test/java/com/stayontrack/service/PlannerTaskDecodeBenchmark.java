@@ -0,0 +1,100 @@
+package com.stayontrack.service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.cloud.Timestamp;
+import com.stayontrack.model.PlannerTask;
+
+/**
+ * Decode throughput of a planner task document: the previous FirestoreService.mapToPlannerTask
+ * conversions ({@link #legacy}) against {@link DocumentCodecs#PLANNER_TASK} ({@link #codec}).
+ * Both read the same field map a DocumentSnapshot hands back, so only the conversion differs.
+ *
+ * Run with: mvn test-compile exec:exec -Djmh.benchmarks=PlannerTaskDecodeBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PlannerTaskDecodeBenchmark {
+
+    private Map<String, Object> fields;
+
+    @Setup
+    public void setUp() {
+        LocalDateTime start = LocalDateTime.of(2026, 3, 9, 15, 0);
+        fields = new HashMap<>();
+        fields.put("plannerWeekId", "user-1_2026-03-09");
+        fields.put("userId", "user-1");
+        fields.put("title", "Revise Chapter 4");
+        fields.put("course", "CS101");
+        fields.put("duration", "2 hours");
+        fields.put("completed", Boolean.FALSE);
+        fields.put("difficulty", "Medium");
+        fields.put("isIndividual", Boolean.TRUE);
+        fields.put("status", "scheduled");
+        fields.put("dueDate", DocumentCodecs.timestamp(start.toLocalDate()));
+        fields.put("scheduledStartTime", DocumentCodecs.timestamp(start));
+        fields.put("createdAt", DocumentCodecs.timestamp(start.minusDays(2)));
+    }
+
+    @Benchmark
+    public PlannerTask legacy() {
+        Map<String, Object> f = fields;
+        PlannerTask t = new PlannerTask();
+        t.setId("user-1_2026-03-09_000");
+        t.setPlannerWeekId((String) f.get("plannerWeekId"));
+        t.setUserId((String) f.get("userId"));
+        t.setTitle((String) f.get("title"));
+        t.setCourse((String) f.get("course"));
+        t.setDuration((String) f.get("duration"));
+        t.setCompleted(Boolean.TRUE.equals(f.get("completed")));
+        t.setDifficulty((String) f.get("difficulty"));
+        t.setIsIndividual((Boolean) f.get("isIndividual"));
+        t.setStatus((String) f.get("status"));
+        Timestamp ts = (Timestamp) f.get("dueDate");
+        if (ts != null) {
+            t.setDueDate(LocalDateTime.ofInstant(ts.toDate().toInstant(), ZoneId.systemDefault()).toLocalDate());
+        }
+        ts = (Timestamp) f.get("scheduledStartTime");
+        if (ts != null) {
+            t.setScheduledStartTime(LocalDateTime.ofInstant(ts.toDate().toInstant(), ZoneId.systemDefault()));
+        }
+        ts = (Timestamp) f.get("createdAt");
+        if (ts != null) {
+            t.setCreatedAt(LocalDateTime.ofInstant(ts.toDate().toInstant(), ZoneId.systemDefault()));
+        }
+        return t;
+    }
+
+    @Benchmark
+    public PlannerTask codec() {
+        return DocumentCodecs.PLANNER_TASK.decode("user-1_2026-03-09_000", fields);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PlannerTaskDecodeBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
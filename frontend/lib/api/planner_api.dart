@@ -101,6 +101,24 @@ class PlannerApi {
     }
   }
 
+  /// Get tasks from [from] to [to] (inclusive) in one request, keyed by ISO day.
+  static Future<Map<String, List<PlannerTask>>> getTasksForRange(DateTime from, DateTime to) async {
+    try {
+      final res = await http
+          .get(Uri.parse('$baseUrl/api/planner/range?userId=$_userId'
+              '&from=${CalendarUtils.toIso(from)}&to=${CalendarUtils.toIso(to)}'))
+          .timeout(const Duration(seconds: 5));
+      if (res.statusCode != 200) return {};
+      final map = jsonDecode(res.body) as Map<String, dynamic>;
+      return map.map((day, list) => MapEntry(
+            day,
+            (list as List).map((e) => PlannerTask.fromJson(e as Map<String, dynamic>)).toList(),
+          ));
+    } catch (_) {
+      return {};
+    }
+  }
+
   /// Generate initial plan (after setup).
   /// Returns null on failure. Check res.statusCode for debugging.
   static Future<PlannerWeek?> generatePlan({int availableHours = 20}) async {
@@ -129,14 +147,22 @@ class PlannerApi {
   }
 
   /// Get deadlines (for planner month view, nearest deadline for alert).
+  /// The list is paged; follows X-Next-Page-Token until the last page.
   static Future<List<Deadline>> getDeadlines() async {
     try {
-      final res = await http
-          .get(Uri.parse('$baseUrl/api/deadlines?userId=$_userId'))
-          .timeout(const Duration(seconds: 5));
-      if (res.statusCode != 200) return [];
-      final list = jsonDecode(res.body) as List;
-      return list.map((e) => Deadline.fromJson(e as Map<String, dynamic>)).toList();
+      final deadlines = <Deadline>[];
+      String? pageToken;
+      do {
+        final token = pageToken != null ? '&pageToken=${Uri.encodeQueryComponent(pageToken)}' : '';
+        final res = await http
+            .get(Uri.parse('$baseUrl/api/deadlines?userId=$_userId$token'))
+            .timeout(const Duration(seconds: 5));
+        if (res.statusCode != 200) return [];
+        final list = jsonDecode(res.body) as List;
+        deadlines.addAll(list.map((e) => Deadline.fromJson(e as Map<String, dynamic>)));
+        pageToken = res.headers['x-next-page-token'];
+      } while (pageToken != null);
+      return deadlines;
     } catch (_) {
       return [];
     }
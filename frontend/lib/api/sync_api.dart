@@ -0,0 +1,58 @@
+import 'dart:convert';
+import 'package:http/http.dart' as http;
+import 'package:flutter_stayontrack/user_session.dart';
+import 'planner_api.dart' show baseUrl;
+
+/// Delta sync API client.
+class SyncApi {
+  static String get _userId => UserSession.uid ?? 'default-user';
+
+  /// Changes since [since]; pass the returned version on the next call.
+  /// Apply [SyncResult.deleted] before [SyncResult.changes].
+  static Future<SyncResult?> getChangesSince(int since) async {
+    try {
+      final res = await http
+          .get(Uri.parse('$baseUrl/api/sync?userId=$_userId&since=$since'))
+          .timeout(const Duration(seconds: 10));
+      if (res.statusCode != 200) return null;
+      return SyncResult.fromJson(jsonDecode(res.body) as Map<String, dynamic>);
+    } catch (_) {
+      return null;
+    }
+  }
+}
+
+class SyncResult {
+  final int version;
+  /// Raw documents keyed by collection name, e.g. 'deadlines', 'plannerTasks'.
+  final Map<String, List<Map<String, dynamic>>> changes;
+  final List<SyncTombstone> deleted;
+
+  SyncResult({required this.version, required this.changes, required this.deleted});
+
+  factory SyncResult.fromJson(Map<String, dynamic> json) {
+    final changes = <String, List<Map<String, dynamic>>>{};
+    (json['changes'] as Map<String, dynamic>? ?? {}).forEach((collection, docs) {
+      changes[collection] = (docs as List).map((e) => e as Map<String, dynamic>).toList();
+    });
+    return SyncResult(
+      version: (json['version'] as num?)?.toInt() ?? 0,
+      changes: changes,
+      deleted: (json['deleted'] as List? ?? [])
+          .map((e) => SyncTombstone.fromJson(e as Map<String, dynamic>))
+          .toList(),
+    );
+  }
+}
+
+class SyncTombstone {
+  final String collection;
+  final String id;
+
+  SyncTombstone({required this.collection, required this.id});
+
+  factory SyncTombstone.fromJson(Map<String, dynamic> json) => SyncTombstone(
+        collection: json['collection'] as String? ?? '',
+        id: json['id'] as String? ?? '',
+      );
+}